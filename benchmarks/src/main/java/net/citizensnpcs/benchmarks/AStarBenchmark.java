@@ -0,0 +1,58 @@
+package net.citizensnpcs.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.citizensnpcs.api.ai.NavigatorParameters;
+import net.citizensnpcs.api.ai.event.CancelReason;
+import net.citizensnpcs.api.astar.pathfinder.MinecraftBlockExaminer;
+import net.citizensnpcs.benchmarks.BenchmarkWorlds.PillarBlockSource;
+import net.citizensnpcs.npc.ai.AStarNavigationStrategy.AStarPlanner;
+
+/**
+ * Plans a path with the {@link AStarPlanner} used by {@link net.citizensnpcs.npc.ai.AStarNavigationStrategy} across a
+ * world containing a grid of pillars.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AStarBenchmark {
+    @Param({ "16", "48" })
+    public int distance;
+    private Location from;
+    private NavigatorParameters params;
+    private PillarBlockSource source;
+    private Location to;
+
+    @Benchmark
+    public CancelReason plan() {
+        // the planner adds its own examiner to the parameters, so each search needs a fresh copy
+        return new AStarPlanner(params.clone(), from, to, source).tick(-1, -1);
+    }
+
+    @Setup
+    public void setup() {
+        World world = BenchmarkWorlds.createPillarWorld();
+        from = new Location(world, 1.5, BenchmarkWorlds.GROUND_Y + 1, 1.5);
+        to = new Location(world, distance + 1.5, BenchmarkWorlds.GROUND_Y + 1, distance / 2 + 1.5);
+        source = new PillarBlockSource(world);
+        params = new NavigatorParameters().range(distance + 16).avoidWater(false).pathDistanceMargin(1)
+                .examiner(new MinecraftBlockExaminer());
+    }
+}
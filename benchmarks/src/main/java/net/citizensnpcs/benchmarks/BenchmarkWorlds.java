@@ -0,0 +1,130 @@
+package net.citizensnpcs.benchmarks;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Material;
+import org.bukkit.Server;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.plugin.PluginManager;
+
+import net.citizensnpcs.api.CitizensAPI;
+import net.citizensnpcs.api.CitizensPlugin;
+import net.citizensnpcs.api.astar.pathfinder.BlockSource;
+import net.citizensnpcs.api.util.BoundingBox;
+import net.citizensnpcs.npc.CitizensTraitFactory;
+
+/**
+ * Mocked Bukkit server and worlds for benchmarks which do not need a running server. Only identity methods of the
+ * mocked world are stubbed; block reads go through {@link PillarBlockSource}, which computes blocks directly instead
+ * of going through Mockito.
+ */
+public class BenchmarkWorlds {
+    /**
+     * Creates a world for the pillar layout read by {@link PillarBlockSource}.
+     */
+    public static World createPillarWorld() {
+        setupServer();
+        World world = mock(World.class);
+        UUID uuid = UUID.randomUUID();
+        when(world.getUID()).thenReturn(uuid);
+        when(world.getName()).thenReturn("benchmark");
+        when(world.getMinHeight()).thenReturn(0);
+        when(world.getMaxHeight()).thenReturn(MAX_HEIGHT);
+        return world;
+    }
+
+    /**
+     * Returns the block type of the pillar world: solid ground up to {@link #GROUND_Y} and a grid of two block high
+     * pillars every {@link #PILLAR_SPACING} blocks to give pathfinders something to route around.
+     */
+    public static Material getType(int x, int y, int z) {
+        if (y <= GROUND_Y)
+            return Material.STONE;
+        if (y <= GROUND_Y + 2 && Math.floorMod(x, PILLAR_SPACING) == 0 && Math.floorMod(z, PILLAR_SPACING) == 0)
+            return Material.STONE;
+        return Material.AIR;
+    }
+
+    /**
+     * Installs a mocked {@link CitizensPlugin} with a temporary data folder if no implementation is set. Safe to call
+     * more than once.
+     */
+    public static synchronized void setupCitizens() throws IOException {
+        setupServer();
+        if (CitizensAPI.hasImplementation())
+            return;
+        File dataFolder = Files.createTempDirectory("citizens-benchmark").toFile();
+        CitizensPlugin plugin = mock(CitizensPlugin.class);
+        when(plugin.getDataFolder()).thenReturn(dataFolder);
+        when(plugin.getTraitFactory()).thenReturn(new CitizensTraitFactory(null));
+        CitizensAPI.setImplementation(plugin);
+    }
+
+    /**
+     * Installs a mocked {@link Server} if none is set. Safe to call more than once.
+     */
+    public static synchronized void setupServer() {
+        if (Bukkit.getServer() != null)
+            return;
+        Server server = mock(Server.class);
+        when(server.getLogger()).thenReturn(Logger.getLogger("Citizens benchmarks"));
+        when(server.getName()).thenReturn("Benchmark");
+        when(server.getVersion()).thenReturn("benchmark (MC: 1.20.1)");
+        when(server.getBukkitVersion()).thenReturn("1.20.1-R0.1-SNAPSHOT");
+        when(server.getPluginManager()).thenReturn(mock(PluginManager.class));
+        Bukkit.setServer(server);
+    }
+
+    /**
+     * Reads the pillar world without touching Bukkit. Like {@link net.citizensnpcs.npc.ai.NMSChunkBlockSource} with a
+     * warm {@link net.citizensnpcs.npc.ai.BlockShapeCache}, each collision box lookup resolves a shape relative to the
+     * block and translates it to the block position. Live blocks can't be read, the same as
+     * {@link net.citizensnpcs.npc.ai.SnapshotBlockSource}.
+     */
+    public static class PillarBlockSource extends BlockSource {
+        private final World world;
+
+        public PillarBlockSource(World world) {
+            this.world = world;
+        }
+
+        @Override
+        public Block getBlockAt(int x, int y, int z) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public BoundingBox getCollisionBox(int x, int y, int z) {
+            if (y < 0 || y >= MAX_HEIGHT)
+                return null;
+            if (!getType(x, y, z).isSolid())
+                return BoundingBox.EMPTY;
+            return new BoundingBox(FULL_BLOCK.minX + x, FULL_BLOCK.minY + y, FULL_BLOCK.minZ + z, FULL_BLOCK.maxX + x,
+                    FULL_BLOCK.maxY + y, FULL_BLOCK.maxZ + z);
+        }
+
+        @Override
+        public Material getMaterialAt(int x, int y, int z) {
+            return y < 0 || y >= MAX_HEIGHT ? Material.AIR : getType(x, y, z);
+        }
+
+        @Override
+        public World getWorld() {
+            return world;
+        }
+    }
+
+    private static final BoundingBox FULL_BLOCK = new BoundingBox(0, 0, 0, 1, 1, 1);
+    public static final int GROUND_Y = 64;
+    private static final int MAX_HEIGHT = 256;
+    public static final int PILLAR_SPACING = 4;
+}
@@ -0,0 +1,78 @@
+package net.citizensnpcs.benchmarks;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.google.common.collect.Maps;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * Compares two JMH JSON result files (<code>-rf json</code>), printing the relative change of each benchmark.
+ *
+ * <pre>
+ * java -cp benchmarks/target/benchmarks.jar net.citizensnpcs.benchmarks.CompareResults before.json after.json
+ * </pre>
+ */
+public class CompareResults {
+    private static Map<String, JsonObject> read(String file) throws IOException {
+        Map<String, JsonObject> results = new TreeMap<>();
+        try (Reader reader = Files.newBufferedReader(Paths.get(file), StandardCharsets.UTF_8)) {
+            JsonArray array = new JsonParser().parse(reader).getAsJsonArray();
+            for (JsonElement element : array) {
+                JsonObject result = element.getAsJsonObject();
+                String name = result.get("benchmark").getAsString();
+                if (result.has("params")) {
+                    Map<String, String> params = new TreeMap<>();
+                    for (Map.Entry<String, JsonElement> param : result.getAsJsonObject("params").entrySet()) {
+                        params.put(param.getKey(), param.getValue().getAsString());
+                    }
+                    name += " " + params;
+                }
+                results.put(name.replace("net.citizensnpcs.benchmarks.", ""), result.getAsJsonObject("primaryMetric"));
+            }
+        }
+        return results;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: CompareResults <before.json> <after.json>");
+            System.exit(1);
+        }
+        Map<String, JsonObject> before = read(args[0]);
+        Map<String, JsonObject> after = read(args[1]);
+        Map<String, String> rows = Maps.newLinkedHashMap();
+        for (Map.Entry<String, JsonObject> entry : before.entrySet()) {
+            JsonObject other = after.get(entry.getKey());
+            if (other == null) {
+                rows.put(entry.getKey(), "missing from " + args[1]);
+                continue;
+            }
+            double old = entry.getValue().get("score").getAsDouble();
+            double now = other.get("score").getAsDouble();
+            double error = Math.max(entry.getValue().get("scoreError").getAsDouble(),
+                    other.get("scoreError").getAsDouble());
+            String unit = other.get("scoreUnit").getAsString();
+            String change = old == 0 ? "n/a" : String.format("%+.1f%%", (now - old) / old * 100);
+            rows.put(entry.getKey(), String.format("%12.3f -> %12.3f %-8s %8s%s", old, now, unit, change,
+                    Math.abs(now - old) <= error ? " (within error)" : ""));
+        }
+        for (String name : after.keySet()) {
+            if (!before.containsKey(name)) {
+                rows.put(name, "missing from " + args[0]);
+            }
+        }
+        int width = rows.keySet().stream().mapToInt(String::length).max().orElse(0);
+        for (Map.Entry<String, String> row : rows.entrySet()) {
+            System.out.println(String.format("%-" + width + "s  %s", row.getKey(), row.getValue()));
+        }
+    }
+}
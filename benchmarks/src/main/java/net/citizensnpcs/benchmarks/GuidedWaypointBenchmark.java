@@ -0,0 +1,92 @@
+package net.citizensnpcs.benchmarks;
+
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.mockito.ArgumentCaptor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.collect.Lists;
+
+import net.citizensnpcs.api.ai.Goal;
+import net.citizensnpcs.api.ai.GoalController;
+import net.citizensnpcs.api.ai.Navigator;
+import net.citizensnpcs.api.ai.NavigatorParameters;
+import net.citizensnpcs.api.npc.NPC;
+import net.citizensnpcs.trait.waypoint.GuidedWaypointProvider;
+import net.citizensnpcs.trait.waypoint.Waypoint;
+
+/**
+ * Plans guided waypoint routes between random destinations through a field of guide waypoints.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GuidedWaypointBenchmark {
+    @Param({ "100", "1000" })
+    public int guides;
+    private Goal planner;
+
+    @Benchmark
+    public boolean plan() {
+        planner.reset();
+        return planner.shouldExecute(null);
+    }
+
+    @Setup
+    public void setup() {
+        World world = BenchmarkWorlds.createPillarWorld();
+        Random random = new Random(guides);
+        int size = (int) Math.sqrt(guides) * 8;
+        List<Waypoint> guideWaypoints = Lists.newArrayList();
+        for (int i = 0; i < guides; i++) {
+            guideWaypoints.add(new Waypoint(new Location(world, random.nextInt(size), BenchmarkWorlds.GROUND_Y + 1,
+                    random.nextInt(size))));
+        }
+        List<Waypoint> destinations = Lists.newArrayList();
+        for (int i = 0; i < 10; i++) {
+            destinations.add(new Waypoint(new Location(world, random.nextInt(size), BenchmarkWorlds.GROUND_Y + 1,
+                    random.nextInt(size))));
+        }
+        GuidedWaypointProvider provider = new GuidedWaypointProvider();
+        provider.addGuides(guideWaypoints);
+        provider.addDestinations(destinations);
+
+        NPC npc = mock(NPC.class);
+        Navigator navigator = mock(Navigator.class);
+        when(navigator.isNavigating()).thenReturn(false);
+        when(navigator.getDefaultParameters()).thenReturn(new NavigatorParameters().range(24));
+        when(npc.getNavigator()).thenReturn(navigator);
+        when(npc.isSpawned()).thenReturn(true);
+        when(npc.getStoredLocation()).thenReturn(new Location(world, size / 2, BenchmarkWorlds.GROUND_Y + 1, size / 2));
+        GoalController controller = mock(GoalController.class);
+        when(npc.getDefaultGoalController()).thenReturn(controller);
+        provider.onSpawn(npc);
+
+        // the provider registers its planning goal with the NPC's goal controller on spawn
+        ArgumentCaptor<Goal> goal = ArgumentCaptor.forClass(Goal.class);
+        verify(controller).addGoal(goal.capture(), anyInt());
+        planner = goal.getValue();
+    }
+}
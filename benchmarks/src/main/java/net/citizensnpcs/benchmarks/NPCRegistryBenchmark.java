@@ -0,0 +1,132 @@
+package net.citizensnpcs.benchmarks;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.EntityType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import net.citizensnpcs.api.npc.MemoryNPCDataStore;
+import net.citizensnpcs.api.npc.NPC;
+import net.citizensnpcs.api.trait.trait.Owner;
+import net.citizensnpcs.api.trait.trait.Spawned;
+import net.citizensnpcs.api.util.MemoryDataKey;
+import net.citizensnpcs.npc.AbstractEntityController;
+import net.citizensnpcs.npc.CitizensNPCRegistry;
+import net.citizensnpcs.npc.EntityControllers;
+import net.citizensnpcs.trait.CurrentLocation;
+
+/**
+ * Iterates and looks up NPCs in a {@link CitizensNPCRegistry}. NPCs are created through the registry and loaded
+ * despawned, so the owner and world indexes are populated as they would be on a server.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NPCRegistryBenchmark {
+    @Param({ "1000", "10000" })
+    public int npcs;
+    private UUID[] owners;
+    private CitizensNPCRegistry registry;
+    private UUID[] uuids;
+    private World world;
+
+    @Benchmark
+    public NPC getById() {
+        return registry.getById(ThreadLocalRandom.current().nextInt(npcs));
+    }
+
+    @Benchmark
+    public NPC getByUniqueId() {
+        return registry.getByUniqueId(uuids[ThreadLocalRandom.current().nextInt(npcs)]);
+    }
+
+    @Benchmark
+    public void getNPCsInWorld(Blackhole blackhole) {
+        blackhole.consume(registry.getNPCsInWorld(world.getUID()));
+    }
+
+    @Benchmark
+    public void getOwnedBy(Blackhole blackhole) {
+        blackhole.consume(registry.getOwnedBy(owners[ThreadLocalRandom.current().nextInt(owners.length)]));
+    }
+
+    @Benchmark
+    public void iterate(Blackhole blackhole) {
+        for (NPC npc : registry) {
+            blackhole.consume(npc);
+        }
+    }
+
+    @Benchmark
+    public void iterateSorted(Blackhole blackhole) {
+        for (NPC npc : registry.sorted()) {
+            blackhole.consume(npc);
+        }
+    }
+
+    @Setup
+    public void setup() throws IOException {
+        setupCitizens();
+        world = BenchmarkWorlds.createPillarWorld();
+        registry = new CitizensNPCRegistry(new MemoryNPCDataStore(), "benchmark");
+        owners = new UUID[Math.max(1, npcs / OWNED_PER_PLAYER)];
+        for (int i = 0; i < owners.length; i++) {
+            owners[i] = UUID.randomUUID();
+        }
+        uuids = new UUID[npcs];
+        for (int i = 0; i < npcs; i++) {
+            uuids[i] = UUID.randomUUID();
+            NPC npc = registry.createNPC(EntityType.PLAYER, uuids[i], i, "npc" + i);
+            npc.getOrAddTrait(Owner.class).setOwner(owners[i % owners.length]);
+            Location location = new Location(world, i, BenchmarkWorlds.GROUND_Y + 1, 0);
+            npc.getOrAddTrait(CurrentLocation.class).setLocation(location);
+            npc.getOrAddTrait(Spawned.class).setSpawned(false);
+            // loading indexes the stored world and the owner without spawning the NPC
+            npc.load(new MemoryDataKey());
+        }
+    }
+
+    public static class BenchmarkEntityController extends AbstractEntityController {
+        @Override
+        protected Entity createEntity(Location at, NPC npc) {
+            Entity entity = mock(Entity.class);
+            when(entity.getEntityId()).thenReturn(npc.getId());
+            when(entity.getLocation()).thenReturn(at.clone());
+            when(entity.getType()).thenReturn(EntityType.PLAYER);
+            when(entity.getUniqueId()).thenReturn(npc.getUniqueId());
+            when(entity.getWorld()).thenReturn(at.getWorld());
+            when(entity.isValid()).thenReturn(true);
+            return entity;
+        }
+    }
+
+    private static final int OWNED_PER_PLAYER = 10;
+
+    private static synchronized void setupCitizens() throws IOException {
+        BenchmarkWorlds.setupCitizens();
+        EntityControllers.setEntityControllerForType(EntityType.PLAYER, BenchmarkEntityController.class);
+    }
+}
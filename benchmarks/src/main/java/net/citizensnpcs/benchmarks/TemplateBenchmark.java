@@ -0,0 +1,77 @@
+package net.citizensnpcs.benchmarks;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.citizensnpcs.api.CitizensAPI;
+import net.citizensnpcs.api.npc.NPC;
+import net.citizensnpcs.api.util.DataKey;
+import net.citizensnpcs.api.util.YamlStorage;
+import net.citizensnpcs.npc.Template;
+
+/**
+ * Applies a template to an unspawned NPC. The template is saved to the data folder and loaded through
+ * {@link Template#byName(String)}. The NPC is mocked so only the template merge and the data key round trip are
+ * measured, not trait loading.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TemplateBenchmark {
+    @Param({ "20", "200" })
+    public int keys;
+    private NPC npc;
+    private Template template;
+
+    @Benchmark
+    public void apply() {
+        template.apply(npc);
+    }
+
+    @Setup
+    public void setup() throws Exception {
+        BenchmarkWorlds.setupCitizens();
+        npc = mock(NPC.class);
+        when(npc.isSpawned()).thenReturn(false);
+        doAnswer(inv -> {
+            DataKey root = inv.getArgument(0);
+            root.setString("name", "Benchmark");
+            root.setString("uuid", "00000000-0000-0000-0000-000000000000");
+            for (int i = 0; i < keys; i++) {
+                root.setString("traits.trait" + (i % 10) + ".key" + i, "value" + i);
+            }
+            return null;
+        }).when(npc).save(any(DataKey.class));
+
+        File folder = new File(CitizensAPI.getDataFolder(), "templates");
+        folder.mkdirs();
+        YamlStorage storage = new YamlStorage(new File(folder, "benchmark" + keys + ".yml"));
+        DataKey root = storage.getKey("");
+        root.setBoolean("override", true);
+        for (int i = 0; i < keys; i += 2) {
+            root.setString("replacements.traits.trait" + (i % 10) + ".key" + i, "replaced" + i);
+        }
+        storage.save();
+        template = Template.byName("benchmark" + keys);
+    }
+}
@@ -0,0 +1,94 @@
+package net.citizensnpcs.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.citizensnpcs.api.util.DataKey;
+import net.citizensnpcs.api.util.YamlStorage;
+
+/**
+ * Saves and loads a saves file shaped like a typical Citizens saves.yml.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class YamlStorageBenchmark {
+    private File file;
+    @Param({ "100", "1000" })
+    public int npcs;
+    private YamlStorage storage;
+
+    @Benchmark
+    public boolean load() {
+        return new YamlStorage(file, "Citizens NPC Storage").load();
+    }
+
+    @Benchmark
+    public void save() {
+        storage.save();
+    }
+
+    @Setup
+    public void setup() throws IOException {
+        BenchmarkWorlds.setupServer();
+        file = Files.createTempFile("citizens-benchmark", ".yml").toFile();
+        storage = new YamlStorage(file, "Citizens NPC Storage");
+        storage.load();
+        for (int i = 0; i < npcs; i++) {
+            DataKey npc = storage.getKey("npc." + i);
+            npc.setString("name", "NPC " + i);
+            npc.setString("uuid", new UUID(i, i).toString());
+            npc.setString("traits.type", "PLAYER");
+            npc.setBoolean("traits.spawned", true);
+            npc.setString("traits.location.world", "world");
+            npc.setDouble("traits.location.x", i * 3.5);
+            npc.setDouble("traits.location.y", 64);
+            npc.setDouble("traits.location.z", -i * 1.5);
+            npc.setDouble("traits.location.yaw", 90);
+            npc.setDouble("traits.location.pitch", 0);
+            npc.setBoolean("traits.lookclose.enabled", i % 2 == 0);
+            npc.setDouble("traits.lookclose.range", 10);
+            npc.setString("traits.skintrait.skinName", "Notch");
+            npc.setString("traits.skintrait.signature", SKIN_DATA);
+            npc.setString("traits.skintrait.textureRaw", SKIN_DATA);
+            npc.setString("traits.commandtrait.commands.0.command", "say hello <p>");
+            npc.setString("traits.commandtrait.commands.0.hand", "RIGHT");
+            npc.setDouble("navigator.speedmodifier", 1);
+        }
+        storage.save();
+    }
+
+    @TearDown
+    public void tearDown() {
+        file.delete();
+    }
+
+    private static final String SKIN_DATA;
+
+    static {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 64; i++) {
+            builder.append("ZXlKMGFXMWxjM1JoYlhBaU9qRTJ");
+        }
+        SKIN_DATA = builder.toString();
+    }
+}
@@ -7,6 +7,7 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
 
 import org.bukkit.Bukkit;
@@ -61,6 +62,7 @@ import net.citizensnpcs.api.scripting.ScriptCompiler;
 import net.citizensnpcs.api.trait.Trait;
 import net.citizensnpcs.api.trait.TraitFactory;
 import net.citizensnpcs.api.trait.TraitInfo;
+import net.citizensnpcs.api.util.DataKey;
 import net.citizensnpcs.api.util.Messaging;
 import net.citizensnpcs.api.util.NBTStorage;
 import net.citizensnpcs.api.util.Placeholders;
@@ -76,14 +78,26 @@ import net.citizensnpcs.commands.WaypointCommands;
 import net.citizensnpcs.editor.Editor;
 import net.citizensnpcs.npc.CitizensNPCRegistry;
 import net.citizensnpcs.npc.CitizensTraitFactory;
+import net.citizensnpcs.npc.NPCEntityIndex;
 import net.citizensnpcs.npc.NPCSelector;
+import net.citizensnpcs.npc.NPCUpdateScheduler;
 import net.citizensnpcs.npc.Template;
+import net.citizensnpcs.npc.ai.AsyncPathfinder;
+import net.citizensnpcs.npc.ai.ChunkPortalGraph;
+import net.citizensnpcs.npc.ai.FlowField;
+import net.citizensnpcs.npc.ai.PathCache;
+import net.citizensnpcs.npc.ai.SnapshotBlockSource;
+import net.citizensnpcs.npc.profile.ProfileFetchResult;
 import net.citizensnpcs.npc.profile.ProfileFetcher;
 import net.citizensnpcs.npc.skin.Skin;
+import net.citizensnpcs.npc.skin.SkinCache;
+import net.citizensnpcs.npc.skin.SkinUpdateTracker;
 import net.citizensnpcs.trait.ClickRedirectTrait;
+import net.citizensnpcs.trait.CommandCooldownStore;
 import net.citizensnpcs.trait.CommandTrait;
 import net.citizensnpcs.trait.ScriptTrait;
 import net.citizensnpcs.trait.ShopTrait;
+import net.citizensnpcs.util.LineOfSightCache;
 import net.citizensnpcs.util.Messages;
 import net.citizensnpcs.util.NMS;
 import net.citizensnpcs.util.PlayerUpdateTask;
@@ -93,6 +107,7 @@ import net.milkbowl.vault.economy.Economy;
 public class Citizens extends JavaPlugin implements CitizensPlugin {
     private final List<NPCRegistry> anonymousRegistries = Lists.newArrayList();
     private final List<NPCRegistry> citizensBackedRegistries = Lists.newArrayList();
+    private CommandCooldownStore commandCooldowns;
     private final CommandManager commands = new CommandManager();
     private Settings config;
     private boolean enabled;
@@ -150,9 +165,13 @@ public class Citizens extends JavaPlugin implements CitizensPlugin {
     private CitizensNPCRegistry npcRegistry;
     private ProtocolLibListener protocolListener;
     private boolean saveOnDisable = true;
+    private NPCSavePipeline savePipeline;
     private NPCDataStore saves;
     private NPCSelector selector;
     private StoredShops shops;
+    private SkinCache skinCache;
+    private SkinUpdateTracker skinUpdateTracker;
+    private Storage storage;
     private final Map<String, NPCRegistry> storedRegistries = Maps.newHashMap();
     private CitizensTraitFactory traitFactory;
 
@@ -180,14 +199,28 @@ public class Citizens extends JavaPlugin implements CitizensPlugin {
     private NPCDataStore createStorage(File folder) {
         Storage saves = null;
         String type = Setting.STORAGE_TYPE.asString();
+        File file = new File(folder, Setting.STORAGE_FILE.asString());
         if (type.equalsIgnoreCase("nbt")) {
-            saves = new NBTStorage(new File(folder, Setting.STORAGE_FILE.asString()), "Citizens NPC Storage");
+            saves = new NBTStorage(file, STORAGE_HEADER);
+        } else if (type.equalsIgnoreCase("sharded")) {
+            ShardedYamlStorage sharded = new ShardedYamlStorage(file, STORAGE_HEADER);
+            sharded.setWorldLoadCallback(keys -> {
+                if (enabled) {
+                    new NPCLoader(npcRegistry, keys).load(null);
+                }
+            });
+            Bukkit.getPluginManager().registerEvents(sharded, this);
+            saves = sharded;
         }
         if (saves == null) {
-            saves = new YamlStorage(new File(folder, Setting.STORAGE_FILE.asString()), "Citizens NPC Storage");
+            if (!ShardedYamlStorage.migrateToSingleFile(file, STORAGE_HEADER))
+                return null;
+            saves = new YamlStorage(file, STORAGE_HEADER);
         }
         if (!saves.load())
             return null;
+        savePipeline.setStorage(saves, file, STORAGE_HEADER);
+        storage = saves;
         return SimpleNPCDataStore.create(saves);
     }
 
@@ -206,6 +239,10 @@ public class Citizens extends JavaPlugin implements CitizensPlugin {
         }
     }
 
+    public CommandCooldownStore getCommandCooldowns() {
+        return commandCooldowns;
+    }
+
     @Override
     public CommandManager getCommandManager() {
         return commands;
@@ -271,6 +308,10 @@ public class Citizens extends JavaPlugin implements CitizensPlugin {
         return npcRegistry;
     }
 
+    public NPCSavePipeline getSavePipeline() {
+        return savePipeline;
+    }
+
     public NPCSelector getNPCSelector() {
         return selector;
     }
@@ -289,6 +330,14 @@ public class Citizens extends JavaPlugin implements CitizensPlugin {
         return shops;
     }
 
+    public SkinCache getSkinCache() {
+        return skinCache;
+    }
+
+    public SkinUpdateTracker getSkinUpdateTracker() {
+        return skinUpdateTracker;
+    }
+
     @Override
     public TraitFactory getTraitFactory() {
         return traitFactory;
@@ -344,7 +393,11 @@ public class Citizens extends JavaPlugin implements CitizensPlugin {
     @Override
     public boolean onCommand(CommandSender sender, org.bukkit.command.Command command, String cmdName, String[] args) {
         Object[] methodArgs = { sender, selector == null ? null : selector.getSelected(sender) };
-        return commands.executeSafe(command, args, sender, methodArgs);
+        boolean result = commands.executeSafe(command, args, sender, methodArgs);
+        if (methodArgs[1] != null && savePipeline != null) {
+            savePipeline.markDirty((NPC) methodArgs[1]);
+        }
+        return result;
     }
 
     public void onDependentPluginDisable() {
@@ -362,6 +415,8 @@ public class Citizens extends JavaPlugin implements CitizensPlugin {
         Bukkit.getPluginManager().callEvent(new CitizensDisableEvent());
         Editor.leaveAll();
         despawnNPCs(saveOnDisable);
+        NPCEntityIndex.clear();
+        savePipeline.shutdown();
         HandlerList.unregisterAll(this);
         npcRegistry = null;
         locationLookup = null;
@@ -370,7 +425,15 @@ public class Citizens extends JavaPlugin implements CitizensPlugin {
         ProfileFetcher.shutdown();
         Skin.clearCache();
         Template.shutdown();
+        AsyncPathfinder.shutdown();
+        ChunkPortalGraph.clear();
+        FlowField.clear();
+        LineOfSightCache.clear();
+        PathCache.clear();
+        SnapshotBlockSource.clear();
+        NMS.flushPackets();
         NMS.shutdown();
+        NPCUpdateScheduler.reset();
         CitizensAPI.shutdown();
     }
 
@@ -398,8 +461,13 @@ public class Citizens extends JavaPlugin implements CitizensPlugin {
 
         registerScriptHelpers();
 
+        savePipeline = new NPCSavePipeline();
         saves = createStorage(getDataFolder());
         shops = new StoredShops(new YamlStorage(new File(getDataFolder(), "shops.yml")));
+        commandCooldowns = new CommandCooldownStore(new File(getDataFolder(), "command_cooldowns.dat"));
+        commandCooldowns.load();
+        skinCache = new SkinCache(new File(getDataFolder(), "skins.yml"));
+        skinCache.load();
         if (saves == null || !shops.loadFromDisk()) {
             Messaging.severeTr(Messages.FAILED_LOAD_SAVES);
             Bukkit.getPluginManager().disablePlugin(this);
@@ -416,7 +484,9 @@ public class Citizens extends JavaPlugin implements CitizensPlugin {
         }));
         selector = new NPCSelector(this);
 
-        Bukkit.getPluginManager().registerEvents(new EventListen(storedRegistries), this);
+        skinUpdateTracker = new SkinUpdateTracker(storedRegistries);
+        Bukkit.getPluginManager().registerEvents(new EventListen(storedRegistries, skinUpdateTracker), this);
+        Bukkit.getPluginManager().registerEvents(savePipeline, this);
         Bukkit.getPluginManager().registerEvents(new Placeholders(), this);
         Placeholders.registerNPCPlaceholder(Pattern.compile("command_[a-zA-Z_0-9]+"), (npc, sender, input) -> {
             npc = npc.hasTrait(ClickRedirectTrait.class) ? npc.getTraitNullable(ClickRedirectTrait.class).getNPC()
@@ -452,6 +522,32 @@ public class Citizens extends JavaPlugin implements CitizensPlugin {
         Bukkit.getPluginManager().disablePlugin(this);
     }
 
+    /**
+     * Queues profile lookups for saved skins that are missing from or stale in the skin cache, so that they are fetched
+     * in bulk by the profile thread before the NPCs using them spawn. Skins stored with their texture, such as
+     * persistent and URL skins, are never looked up.
+     */
+    private void prefetchSkins() {
+        if (storage == null)
+            return;
+        int queued = 0;
+        for (DataKey key : storage.getKey("npc").getIntegerSubKeys()) {
+            String skinName = key.getString("traits.skintrait.skinName");
+            if (key.keyExists("traits.skintrait.textureRaw") || !SKIN_NAME.matcher(skinName).matches()
+                    || skinCache.isFresh(skinName))
+                continue;
+            ProfileFetcher.fetch(skinName, request -> {
+                if (request.getResult() == ProfileFetchResult.SUCCESS && request.getProfile() != null) {
+                    skinCache.put(skinName, request.getProfile());
+                }
+            });
+            queued++;
+        }
+        if (queued > 0) {
+            Messaging.debug("Prefetching", queued, "skins");
+        }
+    }
+
     public void registerCommandClass(Class<?> clazz) {
         try {
             commands.register(clazz);
@@ -487,6 +583,7 @@ public class Citizens extends JavaPlugin implements CitizensPlugin {
 
         getServer().getPluginManager().callEvent(new CitizensPreReloadEvent());
 
+        commandCooldowns.load();
         saves.reloadFromSource();
         saves.loadInto(npcRegistry);
 
@@ -503,8 +600,14 @@ public class Citizens extends JavaPlugin implements CitizensPlugin {
         storedRegistries.remove(name);
     }
 
-    private void scheduleSaveTask(int delay) {
-        Bukkit.getScheduler().scheduleSyncRepeatingTask(this, new CitizensSaveTask(), delay, delay);
+    private void scheduleSaveTask() {
+        int delay = Setting.SAVE_TASK_DELAY.asTicks();
+        int incrementalDelay = Setting.SAVE_TASK_INCREMENTAL_DELAY.asTicks();
+        if (incrementalDelay <= 0 || incrementalDelay > delay) {
+            incrementalDelay = delay;
+        }
+        Bukkit.getScheduler().scheduleSyncRepeatingTask(this, new CitizensSaveTask(delay / incrementalDelay),
+                incrementalDelay, incrementalDelay);
     }
 
     @Override
@@ -513,6 +616,8 @@ public class Citizens extends JavaPlugin implements CitizensPlugin {
             throw new IllegalArgumentException("must be non-null");
         }
         despawnNPCs(true);
+        savePipeline.setStorage(null, null, null);
+        this.storage = null;
         this.saves = store;
         this.npcRegistry = new CitizensNPCRegistry(saves, "citizens-global-" + UUID.randomUUID().toString());
         saves.loadInto(npcRegistry);
@@ -594,19 +699,21 @@ public class Citizens extends JavaPlugin implements CitizensPlugin {
     }
 
     public void storeNPCs(boolean async) {
-        if (saves == null)
+        storeNPCs(false, async);
+    }
+
+    private void storeNPCs(boolean incremental, boolean async) {
+        // don't overwrite the saves with a partially loaded registry
+        if (saves == null || !enabled)
             return;
-        saves.storeAll(npcRegistry);
         shops.storeShops();
-        if (async) {
-            new Thread(() -> {
-                shops.saveToDisk();
-                saves.saveToDiskImmediate();
-            }).start();
-        } else {
+        Runnable writeCooldowns = commandCooldowns.snapshot();
+        Runnable writeSkins = skinCache.snapshot();
+        savePipeline.save(saves, npcRegistry, incremental, async, () -> {
             shops.saveToDisk();
-            saves.saveToDiskImmediate();
-        }
+            writeCooldowns.run();
+            writeSkins.run();
+        });
     }
 
     @Override
@@ -615,6 +722,19 @@ public class Citizens extends JavaPlugin implements CitizensPlugin {
     }
 
     private class CitizensLoadTask implements Runnable {
+        private void finish(long throughput) {
+            shops.load();
+
+            Messaging.logTr(Messages.NUM_LOADED_NOTIFICATION, Iterables.size(npcRegistry), throughput);
+            startMetrics();
+            scheduleSaveTask();
+            Bukkit.getPluginManager().callEvent(new CitizensEnableEvent());
+            new PlayerUpdateTask().runTaskTimer(Citizens.this, 0, 1);
+            new NPCUpdateScheduler().runTaskTimer(Citizens.this, 0, 1);
+            Bukkit.getScheduler().runTaskTimer(Citizens.this, NMS::flushPackets, 0, 1);
+            enabled = true;
+        }
+
         @Override
         public void run() {
             Plugin plib = Bukkit.getPluginManager().getPlugin("ProtocolLib");
@@ -629,22 +749,46 @@ public class Citizens extends JavaPlugin implements CitizensPlugin {
                 }
             }
 
-            saves.loadInto(npcRegistry);
-            shops.load();
-
-            Messaging.logTr(Messages.NUM_LOADED_NOTIFICATION, Iterables.size(npcRegistry), "?");
-            startMetrics();
-            scheduleSaveTask(Setting.SAVE_TASK_DELAY.asTicks());
-            Bukkit.getPluginManager().callEvent(new CitizensEnableEvent());
-            new PlayerUpdateTask().runTaskTimer(Citizens.this, 0, 1);
-            enabled = true;
+            if (storage == null) {
+                // a custom data store was set, which can only be loaded in one go
+                long start = System.nanoTime();
+                saves.loadInto(npcRegistry);
+                long elapsed = Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                finish(Iterables.size(npcRegistry) * 1000L / elapsed);
+                return;
+            }
+            prefetchSkins();
+            NPCLoader loader = new NPCLoader(npcRegistry,
+                    Lists.newArrayList(storage.getKey("npc").getIntegerSubKeys()));
+            loader.load(() -> finish(loader.getThroughput()));
         }
     }
 
     private class CitizensSaveTask implements Runnable {
+        private final int fullSaveInterval;
+        private int saves;
+
+        private CitizensSaveTask(int fullSaveInterval) {
+            this.fullSaveInterval = fullSaveInterval;
+        }
+
         @Override
         public void run() {
-            storeNPCs(false);
+            if (++saves >= fullSaveInterval) {
+                saves = 0;
+                storeNPCs(false, true);
+                return;
+            }
+            // NPCs being edited may change without firing any events
+            for (Player player : Bukkit.getOnlinePlayers()) {
+                if (Editor.hasEditor(player)) {
+                    savePipeline.markDirty(selector.getSelected(player));
+                }
+            }
+            storeNPCs(true, true);
         }
     }
+
+    private static final Pattern SKIN_NAME = Pattern.compile("[a-zA-Z0-9_]{3,16}");
+    private static final String STORAGE_HEADER = "Citizens NPC Storage";
 }
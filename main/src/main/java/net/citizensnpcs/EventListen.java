@@ -8,6 +8,10 @@ import java.util.Map;
 import org.bukkit.Bukkit;
 import org.bukkit.Location;
 import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockState;
+import org.bukkit.command.CommandSender;
 import org.bukkit.entity.Entity;
 import org.bukkit.entity.EntityType;
 import org.bukkit.entity.FishHook;
@@ -22,8 +26,18 @@ import org.bukkit.event.EventHandler;
 import org.bukkit.event.EventPriority;
 import org.bukkit.event.HandlerList;
 import org.bukkit.event.Listener;
+import org.bukkit.event.block.BlockBreakEvent;
+import org.bukkit.event.block.BlockBurnEvent;
+import org.bukkit.event.block.BlockExplodeEvent;
+import org.bukkit.event.block.BlockFadeEvent;
+import org.bukkit.event.block.BlockFormEvent;
+import org.bukkit.event.block.BlockFromToEvent;
+import org.bukkit.event.block.BlockPistonExtendEvent;
+import org.bukkit.event.block.BlockPistonRetractEvent;
+import org.bukkit.event.block.BlockPlaceEvent;
 import org.bukkit.event.block.EntityBlockFormEvent;
 import org.bukkit.event.entity.CreatureSpawnEvent;
+import org.bukkit.event.entity.EntityChangeBlockEvent;
 import org.bukkit.event.entity.EntityCombustByBlockEvent;
 import org.bukkit.event.entity.EntityCombustByEntityEvent;
 import org.bukkit.event.entity.EntityCombustEvent;
@@ -31,6 +45,7 @@ import org.bukkit.event.entity.EntityDamageByBlockEvent;
 import org.bukkit.event.entity.EntityDamageByEntityEvent;
 import org.bukkit.event.entity.EntityDamageEvent;
 import org.bukkit.event.entity.EntityDeathEvent;
+import org.bukkit.event.entity.EntityExplodeEvent;
 import org.bukkit.event.entity.EntityPortalEvent;
 import org.bukkit.event.entity.EntityTameEvent;
 import org.bukkit.event.entity.EntityTargetEvent;
@@ -58,6 +73,7 @@ import org.bukkit.event.world.ChunkLoadEvent;
 import org.bukkit.event.world.ChunkUnloadEvent;
 import org.bukkit.event.world.EntitiesLoadEvent;
 import org.bukkit.event.world.EntitiesUnloadEvent;
+import org.bukkit.event.world.StructureGrowEvent;
 import org.bukkit.event.world.WorldLoadEvent;
 import org.bukkit.event.world.WorldUnloadEvent;
 import org.bukkit.metadata.FixedMetadataValue;
@@ -67,10 +83,7 @@ import org.bukkit.scheduler.BukkitRunnable;
 import org.bukkit.util.Vector;
 
 import com.google.common.base.Joiner;
-import com.google.common.base.Predicates;
-import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.Iterables;
-import com.google.common.collect.ListMultimap;
 import com.google.common.collect.Lists;
 
 import net.citizensnpcs.Settings.Setting;
@@ -81,6 +94,7 @@ import net.citizensnpcs.api.event.CitizensPreReloadEvent;
 import net.citizensnpcs.api.event.CommandSenderCreateNPCEvent;
 import net.citizensnpcs.api.event.DespawnReason;
 import net.citizensnpcs.api.event.EntityTargetNPCEvent;
+import net.citizensnpcs.api.event.NPCAddTraitEvent;
 import net.citizensnpcs.api.event.NPCCombustByBlockEvent;
 import net.citizensnpcs.api.event.NPCCombustByEntityEvent;
 import net.citizensnpcs.api.event.NPCCombustEvent;
@@ -94,9 +108,11 @@ import net.citizensnpcs.api.event.NPCKnockbackEvent;
 import net.citizensnpcs.api.event.NPCLeftClickEvent;
 import net.citizensnpcs.api.event.NPCPushEvent;
 import net.citizensnpcs.api.event.NPCRemoveEvent;
+import net.citizensnpcs.api.event.NPCRemoveTraitEvent;
 import net.citizensnpcs.api.event.NPCRightClickEvent;
 import net.citizensnpcs.api.event.NPCSeenByPlayerEvent;
 import net.citizensnpcs.api.event.NPCSpawnEvent;
+import net.citizensnpcs.api.event.NPCTeleportEvent;
 import net.citizensnpcs.api.event.NPCVehicleDamageEvent;
 import net.citizensnpcs.api.event.PlayerCreateNPCEvent;
 import net.citizensnpcs.api.event.SpawnReason;
@@ -106,7 +122,11 @@ import net.citizensnpcs.api.trait.trait.Owner;
 import net.citizensnpcs.api.trait.trait.PlayerFilter;
 import net.citizensnpcs.api.util.Messaging;
 import net.citizensnpcs.editor.Editor;
+import net.citizensnpcs.npc.CitizensNPCRegistry;
+import net.citizensnpcs.npc.ai.ChunkPortalGraph;
 import net.citizensnpcs.npc.ai.NPCHolder;
+import net.citizensnpcs.npc.ai.PathCache;
+import net.citizensnpcs.npc.ai.SnapshotBlockSource;
 import net.citizensnpcs.npc.skin.SkinUpdateTracker;
 import net.citizensnpcs.trait.ClickRedirectTrait;
 import net.citizensnpcs.trait.CommandTrait;
@@ -114,6 +134,7 @@ import net.citizensnpcs.trait.Controllable;
 import net.citizensnpcs.trait.CurrentLocation;
 import net.citizensnpcs.trait.ShopTrait;
 import net.citizensnpcs.util.ChunkCoord;
+import net.citizensnpcs.util.LineOfSightCache;
 import net.citizensnpcs.util.Messages;
 import net.citizensnpcs.util.NMS;
 import net.citizensnpcs.util.PlayerAnimation;
@@ -123,11 +144,11 @@ public class EventListen implements Listener {
     private Listener chunkEventListener;
     private final Map<String, NPCRegistry> registries;
     private final SkinUpdateTracker skinUpdateTracker;
-    private final ListMultimap<ChunkCoord, NPC> toRespawn = ArrayListMultimap.create(64, 4);
+    private final RespawnQueue toRespawn = new RespawnQueue();
 
-    EventListen(Map<String, NPCRegistry> registries) {
+    EventListen(Map<String, NPCRegistry> registries, SkinUpdateTracker skinUpdateTracker) {
         this.registries = registries;
-        this.skinUpdateTracker = new SkinUpdateTracker(registries);
+        this.skinUpdateTracker = skinUpdateTracker;
         try {
             Class.forName("org.bukkit.event.world.EntitiesLoadEvent");
             Bukkit.getPluginManager().registerEvents(new Listener() {
@@ -179,26 +200,31 @@ public class EventListen implements Listener {
         if (pbeac != null) {
             registerPushEvent(pbeac);
         }
+
+        Bukkit.getScheduler().runTaskTimer(CitizensAPI.getPlugin(), this::respawnScheduled, 1, 1);
     }
 
     private void checkCreationEvent(CommandSenderCreateNPCEvent event) {
         if (event.getCreator().hasPermission("citizens.admin.avoid-limits"))
             return;
-        int limit = Setting.DEFAULT_NPC_LIMIT.asInt();
-        int maxChecks = Setting.MAX_NPC_LIMIT_CHECKS.asInt();
-        for (int i = maxChecks; i >= 0; i--) {
-            if (!event.getCreator().hasPermission("citizens.npc.limit." + i))
-                continue;
-            limit = i;
-            break;
-        }
+        int limit = getNPCLimit(event.getCreator());
         if (limit < 0)
             return;
         int owned = 0;
-        for (NPC npc : CitizensAPI.getNPCRegistry()) {
-            if (!event.getNPC().equals(npc) && npc.hasTrait(Owner.class)
-                    && npc.getTraitNullable(Owner.class).isOwnedBy(event.getCreator())) {
-                owned++;
+        if (event.getCreator() instanceof Player && CitizensAPI.getNPCRegistry() instanceof CitizensNPCRegistry
+                && !event.getCreator().hasPermission("citizens.admin")) {
+            for (NPC npc : ((CitizensNPCRegistry) CitizensAPI.getNPCRegistry())
+                    .getOwnedBy(((Player) event.getCreator()).getUniqueId())) {
+                if (!event.getNPC().equals(npc)) {
+                    owned++;
+                }
+            }
+        } else {
+            for (NPC npc : CitizensAPI.getNPCRegistry()) {
+                if (!event.getNPC().equals(npc) && npc.hasTrait(Owner.class)
+                        && npc.getTraitNullable(Owner.class).isOwnedBy(event.getCreator())) {
+                    owned++;
+                }
             }
         }
         int wouldOwn = owned + 1;
@@ -208,25 +234,93 @@ public class EventListen implements Listener {
         }
     }
 
-    private Iterable<NPC> getAllNPCs() {
-        return Iterables.filter(
-                Iterables.<NPC> concat(CitizensAPI.getNPCRegistry(), Iterables.concat(registries.values())),
-                Predicates.notNull());
+    private int getNPCLimit(CommandSender sender) {
+        int maxChecks = Setting.MAX_NPC_LIMIT_CHECKS.asInt();
+        for (int i = maxChecks; i >= 0; i--) {
+            if (sender.hasPermission("citizens.npc.limit." + i))
+                return i;
+        }
+        return Setting.DEFAULT_NPC_LIMIT.asInt();
+    }
+
+    private List<NPC> getNPCsInWorld(World world) {
+        List<NPC> npcs = Lists.newArrayList();
+        for (NPCRegistry registry : Iterables.concat(Arrays.asList(CitizensAPI.getNPCRegistry()),
+                registries.values())) {
+            if (registry instanceof CitizensNPCRegistry) {
+                npcs.addAll(((CitizensNPCRegistry) registry).getNPCsInWorld(world.getUID()));
+                continue;
+            }
+            for (NPC npc : registry) {
+                if (npc != null && npc.isSpawned() && npc.getEntity().getWorld().equals(world)) {
+                    npcs.add(npc);
+                }
+            }
+        }
+        return npcs;
     }
 
     void loadNPCs(ChunkEvent event) {
         ChunkCoord coord = new ChunkCoord(event.getChunk());
-        Runnable runnable = () -> respawnAllFromCoord(coord, event);
-        if (Messaging.isDebugging() && Setting.DEBUG_CHUNK_LOADS.asBoolean() && toRespawn.containsKey(coord)) {
+        if (Messaging.isDebugging() && Setting.DEBUG_CHUNK_LOADS.asBoolean() && toRespawn.containsChunk(coord)) {
             new Exception("CITIZENS CHUNK LOAD DEBUG " + coord).printStackTrace();
         }
         if (event instanceof Cancellable) {
-            runnable.run();
+            respawnAllFromCoord(coord, event);
         } else {
-            Bukkit.getScheduler().scheduleSyncDelayedTask(CitizensAPI.getPlugin(), runnable);
+            toRespawn.schedule(coord);
         }
     }
 
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockBreak(BlockBreakEvent event) {
+        invalidateBlockCaches(event.getBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockBurn(BlockBurnEvent event) {
+        invalidateBlockCaches(event.getBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockExplode(BlockExplodeEvent event) {
+        invalidateBlockCaches(event.blockList());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockFade(BlockFadeEvent event) {
+        invalidateBlockCaches(event.getBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockForm(BlockFormEvent event) {
+        invalidateBlockCaches(event.getBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockFromTo(BlockFromToEvent event) {
+        invalidateBlockCaches(event.getToBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockPistonExtend(BlockPistonExtendEvent event) {
+        invalidateBlockCaches(event.getBlock().getRelative(event.getDirection()));
+        for (Block block : event.getBlocks()) {
+            invalidateBlockCaches(block);
+            invalidateBlockCaches(block.getRelative(event.getDirection()));
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockPistonRetract(BlockPistonRetractEvent event) {
+        invalidateBlockCaches(event.getBlocks());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockPlace(BlockPlaceEvent event) {
+        invalidateBlockCaches(event.getBlock());
+    }
+
     @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
     public void onChunkLoad(ChunkLoadEvent event) {
         if (chunkEventListener != null)
@@ -262,6 +356,11 @@ public class EventListen implements Listener {
         }
     }
 
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onEntityChangeBlock(EntityChangeBlockEvent event) {
+        invalidateBlockCaches(event.getBlock());
+    }
+
     @EventHandler
     public void onEntityCombust(EntityCombustEvent event) {
         NPC npc = CitizensAPI.getNPCRegistry().getNPC(event.getEntity());
@@ -344,6 +443,11 @@ public class EventListen implements Listener {
         }, delay + deathAnimationTicks);
     }
 
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onEntityExplode(EntityExplodeEvent event) {
+        invalidateBlockCaches(event.blockList());
+    }
+
     @EventHandler
     public void onEntityPortal(EntityPortalEvent event) {
         NPC npc = CitizensAPI.getNPCRegistry().getNPC(event.getEntity());
@@ -400,19 +504,26 @@ public class EventListen implements Listener {
     @EventHandler
     public void onNeedsRespawn(NPCNeedsRespawnEvent event) {
         ChunkCoord coord = new ChunkCoord(event.getSpawnLocation());
-        if (toRespawn.containsEntry(coord, event.getNPC()))
+        if (toRespawn.contains(coord, event.getNPC()))
             return;
         Messaging.debug("Stored", event.getNPC(), "for respawn from NPCNeedsRespawnEvent");
         toRespawn.put(coord, event.getNPC());
     }
 
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onNPCAddTrait(NPCAddTraitEvent event) {
+        if (event.getTrait() instanceof Owner) {
+            CitizensNPCRegistry.updateOwnerIndex(event.getNPC());
+        }
+    }
+
     @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
     public void onNPCDespawn(NPCDespawnEvent event) {
         if (event.getReason() == DespawnReason.PLUGIN || event.getReason() == DespawnReason.REMOVAL
                 || event.getReason() == DespawnReason.RELOAD) {
             Messaging.idebug(() -> Joiner.on(' ').join("Preventing further respawns of", event.getNPC(),
                     "due to DespawnReason." + event.getReason()));
-            toRespawn.values().remove(event.getNPC());
+            toRespawn.remove(event.getNPC());
         } else {
             Messaging.idebug(() -> Joiner.on(' ').join("Removing", event.getNPC(),
                     "from skin tracker due to DespawnReason." + event.getReason().name()));
@@ -429,7 +540,15 @@ public class EventListen implements Listener {
 
     @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
     public void onNPCRemove(NPCRemoveEvent event) {
-        toRespawn.values().remove(event.getNPC());
+        toRespawn.remove(event.getNPC());
+        ((Citizens) CitizensAPI.getPlugin()).getCommandCooldowns().remove(event.getNPC().getUniqueId());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onNPCRemoveTrait(NPCRemoveTraitEvent event) {
+        if (event.getTrait() instanceof Owner) {
+            CitizensNPCRegistry.updateOwnerIndex(event.getNPC());
+        }
     }
 
     @EventHandler(ignoreCancelled = true)
@@ -448,7 +567,12 @@ public class EventListen implements Listener {
         skinUpdateTracker.onNPCSpawn(event.getNPC());
         Messaging.idebug(() -> Joiner.on(' ').join("Removing respawns of", event.getNPC(),
                 "due to SpawnReason." + event.getReason()));
-        toRespawn.values().remove(event.getNPC());
+        toRespawn.remove(event.getNPC());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onNPCTeleport(NPCTeleportEvent event) {
+        skinUpdateTracker.onNPCMove(event.getNPC());
     }
 
     @EventHandler
@@ -593,6 +717,9 @@ public class EventListen implements Listener {
                 }
             }, Setting.PLAYER_TELEPORT_DELAY.asTicks());
         }
+        if (npc != null) {
+            skinUpdateTracker.onNPCMove(npc);
+        }
         skinUpdateTracker.updatePlayer(event.getPlayer(), 15, true);
     }
 
@@ -639,6 +766,11 @@ public class EventListen implements Listener {
         }.runTaskTimer(CitizensAPI.getPlugin(), 0, 1);
     }
 
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onStructureGrow(StructureGrowEvent event) {
+        invalidateBlockCaches(Lists.transform(event.getBlocks(), BlockState::getBlock));
+    }
+
     @EventHandler
     public void onVehicleDamage(VehicleDamageEvent event) {
         NPC npc = CitizensAPI.getNPCRegistry().getNPC(event.getVehicle());
@@ -689,8 +821,8 @@ public class EventListen implements Listener {
 
     @EventHandler(ignoreCancelled = true)
     public void onWorldLoad(WorldLoadEvent event) {
-        for (ChunkCoord chunk : toRespawn.keySet()) {
-            if (!chunk.worldUUID.equals(event.getWorld().getUID()) || !event.getWorld().isChunkLoaded(chunk.x, chunk.z))
+        for (ChunkCoord chunk : toRespawn.getChunks(event.getWorld().getUID())) {
+            if (!event.getWorld().isChunkLoaded(chunk.x, chunk.z))
                 continue;
             respawnAllFromCoord(chunk, event);
         }
@@ -698,15 +830,13 @@ public class EventListen implements Listener {
 
     @EventHandler(priority = EventPriority.HIGHEST, ignoreCancelled = true)
     public void onWorldUnload(WorldUnloadEvent event) {
-        for (NPC npc : getAllNPCs()) {
+        for (NPC npc : getNPCsInWorld(event.getWorld())) {
             if (npc == null || !npc.isSpawned() || !npc.getEntity().getWorld().equals(event.getWorld()))
                 continue;
             boolean despawned = npc.despawn(DespawnReason.WORLD_UNLOAD);
             if (event.isCancelled() || !despawned) {
-                for (ChunkCoord coord : toRespawn.keySet()) {
-                    if (event.getWorld().getUID().equals(coord.worldUUID)) {
-                        respawnAllFromCoord(coord, event);
-                    }
+                for (ChunkCoord coord : toRespawn.getChunks(event.getWorld().getUID())) {
+                    respawnAllFromCoord(coord, event);
                 }
                 event.setCancelled(true);
                 return;
@@ -717,6 +847,10 @@ public class EventListen implements Listener {
             }
         }
         CitizensAPI.getLocationLookup().onWorldUnload(event);
+        ChunkPortalGraph.clear(event.getWorld());
+        PathCache.clear(event.getWorld());
+        SnapshotBlockSource.clear(event.getWorld());
+        LineOfSightCache.clear(event.getWorld());
     }
 
     private void registerKnockbackEvent(Class<?> kbc) {
@@ -783,31 +917,51 @@ public class EventListen implements Listener {
         }
     }
 
+    private void respawn(ChunkCoord coord, NPC npc, Object cause) {
+        if (npc.getOwningRegistry().getById(npc.getId()) != npc) {
+            Messaging.idebug(() -> "Prevented deregistered NPC from respawning " + npc);
+            toRespawn.remove(npc);
+            return;
+        }
+        if (npc.isSpawned()) {
+            Messaging.idebug(() -> "Can't respawn NPC " + npc + ": already spawned");
+            toRespawn.remove(npc);
+            return;
+        }
+        if (!spawn(npc)) {
+            Messaging.idebug(() -> Joiner.on(' ').join("Couldn't respawn", npc, "during", cause, "at", coord));
+            return;
+        }
+        toRespawn.remove(npc);
+        Messaging.idebug(() -> Joiner.on(' ').join("Spawned", npc, "during", cause, "at", coord));
+    }
+
     private void respawnAllFromCoord(ChunkCoord coord, Event event) {
-        List<NPC> ids = Lists.newArrayList(toRespawn.get(coord));
-        if (ids.size() > 0) {
+        List<NPC> npcs = toRespawn.get(coord);
+        if (npcs.size() > 0) {
             Messaging.debug("Respawning all NPCs at", coord, "due to", event);
         }
-        for (int i = 0; i < ids.size(); i++) {
-            NPC npc = ids.get(i);
-            if (npc.getOwningRegistry().getById(npc.getId()) != npc) {
-                Messaging.idebug(() -> "Prevented deregistered NPC from respawning " + npc);
-                continue;
-            }
-            if (npc.isSpawned()) {
-                Messaging.idebug(() -> "Can't respawn NPC " + npc + ": already spawned");
+        for (NPC npc : npcs) {
+            respawn(coord, npc, event);
+        }
+    }
+
+    private void respawnScheduled() {
+        if (!toRespawn.hasPending())
+            return;
+        double budget = Setting.CHUNK_RESPAWN_TICK_BUDGET.asDouble();
+        long deadline = System.nanoTime() + (long) (budget * 1000000);
+        while (toRespawn.hasPending()) {
+            NPC npc = toRespawn.pollPending();
+            ChunkCoord coord = toRespawn.getCoord(npc);
+            if (coord == null)
                 continue;
-            }
-            boolean success = spawn(npc);
-            if (!success) {
-                ids.remove(i--);
-                Messaging.idebug(() -> Joiner.on(' ').join("Couldn't respawn", npc, "during", event, "at", coord));
+            World world = Bukkit.getWorld(coord.worldUUID);
+            if (world == null || !world.isChunkLoaded(coord.x, coord.z))
                 continue;
-            }
-            Messaging.idebug(() -> Joiner.on(' ').join("Spawned", npc, "during", event, "at", coord));
-        }
-        for (NPC npc : ids) {
-            toRespawn.remove(coord, npc);
+            respawn(coord, npc, "chunk load");
+            if (budget > 0 && System.nanoTime() >= deadline)
+                break;
         }
     }
 
@@ -866,5 +1020,18 @@ public class EventListen implements Listener {
         }
     }
 
+    private static void invalidateBlockCaches(Block block) {
+        LineOfSightCache.invalidate(block);
+        PathCache.invalidate(block);
+        ChunkPortalGraph.invalidate(block);
+        SnapshotBlockSource.invalidate(block);
+    }
+
+    private static void invalidateBlockCaches(Iterable<Block> blocks) {
+        for (Block block : blocks) {
+            invalidateBlockCaches(block);
+        }
+    }
+
     private static boolean SUPPORT_STOP_USE_ITEM = true;
 }
\ No newline at end of file
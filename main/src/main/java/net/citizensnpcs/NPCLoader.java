@@ -0,0 +1,149 @@
+package net.citizensnpcs;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.bukkit.entity.EntityType;
+import org.bukkit.scheduler.BukkitRunnable;
+
+import net.citizensnpcs.Settings.Setting;
+import net.citizensnpcs.api.CitizensAPI;
+import net.citizensnpcs.api.npc.NPC;
+import net.citizensnpcs.api.npc.NPCRegistry;
+import net.citizensnpcs.api.util.DataKey;
+import net.citizensnpcs.api.util.Messaging;
+import net.citizensnpcs.util.Messages;
+import net.citizensnpcs.util.Util;
+
+/**
+ * Loads NPCs from their stored keys. Stored data is parsed and validated in parallel, then NPCs are created and
+ * spawned on the main thread in batches limited by a per-tick time budget.
+ */
+public class NPCLoader extends BukkitRunnable {
+    private int created;
+    private int index;
+    private Runnable onFinish;
+    private final List<PreparedNPC> prepared;
+    private final NPCRegistry registry;
+    private long start;
+
+    public NPCLoader(NPCRegistry registry, Collection<DataKey> keys) {
+        this.registry = registry;
+        // only reading the stored keys runs in parallel, the registry and Bukkit are only used from create()
+        this.prepared = keys.parallelStream().map(PreparedNPC::new).collect(Collectors.toList());
+    }
+
+    private void finish() {
+        long elapsed = Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        Messaging.debug("Created", created, "NPCs in", elapsed, "ms");
+        if (onFinish != null) {
+            onFinish.run();
+        }
+    }
+
+    public int getCreated() {
+        return created;
+    }
+
+    /**
+     * @return the NPCs created per second since loading started
+     */
+    public long getThroughput() {
+        long elapsed = Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        return created * 1000L / elapsed;
+    }
+
+    /**
+     * Starts creating NPCs. If there is no tick budget every NPC is created immediately, otherwise NPCs are created
+     * over the following ticks.
+     *
+     * @param onFinish
+     *            run on the main thread once every NPC has been created
+     */
+    public void load(Runnable onFinish) {
+        this.onFinish = onFinish;
+        this.start = System.nanoTime();
+        if (Setting.STORAGE_LOAD_TICK_BUDGET.asDouble() <= 0) {
+            while (index < prepared.size()) {
+                create(prepared.get(index++));
+            }
+            finish();
+            return;
+        }
+        runTaskTimer(CitizensAPI.getPlugin(), 0, 1);
+    }
+
+    private void create(PreparedNPC data) {
+        if (data.error != null) {
+            Messaging.logTr(data.error, data.errorArg);
+            return;
+        }
+        if (registry.getById(data.id) != null)
+            return;
+        NPC npc = registry.createNPC(data.type, data.uuid, data.id, data.name);
+        try {
+            npc.load(data.key);
+        } catch (Throwable t) {
+            Messaging.severe("Unable to load NPC", data.id + ":", t.getMessage());
+            if (Messaging.isDebugging()) {
+                t.printStackTrace();
+            }
+        }
+        created++;
+    }
+
+    @Override
+    public void run() {
+        long deadline = System.nanoTime() + (long) (Setting.STORAGE_LOAD_TICK_BUDGET.asDouble() * 1000000);
+        do {
+            if (index >= prepared.size()) {
+                cancel();
+                finish();
+                return;
+            }
+            create(prepared.get(index++));
+        } while (System.nanoTime() < deadline);
+    }
+
+    private static class PreparedNPC {
+        private String error;
+        private Object errorArg;
+        private int id;
+        private final DataKey key;
+        private String name;
+        private EntityType type;
+        private UUID uuid;
+
+        public PreparedNPC(DataKey key) {
+            this.key = key;
+            try {
+                id = Integer.parseInt(key.name());
+            } catch (NumberFormatException e) {
+                error = Messages.LOAD_NAME_NOT_FOUND;
+                errorArg = key.name();
+                return;
+            }
+            if (!key.keyExists("name")) {
+                error = Messages.LOAD_NAME_NOT_FOUND;
+                errorArg = id;
+                return;
+            }
+            name = key.getString("name");
+            String unparsedEntityType = key.getString("traits.type", "PLAYER");
+            type = Util.matchEnum(EntityType.values(), unparsedEntityType);
+            if (type == null) {
+                error = Messages.LOAD_UNKNOWN_NPC_TYPE;
+                errorArg = unparsedEntityType;
+                return;
+            }
+            try {
+                uuid = key.keyExists("uuid") ? UUID.fromString(key.getString("uuid")) : UUID.randomUUID();
+            } catch (IllegalArgumentException e) {
+                uuid = UUID.randomUUID();
+            }
+        }
+    }
+}
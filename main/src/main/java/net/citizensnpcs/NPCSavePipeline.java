@@ -0,0 +1,389 @@
+package net.citizensnpcs;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.bukkit.Location;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.MemoryConfiguration;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import net.citizensnpcs.api.event.NPCAddTraitEvent;
+import net.citizensnpcs.api.event.NPCCreateEvent;
+import net.citizensnpcs.api.event.NPCDespawnEvent;
+import net.citizensnpcs.api.event.NPCRemoveEvent;
+import net.citizensnpcs.api.event.NPCRemoveTraitEvent;
+import net.citizensnpcs.api.event.NPCSpawnEvent;
+import net.citizensnpcs.api.event.NPCTeleportEvent;
+import net.citizensnpcs.api.npc.NPC;
+import net.citizensnpcs.api.npc.NPCDataStore;
+import net.citizensnpcs.api.npc.NPCRegistry;
+import net.citizensnpcs.api.util.Messaging;
+import net.citizensnpcs.api.util.Storage;
+import net.citizensnpcs.api.util.YamlStorage;
+import net.citizensnpcs.api.util.YamlStorage.YamlKey;
+
+/**
+ * Tracks which NPCs changed since the last save and stores only those NPCs on the main thread. For YAML storage, a
+ * snapshot of each NPC's section is kept between saves and only the sections of stored NPCs are copied again. The
+ * snapshots are written to disk by a single background writer which atomically replaces the save file.
+ *
+ * Changes are detected from NPC events, commands and movement. Since traits can change through the API without notice,
+ * the periodic save task still stores every NPC at the regular save delay.
+ */
+public class NPCSavePipeline implements Listener {
+    private final Set<String> changedIds = Sets.newHashSet();
+    private final Set<NPC> dirty = Sets.newIdentityHashSet();
+    private File file;
+    private String header;
+    private volatile long lastSaveNanos;
+    private volatile int lastStoredCount;
+    private volatile long lastWriteNanos;
+    // snapshots of NPC sections, never modified once created so the writer thread can read them
+    private final Map<String, ConfigurationSection> npcSnapshots = Maps.newLinkedHashMap();
+    private final Map<NPC, Location> savedPositions = Maps.newIdentityHashMap();
+    private int savesSubmitted;
+    private volatile int savesWritten;
+    private boolean snapshotsComplete;
+    private Storage storage;
+    // guarded by itself
+    private final List<Map.Entry<Integer, Runnable>> writeCallbacks = Lists.newArrayList();
+    private final ThreadPoolExecutor writer = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(1), r -> new Thread(r, "Citizens save writer"),
+            new ThreadPoolExecutor.DiscardOldestPolicy());
+
+    private void collectMovedNPCs(NPCRegistry registry) {
+        for (NPC npc : registry) {
+            if (!npc.isSpawned())
+                continue;
+            Location saved = savedPositions.get(npc);
+            if (saved == null || !isSameBlock(saved, npc.getStoredLocation())) {
+                dirty.add(npc);
+            }
+        }
+    }
+
+    public int getDirtyCount() {
+        return dirty.size();
+    }
+
+    public long getLastSaveMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(lastSaveNanos);
+    }
+
+    public int getLastStoredCount() {
+        return lastStoredCount;
+    }
+
+    public long getLastWriteMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(lastWriteNanos);
+    }
+
+    public void markDirty(NPC npc) {
+        if (npc == null)
+            return;
+        dirty.add(npc);
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onNPCAddTrait(NPCAddTraitEvent event) {
+        markDirty(event.getNPC());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onNPCCreate(NPCCreateEvent event) {
+        markDirty(event.getNPC());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onNPCDespawn(NPCDespawnEvent event) {
+        markDirty(event.getNPC());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onNPCRemove(NPCRemoveEvent event) {
+        dirty.remove(event.getNPC());
+        savedPositions.remove(event.getNPC());
+        changedIds.add(Integer.toString(event.getNPC().getId()));
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onNPCRemoveTrait(NPCRemoveTraitEvent event) {
+        markDirty(event.getNPC());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onNPCSpawn(NPCSpawnEvent event) {
+        markDirty(event.getNPC());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onNPCTeleport(NPCTeleportEvent event) {
+        markDirty(event.getNPC());
+    }
+
+    private void recordStored(NPC npc) {
+        if (npc.isSpawned()) {
+            savedPositions.put(npc, npc.getStoredLocation().clone());
+        } else {
+            savedPositions.remove(npc);
+        }
+    }
+
+    /**
+     * Stores NPCs from the registry into the given store and writes the store to disk.
+     *
+     * @param incremental
+     *            whether to store only the NPCs which changed since the last save
+     * @param async
+     *            whether to return before the data is written to disk
+     * @param alsoWrite
+     *            an optional extra write to perform on the writer thread after the NPCs are written
+     */
+    public void save(NPCDataStore saves, NPCRegistry registry, boolean incremental, boolean async,
+            Runnable alsoWrite) {
+        long start = System.nanoTime();
+        boolean full = !incremental || storage == null;
+        int stored = 0;
+        if (full) {
+            saves.storeAll(registry);
+            for (NPC npc : registry) {
+                recordStored(npc);
+            }
+            stored = Iterables.size(registry);
+        } else {
+            collectMovedNPCs(registry);
+            for (NPC npc : dirty) {
+                if (registry.getById(npc.getId()) != npc)
+                    continue;
+                saves.store(npc);
+                recordStored(npc);
+                changedIds.add(Integer.toString(npc.getId()));
+                stored++;
+            }
+        }
+        dirty.clear();
+        Runnable write = null;
+        if (full || !changedIds.isEmpty()) {
+            write = snapshot(saves, full);
+            changedIds.clear();
+        }
+        lastSaveNanos = System.nanoTime() - start;
+        lastStoredCount = stored;
+        Messaging.debug("Stored", stored, "NPCs for saving in", getLastSaveMillis(), "ms (full save:", full + ")");
+        if (write == null && alsoWrite == null)
+            return;
+        Runnable npcWrite = write;
+        int sequence = ++savesSubmitted;
+        // a single task per save so that queued saves are superseded as a whole by newer saves
+        Future<?> future = writer.submit(() -> {
+            try {
+                if (npcWrite != null) {
+                    npcWrite.run();
+                }
+                if (alsoWrite != null) {
+                    alsoWrite.run();
+                }
+            } finally {
+                written(sequence);
+            }
+        });
+        if (async)
+            return;
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            e.printStackTrace();
+        }
+    }
+
+    public void setStorage(Storage storage, File file, String header) {
+        this.storage = storage;
+        this.file = file;
+        this.header = header;
+        changedIds.clear();
+        npcSnapshots.clear();
+        snapshotsComplete = false;
+        dirty.clear();
+        savedPositions.clear();
+    }
+
+    public void shutdown() {
+        writer.shutdown();
+        try {
+            writer.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private Runnable snapshot(NPCDataStore saves, boolean full) {
+        if (storage instanceof ShardedYamlStorage) {
+            ShardedYamlStorage sharded = (ShardedYamlStorage) storage;
+            Runnable write = full ? sharded.prepareSave() : sharded.prepareSave(changedIds);
+            return () -> timeWrite(write);
+        }
+        if (!(storage instanceof YamlStorage) || file == null) {
+            // no way to snapshot other storage types, write from the background thread as before
+            return () -> timeWrite(saves::saveToDiskImmediate);
+        }
+        ConfigurationSection root = ((YamlKey) storage.getKey("")).getSection("");
+        updateSnapshots(root.getConfigurationSection("npc"), full || !snapshotsComplete);
+        YamlConfiguration copy = new YamlConfiguration();
+        copy.options().header(header);
+        for (String key : root.getKeys(false)) {
+            if (key.equals("npc"))
+                continue;
+            Object value = root.get(key);
+            if (value instanceof ConfigurationSection) {
+                copySection((ConfigurationSection) value, copy.createSection(key));
+            } else {
+                copy.set(key, value instanceof List ? new ArrayList<>((List<?>) value) : value);
+            }
+        }
+        Map<String, ConfigurationSection> npcs = Maps.newLinkedHashMap(npcSnapshots);
+        File target = file;
+        return () -> timeWrite(() -> {
+            for (Map.Entry<String, ConfigurationSection> entry : npcs.entrySet()) {
+                copySection(entry.getValue(), copy.createSection("npc." + entry.getKey()));
+            }
+            try {
+                write(target, copy.saveToString());
+            } catch (IOException e) {
+                Messaging.severe("Unable to save NPCs to", target.getName() + ":", e.getMessage());
+                e.printStackTrace();
+            }
+        });
+    }
+
+    private void timeWrite(Runnable write) {
+        long start = System.nanoTime();
+        write.run();
+        lastWriteNanos = System.nanoTime() - start;
+    }
+
+    /**
+     * Copies the sections of the NPCs stored or removed since the last save into the snapshots, or every section if
+     * the snapshots are being rebuilt. NPCs added or cleared without going through the pipeline are picked up by
+     * comparing ids.
+     */
+    private void updateSnapshots(ConfigurationSection npcs, boolean rebuild) {
+        Set<String> present = npcs == null ? Sets.newHashSet() : npcs.getKeys(false);
+        Collection<String> ids = present;
+        if (rebuild) {
+            npcSnapshots.clear();
+            snapshotsComplete = true;
+        } else {
+            npcSnapshots.keySet().removeIf(id -> !present.contains(id));
+            Set<String> changed = Sets.newHashSet(changedIds);
+            for (String id : present) {
+                if (!npcSnapshots.containsKey(id)) {
+                    changed.add(id);
+                }
+            }
+            ids = changed;
+        }
+        for (String id : ids) {
+            ConfigurationSection npc = npcs == null ? null : npcs.getConfigurationSection(id);
+            if (npc == null) {
+                npcSnapshots.remove(id);
+                continue;
+            }
+            MemoryConfiguration snapshot = new MemoryConfiguration();
+            copySection(npc, snapshot);
+            npcSnapshots.put(id, snapshot);
+        }
+    }
+
+    /**
+     * Runs the callback once every save started so far has been written to disk. The callback runs on the writer
+     * thread, or immediately if there is nothing left to write.
+     */
+    public void whenWritten(Runnable callback) {
+        synchronized (writeCallbacks) {
+            if (savesWritten < savesSubmitted) {
+                writeCallbacks.add(Maps.immutableEntry(savesSubmitted, callback));
+                return;
+            }
+        }
+        callback.run();
+    }
+
+    private void written(int sequence) {
+        List<Runnable> callbacks = Lists.newArrayList();
+        synchronized (writeCallbacks) {
+            savesWritten = sequence;
+            for (Iterator<Map.Entry<Integer, Runnable>> itr = writeCallbacks.iterator(); itr.hasNext();) {
+                Map.Entry<Integer, Runnable> entry = itr.next();
+                if (entry.getKey() <= sequence) {
+                    callbacks.add(entry.getValue());
+                    itr.remove();
+                }
+            }
+        }
+        for (Runnable callback : callbacks) {
+            callback.run();
+        }
+    }
+
+    /**
+     * Copies every value from one section into another so that the copy can be serialised off the main thread.
+     */
+    static void copySection(ConfigurationSection from, ConfigurationSection to) {
+        for (Map.Entry<String, Object> entry : from.getValues(true).entrySet()) {
+            Object value = entry.getValue();
+            if (value instanceof ConfigurationSection) {
+                to.createSection(entry.getKey());
+                continue;
+            }
+            if (value instanceof List) {
+                value = new ArrayList<>((List<?>) value);
+            }
+            to.set(entry.getKey(), value);
+        }
+    }
+
+    private static boolean isSameBlock(Location a, Location b) {
+        if (b == null)
+            return false;
+        return a.getWorld() == b.getWorld() && a.getBlockX() == b.getBlockX() && a.getBlockY() == b.getBlockY()
+                && a.getBlockZ() == b.getBlockZ();
+    }
+
+    static void write(File target, String data) throws IOException {
+        Files.createDirectories(target.getAbsoluteFile().getParentFile().toPath());
+        File temp = new File(target.getAbsoluteFile().getParentFile(), target.getName() + ".tmp");
+        Files.write(temp.toPath(), data.getBytes(StandardCharsets.UTF_8));
+        try {
+            Files.move(temp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
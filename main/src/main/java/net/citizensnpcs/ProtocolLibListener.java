@@ -7,10 +7,10 @@ import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 
 import org.bukkit.Bukkit;
-import org.bukkit.entity.Entity;
 import org.bukkit.entity.EntityType;
 import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
@@ -35,6 +35,8 @@ import com.comphenix.protocol.wrappers.WrappedDataValue;
 import com.comphenix.protocol.wrappers.WrappedGameProfile;
 import com.comphenix.protocol.wrappers.WrappedSignedProperty;
 import com.comphenix.protocol.wrappers.WrappedWatchableObject;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Maps;
 import com.mojang.authlib.GameProfile;
@@ -43,11 +45,13 @@ import com.mojang.authlib.properties.Property;
 import net.citizensnpcs.api.event.NPCAddTraitEvent;
 import net.citizensnpcs.api.event.NPCDespawnEvent;
 import net.citizensnpcs.api.event.NPCEvent;
+import net.citizensnpcs.api.event.NPCRemoveTraitEvent;
 import net.citizensnpcs.api.event.NPCSpawnEvent;
 import net.citizensnpcs.api.npc.NPC;
 import net.citizensnpcs.api.trait.trait.MobType;
 import net.citizensnpcs.api.util.Messaging;
-import net.citizensnpcs.npc.ai.NPCHolder;
+import net.citizensnpcs.npc.NPCEntityIndex;
+import net.citizensnpcs.trait.HologramTrait;
 import net.citizensnpcs.trait.MirrorTrait;
 import net.citizensnpcs.trait.RotationTrait;
 import net.citizensnpcs.trait.RotationTrait.PacketRotationSession;
@@ -58,7 +62,6 @@ public class ProtocolLibListener implements Listener {
     private final ProtocolManager manager;
     private final Map<UUID, MirrorTrait> mirrorTraits = Maps.newConcurrentMap();
     private final Citizens plugin;
-    private final Map<Integer, RotationTrait> rotationTraits = Maps.newConcurrentMap();
 
     public ProtocolLibListener(Citizens plugin) {
         this.plugin = plugin;
@@ -70,10 +73,9 @@ public class ProtocolLibListener implements Listener {
         manager.addPacketListener(new PacketAdapter(plugin, ListenerPriority.HIGHEST, Server.ENTITY_METADATA) {
             @Override
             public void onPacketSending(PacketEvent event) {
-                NPC npc = getNPCFromPacket(event);
-                if (npc == null || !npc.data().has(NPC.Metadata.HOLOGRAM_LINE_SUPPLIER))
+                Function<Player, String> hvs = getLineSupplier(event);
+                if (hvs == null)
                     return;
-                Function<Player, String> hvs = npc.data().get(NPC.Metadata.HOLOGRAM_LINE_SUPPLIER);
                 int version = manager.getProtocolVersion(event.getPlayer());
                 PacketContainer packet = event.getPacket();
                 if (version < 761) {
@@ -88,7 +90,7 @@ public class ProtocolLibListener implements Listener {
                         if (version <= 340) {
                             wo.setValue(text);
                         } else {
-                            wo.setValue(Optional.of(Messaging.minecraftComponentFromRawMessage(text)));
+                            wo.setValue(Optional.of(toComponent(text)));
                         }
                         delta = true;
                         break;
@@ -105,7 +107,7 @@ public class ProtocolLibListener implements Listener {
                     for (WrappedDataValue wdv : wdvs) {
                         if (wdv.getIndex() != 2)
                             continue;
-                        wdv.setValue(Optional.of(Messaging.minecraftComponentFromRawMessage(text)));
+                        wdv.setValue(Optional.of(toComponent(text)));
                         break;
                     }
                     if (delta) {
@@ -186,7 +188,7 @@ public class ProtocolLibListener implements Listener {
                     return;
                 }
 
-                RotationTrait trait = rotationTraits.get(eid);
+                RotationTrait trait = NPCEntityIndex.getRotationTrait(eid);
                 if (trait == null)
                     return;
 
@@ -222,14 +224,26 @@ public class ProtocolLibListener implements Listener {
 
     }
 
+    private Function<Player, String> getLineSupplier(PacketEvent event) {
+        NPC npc = getNPCFromPacket(event);
+        if (npc != null)
+            return npc.data().get(NPC.Metadata.HOLOGRAM_LINE_SUPPLIER);
+        if (!HologramTrait.hasPacketLineSuppliers())
+            return null;
+        // packet-only hologram lines have no NPC
+        try {
+            Integer id = event.getPacket().getIntegers().readSafely(0);
+            return id == null ? null : HologramTrait.getPacketLineSupplier(id);
+        } catch (FieldAccessException | IllegalArgumentException ex) {
+            return null;
+        }
+    }
+
     private NPC getNPCFromPacket(PacketEvent event) {
         PacketContainer packet = event.getPacket();
-        Entity entity = null;
         try {
             Integer id = packet.getIntegers().readSafely(0);
-            if (id == null)
-                return null;
-            entity = manager.getEntityFromID(event.getPlayer().getWorld(), id);
+            return id == null ? null : NPCEntityIndex.get(id);
         } catch (FieldAccessException | IllegalArgumentException ex) {
             if (!LOGGED_ERROR) {
                 Messaging.severe(
@@ -241,13 +255,10 @@ public class ProtocolLibListener implements Listener {
             }
             return null;
         }
-
-        return entity instanceof NPCHolder ? ((NPCHolder) entity).getNPC() : null;
     }
 
     @EventHandler(ignoreCancelled = true)
     public void onNPCDespawn(NPCDespawnEvent event) {
-        rotationTraits.remove(event.getNPC().getEntity().getEntityId());
         mirrorTraits.remove(event.getNPC().getEntity().getUniqueId());
     }
 
@@ -257,10 +268,6 @@ public class ProtocolLibListener implements Listener {
     }
 
     private void onSpawn(NPCEvent event) {
-        if (event.getNPC().hasTrait(RotationTrait.class)) {
-            rotationTraits.put(event.getNPC().getEntity().getEntityId(),
-                    event.getNPC().getTraitNullable(RotationTrait.class));
-        }
         if (event.getNPC().hasTrait(MirrorTrait.class)
                 && event.getNPC().getOrAddTrait(MobType.class).getType() == EntityType.PLAYER) {
             mirrorTraits.put(event.getNPC().getEntity().getUniqueId(),
@@ -272,9 +279,19 @@ public class ProtocolLibListener implements Listener {
     public void onTraitAdd(NPCAddTraitEvent event) {
         if (!event.getNPC().isSpawned())
             return;
+        if (event.getTrait() instanceof RotationTrait) {
+            NPCEntityIndex.setRotationTrait(event.getNPC(), (RotationTrait) event.getTrait());
+        }
         onSpawn(event);
     }
 
+    @EventHandler(ignoreCancelled = true)
+    public void onTraitRemove(NPCRemoveTraitEvent event) {
+        if (event.getTrait() instanceof RotationTrait) {
+            NPCEntityIndex.setRotationTrait(event.getNPC(), null);
+        }
+    }
+
     public enum PlayerTeleportFlag {
         X,
         Y,
@@ -287,5 +304,19 @@ public class ProtocolLibListener implements Listener {
         return (byte) (in * 256.0F / 360.0F);
     }
 
+    private static Object toComponent(String text) {
+        Object component = COMPONENTS.getIfPresent(text);
+        if (component == null) {
+            component = Messaging.minecraftComponentFromRawMessage(text);
+            if (component != null) {
+                COMPONENTS.put(text, component);
+            }
+        }
+        return component;
+    }
+
+    // rendered hologram text is usually identical between packets and players
+    private static final Cache<String, Object> COMPONENTS = CacheBuilder.newBuilder().maximumSize(1000)
+            .expireAfterAccess(1, TimeUnit.MINUTES).build();
     private static boolean LOGGED_ERROR = false;
 }
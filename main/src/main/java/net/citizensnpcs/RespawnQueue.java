@@ -0,0 +1,108 @@
+package net.citizensnpcs;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import net.citizensnpcs.api.npc.NPC;
+import net.citizensnpcs.util.ChunkCoord;
+
+/**
+ * Stores despawned NPCs waiting to be respawned, indexed by world and chunk with a reverse lookup from NPC to chunk.
+ * Chunks can be scheduled so that their NPCs are respawned gradually rather than all at once.
+ */
+class RespawnQueue {
+    private final Map<NPC, ChunkCoord> coords = Maps.newIdentityHashMap();
+    private final ArrayDeque<NPC> pending = new ArrayDeque<>();
+    private final Map<UUID, Map<ChunkCoord, Set<NPC>>> worlds = Maps.newHashMap();
+
+    void clear() {
+        coords.clear();
+        pending.clear();
+        worlds.clear();
+    }
+
+    boolean contains(ChunkCoord coord, NPC npc) {
+        return coord.equals(coords.get(npc));
+    }
+
+    boolean containsChunk(ChunkCoord coord) {
+        Map<ChunkCoord, Set<NPC>> chunks = worlds.get(coord.worldUUID);
+        return chunks != null && chunks.containsKey(coord);
+    }
+
+    List<NPC> get(ChunkCoord coord) {
+        Map<ChunkCoord, Set<NPC>> chunks = worlds.get(coord.worldUUID);
+        Set<NPC> npcs = chunks == null ? null : chunks.get(coord);
+        return npcs == null ? Collections.emptyList() : Lists.newArrayList(npcs);
+    }
+
+    List<ChunkCoord> getChunks(UUID worldUUID) {
+        Map<ChunkCoord, Set<NPC>> chunks = worlds.get(worldUUID);
+        return chunks == null ? Collections.emptyList() : Lists.newArrayList(chunks.keySet());
+    }
+
+    ChunkCoord getCoord(NPC npc) {
+        return coords.get(npc);
+    }
+
+    boolean hasPending() {
+        return !pending.isEmpty();
+    }
+
+    /**
+     * @return the next scheduled NPC, which may no longer be waiting for respawn
+     */
+    NPC pollPending() {
+        return pending.poll();
+    }
+
+    void put(ChunkCoord coord, NPC npc) {
+        ChunkCoord previous = coords.put(npc, coord);
+        if (coord.equals(previous))
+            return;
+        if (previous != null) {
+            removeFromChunk(previous, npc);
+        }
+        worlds.computeIfAbsent(coord.worldUUID, uuid -> Maps.newHashMap())
+                .computeIfAbsent(coord, c -> Sets.newLinkedHashSet()).add(npc);
+    }
+
+    boolean remove(NPC npc) {
+        ChunkCoord coord = coords.remove(npc);
+        if (coord == null)
+            return false;
+        removeFromChunk(coord, npc);
+        return true;
+    }
+
+    private void removeFromChunk(ChunkCoord coord, NPC npc) {
+        Map<ChunkCoord, Set<NPC>> chunks = worlds.get(coord.worldUUID);
+        if (chunks == null)
+            return;
+        Set<NPC> npcs = chunks.get(coord);
+        if (npcs == null)
+            return;
+        npcs.remove(npc);
+        if (npcs.isEmpty()) {
+            chunks.remove(coord);
+            if (chunks.isEmpty()) {
+                worlds.remove(coord.worldUUID);
+            }
+        }
+    }
+
+    /**
+     * Schedules every NPC currently waiting in the given chunk to be respawned.
+     */
+    void schedule(ChunkCoord coord) {
+        pending.addAll(get(coord));
+    }
+}
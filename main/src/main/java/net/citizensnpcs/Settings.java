@@ -68,6 +68,11 @@ public class Settings {
         ASTAR_ITERATIONS_PER_TICK("Number of blocks to search per tick (Citizens pathfinder)",
                 "npc.pathfinding.new-finder.iterations-per-tick", "npc.pathfinding.new-finder.iterations-per-tick",
                 250),
+        ASYNC_PATHFINDER(
+                "Whether to run the Citizens pathfinder on background threads using snapshots of nearby chunks<br>Moves pathfinding off the main thread at the cost of reading blocks as they were when the search started<br>Requires 1.13+, NPCs using door opening or custom block examiners keep pathfinding on the main thread",
+                "npc.pathfinding.new-finder.async", false),
+        ASYNC_PATHFINDER_THREADS("Number of background threads used by the async Citizens pathfinder",
+                "npc.pathfinding.new-finder.async-threads", 2),
         AUTH_SERVER_URL("Search for gameprofiles using this URL", "general.authlib.profile-url",
                 "https://sessionserver.mojang.com/session/minecraft/profile/"),
         BOSSBAR_RANGE("The default bossbar range, in blocks", "npc.default.bossbar-view-range", 64),
@@ -88,6 +93,9 @@ public class Settings {
         CHAT_RANGE("Nearby player range in blocks", "npc.chat.options.range", 5),
         CHECK_MINECRAFT_VERSION("Whether to check the minecraft version for compatibility (do not change)",
                 "advanced.check-minecraft-version", true),
+        CHUNK_RESPAWN_TICK_BUDGET(
+                "The maximum time in milliseconds per tick to spend respawning NPCs in newly loaded chunks<br>0 respawns every NPC on the tick after its chunk loads",
+                "npc.chunk-respawn-tick-budget-ms", 2D),
         CONTROLLABLE_GROUND_DIRECTION_MODIFIER("The percentage to increase speed when controlling NPCs on the ground",
                 "npc.controllable.ground-direction-modifier", 1.0D),
         DEBUG_CHUNK_LOADS("Debug chunk load stack traces, not as useful in recent Minecraft versions",
@@ -178,6 +186,9 @@ public class Settings {
         INITIAL_PLAYER_JOIN_SKIN_PACKET_DELAY("How long to wait before sending skins to joined players",
                 "npc.skins.player-join-update-delay-ticks", "npc.skins.player-join-update-delay", "3s"),
         KEEP_CHUNKS_LOADED("Whether to keep NPC chunks loaded", "npc.chunks.always-keep-loaded", false),
+        LINE_OF_SIGHT_CACHE_DURATION(
+                "How long to reuse line of sight checks between NPCs and players that have not moved, 0 to disable",
+                "npc.line-of-sight-cache-duration", "1s"),
         LOCALE("Controls translation files - defaults to your system language, set to en if English required",
                 "general.translation.locale", ""),
         MAX_CONTROLLABLE_GROUND_SPEED("The maximum speed that controllable NPCs can reach, in Minecraft velocity units",
@@ -202,11 +213,16 @@ public class Settings {
         NEW_PATHFINDER_OPENS_DOORS("Whether to open doors while pathfinding (should close them as well)",
                 "npc.pathfinding.new-finder.open-doors", false),
         NPC_ATTACK_DISTANCE("The range in blocks before attacking the target", "npc.pathfinding.attack-range", 1.75),
+        NPC_COMMAND_CLICK_RATE_LIMIT(
+                "Minimum delay between clicks from the same player, clicks during this time do not run commands<br>Set to 0t to disable",
+                "npc.commands.click-rate-limit", "0t"),
         NPC_COMMAND_GLOBAL_COMMAND_COOLDOWN(
                 "The global cooldown before a command can be used again, must be in seconds",
                 "npc.commands.global-delay-seconds", "npc.commands.global-cooldown", "1s"),
         NPC_COMMAND_MAXIMUM_TIMES_USED_MESSAGE("npc.commands.error-messages.maximum-times-used",
                 "You have reached the maximum number of uses ({0})."),
+        NPC_COMMAND_MAXIMUM_PENDING_COMMANDS("Maximum number of delayed commands that can be queued for an NPC at once",
+                "npc.commands.max-pending-delayed-commands", 100),
         NPC_COMMAND_MISSING_ITEM_MESSAGE("npc.commands.error-messages.missing-item", "Missing {1} {0}"),
         NPC_COMMAND_NO_PERMISSION_MESSAGE("npc.commands.error-messages.no-permission",
                 "You don't have permission to do that."),
@@ -218,6 +234,9 @@ public class Settings {
         NPC_COMMAND_ON_GLOBAL_COOLDOWN_MESSAGE("npc.commands.error-messages.on-global-cooldown",
                 "Please wait for {minutes} minutes and {seconds_over} seconds."),
         NPC_COST("The default cost to create an NPC", "economy.npc.cost", 100D),
+        NPC_SKIN_CACHE_REVALIDATE_AGE(
+                "How old cached skins can be before they are refreshed from Mojang in the background",
+                "npc.skins.cache-revalidate-age", "72h"),
         NPC_SKIN_FETCH_DEFAULT(
                 "Whether to try and look for the player skin for all new NPCs. If this is set to false and you create an NPC named Dinnerbone, the NPC will have the default (steve/alex/...) skin rather than trying to fetch the Dinnerbone skin.",
                 "npc.skins.try-fetch-default-skin", true),
@@ -226,13 +245,47 @@ public class Settings {
         NPC_SKIN_ROTATION_UPDATE_DEGREES("npc.skins.rotation-update-degrees", 90f),
         NPC_SKIN_USE_LATEST("npc.skins.use-latest-by-default", false),
         NPC_SKIN_VIEW_DISTANCE("npc.skins.view-distance", 100D),
+        NPC_UPDATE_DORMANT_INTERVAL("How often to update NPCs with no players within the far range",
+                "npc.update-scheduler.dormant-interval", "1s"),
+        NPC_UPDATE_FAR_INTERVAL("How often to update NPCs with players only within the far range",
+                "npc.update-scheduler.far-interval", "5t"),
+        NPC_UPDATE_FAR_RANGE("The range in blocks within which players keep NPCs out of the dormant tier",
+                "npc.update-scheduler.far-range", 96D),
+        NPC_UPDATE_NEAR_RANGE("The range in blocks within which NPCs are updated every tick",
+                "npc.update-scheduler.near-range", 32D),
+        NPC_UPDATE_SCHEDULER(
+                "Whether to update the entities of NPCs far away from players less often (experimental)<br>NPCs which are navigating are always updated every tick, traits always run every tick",
+                "npc.update-scheduler.enabled", false),
+        NPC_UPDATE_TICK_BUDGET(
+                "The maximum time in milliseconds per tick to spend updating far and dormant NPCs<br>NPCs over budget are deferred to the next tick",
+                "npc.update-scheduler.tick-budget-ms", 5D),
         NPC_WATER_SPEED_MODIFIER("Movement speed percentage increase while in water",
                 "npc.movement.water-speed-modifier", 1.15F),
+        PACKET_BUNDLE_NEARBY(
+                "Whether to queue packets sent to players near NPCs and send them to each player as one bundle per tick (1.19.4+)<br>Bundles are sent at the start of the next tick, so packets may arrive a tick later",
+                "npc.packets.bundle-nearby-packets", false),
         PACKET_HOLOGRAMS("Use packet NPCs for name holograms (experimental)", "npc.use-packet-holograms", false),
+        PACKET_ONLY_HOLOGRAMS(
+                "Render text hologram lines as client-side entities without creating NPCs (experimental)",
+                "npc.use-packet-only-holograms", false),
         PACKET_UPDATE_DELAY("npc.packets.update-delay", 30),
+        PATH_CACHE_DURATION("How long a shared cached path may be reused before it is searched for again",
+                "npc.pathfinding.path-cache-duration", "30s"),
+        PATH_CACHE_MAX_POINTS(
+                "The maximum number of path points kept in the shared pathfinding cache, 0 to disable",
+                "npc.pathfinding.path-cache-max-points", 100000),
         PATHFINDER_FALL_DISTANCE(
                 "The default allowed maximum fall distance when pathfinding, set to -1 to use the Minecraft value",
                 "npc.pathfinding.allowed-fall-distance", -1),
+        PATHFINDER_HIERARCHICAL_MAX_DISTANCE(
+                "The maximum distance in blocks to plan routes over chunk sections when the destination is beyond the pathfinding range, 0 to disable (experimental)",
+                "npc.pathfinding.hierarchical.max-distance", 0),
+        PATHFINDER_HIERARCHICAL_SECTIONS_PER_TICK(
+                "The maximum number of chunk sections analysed per tick by all routes planned beyond the pathfinding range, where every 64 regions searched count as one section",
+                "npc.pathfinding.hierarchical.sections-per-tick", 8),
+        PATHFINDER_SHARED_FLOW_FIELDS(
+                "Whether NPCs targeting the same entity share one search outward from the target instead of each searching on their own (Citizens pathfinder). The shared search assumes a two block tall NPC and ignores fall distance, door opening and bounding box checks (experimental)",
+                "npc.pathfinding.shared-flow-fields", false),
         PLACEHOLDER_SKIN_UPDATE_FREQUENCY("How often to update placeholders",
                 "npc.skins.placeholder-update-frequency-ticks", "npc.skins.placeholder-update-frequency", "5m"),
         PLAYER_TELEPORT_DELAY("npc.delay-player-teleport-ticks", "npc.delay-player-teleport", -1),
@@ -244,6 +297,9 @@ public class Settings {
         RESOURCE_PACK_PATH("The resource pack path to save resource packs to", "general.resource-pack-path",
                 "plugins/Citizens/resourcepack"),
         SAVE_TASK_DELAY("How often to save NPCs to disk", "storage.save-task.delay", "1hr"),
+        SAVE_TASK_INCREMENTAL_DELAY(
+                "How often to store only the NPCs which changed since the last save<br>Every NPC is still saved at the save task delay",
+                "storage.save-task.incremental-delay", "5m"),
         SELECTION_ITEM("The default item in hand to select an NPC", "npc.selection.item", "stick"),
         SELECTION_MESSAGE("npc.selection.message", "Selected [[<npc>]] (ID [[<id>]])."),
         SERVER_OWNS_NPCS("Whether the server owns NPCs rather than individual players", "npc.server-ownership", false),
@@ -251,10 +307,17 @@ public class Settings {
                 "The global view permission that players need to view any NPC shop. Defaults to empty (no permission required).",
                 "npc.shops.global-view-permission", ""),
         STORAGE_FILE("storage.file", "saves.yml"),
-        STORAGE_TYPE("Although technically Citizens can use NBT storage, it is not well tested and YAML is recommended",
+        STORAGE_LOAD_TICK_BUDGET(
+                "The maximum time in milliseconds per tick to spend creating NPCs on startup<br>0 creates every NPC on the first tick",
+                "storage.load-tick-budget-ms", 10D),
+        STORAGE_TYPE(
+                "Although technically Citizens can use NBT storage, it is not well tested and YAML is recommended<br>Use sharded to store NPCs in YAML files split by world and region, loading each world's NPCs when the world loads",
                 "storage.type", "yaml"),
         TABLIST_REMOVE_PACKET_DELAY("How long to wait before sending the tablist remove packet",
                 "npc.tablist.remove-packet-delay", "1t"),
+        TALK_CLOSE_REQUIRE_LINE_OF_SIGHT(
+                "Whether talk close only talks to players in line of sight when the NPC has realistic looking enabled",
+                "npc.chat.options.talk-close-requires-line-of-sight", false),
         TALK_CLOSE_TO_NPCS("Whether to talk to NPCs (and therefore bystanders) as well as players",
                 "npc.chat.options.talk-to-npcs", true),
         TALK_ITEM("The item filter to talk with", "npc.text.talk-item", "*"),
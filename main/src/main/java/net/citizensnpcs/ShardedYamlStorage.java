@@ -0,0 +1,451 @@
+package net.citizensnpcs;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import org.bukkit.Bukkit;
+import org.bukkit.World;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.InvalidConfigurationException;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.world.WorldLoadEvent;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.io.Files;
+
+import net.citizensnpcs.api.util.DataKey;
+import net.citizensnpcs.api.util.Messaging;
+import net.citizensnpcs.api.util.Storage;
+import net.citizensnpcs.api.util.YamlStorage;
+import net.citizensnpcs.api.util.YamlStorage.YamlKey;
+
+/**
+ * A YAML {@link Storage} which splits the <code>npc</code> section into one file per world region (512x512 blocks)
+ * based on the stored NPC location. Other keys are kept in the index file. Only shards containing an NPC which was
+ * stored or removed since the last save are rewritten, and the shards of a world are only loaded once the world is
+ * loaded. Shards which fail to parse are never overwritten or deleted.
+ *
+ * Switching back to plain YAML storage merges the shards into the index file once, see
+ * {@link #migrateToSingleFile(File, String)}.
+ */
+public class ShardedYamlStorage implements Storage, Listener {
+    private final Set<File> dirtyShards = Sets.newHashSet();
+    private final File folder;
+    private final String header;
+    private final YamlStorage index;
+    private final Set<String> loadedWorlds = Sets.newHashSet();
+    private int maxId = -1;
+    private final Map<String, File> npcShards = Maps.newHashMap();
+    // shared with the writer thread, guarded by pendingWrites
+    private final Set<File> pendingDeletes = Sets.newHashSet();
+    private final Map<File, YamlConfiguration> pendingWrites = Maps.newHashMap();
+    private final Map<File, Set<String>> shardNPCs = Maps.newHashMap();
+    private final Set<File> unreadableShards = Sets.newHashSet();
+    private Consumer<Collection<DataKey>> worldLoadCallback;
+
+    public ShardedYamlStorage(File file, String header) {
+        this.header = header;
+        index = new YamlStorage(file, header);
+        folder = new File(file.getParentFile(), Files.getNameWithoutExtension(file.getName()) + "-shards");
+    }
+
+    public File getFile() {
+        return index.getFile();
+    }
+
+    @Override
+    public DataKey getKey(String root) {
+        return index.getKey(root);
+    }
+
+    private ConfigurationSection getNPCSection() {
+        ConfigurationSection root = getRoot();
+        ConfigurationSection npcs = root.getConfigurationSection("npc");
+        return npcs == null ? root.createSection("npc") : npcs;
+    }
+
+    private ConfigurationSection getRoot() {
+        return ((YamlKey) index.getKey("")).getSection("");
+    }
+
+    File getShard(ConfigurationSection npc) {
+        String world = npc.getString("traits.location.world");
+        if (world == null || world.isEmpty())
+            return new File(folder, UNPLACED_SHARD);
+        int regionX = (int) Math.floor(npc.getDouble("traits.location.x")) >> 9;
+        int regionZ = (int) Math.floor(npc.getDouble("traits.location.z")) >> 9;
+        return new File(new File(folder, world), "r." + regionX + "." + regionZ + ".yml");
+    }
+
+    private String getWorldName(File shard) {
+        if (shard.getParentFile().equals(folder))
+            return null;
+        return shard.getParentFile().getName();
+    }
+
+    private boolean isLoaded(File shard) {
+        String world = getWorldName(shard);
+        return world == null || loadedWorlds.contains(world);
+    }
+
+    @Override
+    public boolean load() {
+        if (!index.load())
+            return false;
+        loadedWorlds.clear();
+        npcShards.clear();
+        shardNPCs.clear();
+        dirtyShards.clear();
+        unreadableShards.clear();
+        ConfigurationSection root = getRoot();
+        maxId = root.getInt("shards.max-id", -1);
+        loadShard(new File(folder, UNPLACED_SHARD));
+        for (World world : Bukkit.getWorlds()) {
+            loadWorld(world.getName());
+        }
+        if (!unreadableShards.isEmpty())
+            return false;
+        // NPCs kept in the index file, for example when switching from plain YAML storage
+        List<String> unsharded = Lists.newArrayList();
+        for (String id : getNPCSection().getKeys(false)) {
+            if (!npcShards.containsKey(id)) {
+                unsharded.add(id);
+            }
+        }
+        markChanged(unsharded);
+        if (root.getInt("last-created-npc-id", -1) < maxId) {
+            root.set("last-created-npc-id", maxId);
+        }
+        return true;
+    }
+
+    private void loadShard(File shard) {
+        YamlConfiguration config = parseShard(shard);
+        if (config == null) {
+            unreadableShards.add(shard);
+            return;
+        }
+        mergeShard(shard, config);
+    }
+
+    /**
+     * Loads the shards of the given world if they have not been loaded yet. The world is only marked as loaded once
+     * every shard was parsed, unreadable shards are retried the next time the world loads.
+     *
+     * @return the keys of the NPCs which were newly loaded from the world's shards
+     */
+    public Collection<DataKey> loadWorld(String world) {
+        if (loadedWorlds.contains(world))
+            return Collections.emptyList();
+        File[] shards = new File(folder, world).listFiles((dir, name) -> name.endsWith(".yml"));
+        if (shards == null) {
+            loadedWorlds.add(world);
+            return Collections.emptyList();
+        }
+        // parse in parallel, merging into the shared section stays on the calling thread
+        List<YamlConfiguration> parsed = Arrays.stream(shards).parallel().map(ShardedYamlStorage::parseShard)
+                .collect(Collectors.toList());
+        List<DataKey> keys = Lists.newArrayList();
+        boolean failed = false;
+        for (int i = 0; i < shards.length; i++) {
+            if (parsed.get(i) == null) {
+                unreadableShards.add(shards[i]);
+                failed = true;
+                continue;
+            }
+            unreadableShards.remove(shards[i]);
+            for (String id : mergeShard(shards[i], parsed.get(i))) {
+                keys.add(index.getKey("npc." + id));
+            }
+        }
+        if (!failed) {
+            loadedWorlds.add(world);
+        }
+        Messaging.debug("Loaded", keys.size(), "NPCs from", shards.length, "shards for world", world);
+        return keys;
+    }
+
+    /**
+     * Records that the given NPCs were stored or removed, so that the shards they were and are now in are written by
+     * the next save. NPCs without a section in the storage are treated as removed.
+     */
+    public void markChanged(Collection<String> ids) {
+        ConfigurationSection npcs = getNPCSection();
+        for (String id : ids) {
+            ConfigurationSection npc = npcs.getConfigurationSection(id);
+            if (npc == null) {
+                File old = npcShards.remove(id);
+                if (old != null) {
+                    shardNPCs.get(old).remove(id);
+                    dirtyShards.add(old);
+                }
+                continue;
+            }
+            File shard = getShard(npc);
+            setShard(id, shard);
+            dirtyShards.add(shard);
+            updateMaxId(id);
+        }
+    }
+
+    /**
+     * Merges a parsed shard into the <code>npc</code> section. NPCs which are already in the section are kept as they
+     * are.
+     *
+     * @return the ids of the NPCs which were added to the section
+     */
+    private List<String> mergeShard(File shard, YamlConfiguration config) {
+        ConfigurationSection npcs = getNPCSection();
+        ConfigurationSection loaded = config.getConfigurationSection("npc");
+        List<String> added = Lists.newArrayList();
+        if (loaded == null)
+            return added;
+        for (String id : loaded.getKeys(false)) {
+            if (npcs.isConfigurationSection(id)) {
+                if (!shard.equals(npcShards.get(id))) {
+                    // a stale copy of an NPC kept elsewhere, rewrite the shard without it
+                    dirtyShards.add(shard);
+                }
+                continue;
+            }
+            NPCSavePipeline.copySection(loaded.getConfigurationSection(id), npcs.createSection(id));
+            setShard(id, shard);
+            updateMaxId(id);
+            added.add(id);
+        }
+        return added;
+    }
+
+    @EventHandler(priority = EventPriority.LOW)
+    public void onWorldLoad(WorldLoadEvent event) {
+        Collection<DataKey> keys;
+        try {
+            keys = loadWorld(event.getWorld().getName());
+        } catch (RuntimeException e) {
+            Messaging.severe("Unable to load NPC shards for world", event.getWorld().getName() + ":", e.getMessage());
+            e.printStackTrace();
+            return;
+        }
+        if (worldLoadCallback != null && !keys.isEmpty()) {
+            worldLoadCallback.accept(keys);
+        }
+    }
+
+    /**
+     * Marks every NPC as changed and snapshots every shard on the calling thread.
+     *
+     * @see #prepareSave(Collection)
+     */
+    public Runnable prepareSave() {
+        Set<String> ids = Sets.newHashSet(getNPCSection().getKeys(false));
+        ids.addAll(npcShards.keySet());
+        return prepareSave(ids);
+    }
+
+    /**
+     * Snapshots the index and every shard containing an NPC which was stored or removed since the last save on the
+     * calling thread.
+     *
+     * @param changed
+     *            the ids of the NPCs stored or removed since the last save
+     * @return a task which writes the snapshots to disk and can be run on any thread. Snapshots of an earlier task
+     *         which has not run yet are written by this task as well.
+     */
+    public Runnable prepareSave(Collection<String> changed) {
+        ConfigurationSection npcs = getNPCSection();
+        Set<String> changedIds = Sets.newHashSet(changed);
+        // NPCs whose data was cleared without an event, such as by NPCRegistry#deregisterAll
+        for (String id : npcShards.keySet()) {
+            if (!npcs.isConfigurationSection(id)) {
+                changedIds.add(id);
+            }
+        }
+        markChanged(changedIds);
+        Map<File, YamlConfiguration> writes = Maps.newHashMap();
+        List<File> deletes = Lists.newArrayList();
+        for (Iterator<File> itr = dirtyShards.iterator(); itr.hasNext();) {
+            File file = itr.next();
+            if (unreadableShards.contains(file)) {
+                Messaging.severe("Not overwriting unreadable NPC shard", file.getPath());
+                continue;
+            }
+            Set<String> ids = shardNPCs.getOrDefault(file, Collections.emptySet());
+            YamlConfiguration shard = new YamlConfiguration();
+            if (!isLoaded(file)) {
+                // the world's shards have not been loaded, so keep the NPCs on disk without creating them now
+                shard = parseShard(file);
+                if (shard == null) {
+                    unreadableShards.add(file);
+                    continue;
+                }
+            } else if (ids.isEmpty()) {
+                shardNPCs.remove(file);
+                deletes.add(file);
+                itr.remove();
+                continue;
+            }
+            ConfigurationSection shardNPCSection = shard.isConfigurationSection("npc")
+                    ? shard.getConfigurationSection("npc")
+                    : shard.createSection("npc");
+            for (String id : ids) {
+                NPCSavePipeline.copySection(npcs.getConfigurationSection(id), shardNPCSection.createSection(id));
+            }
+            writes.put(file, shard);
+            itr.remove();
+        }
+        ConfigurationSection root = getRoot();
+        YamlConfiguration indexCopy = new YamlConfiguration();
+        indexCopy.options().header(header);
+        for (String key : root.getKeys(false)) {
+            if (key.equals("npc"))
+                continue;
+            Object value = root.get(key);
+            if (value instanceof ConfigurationSection) {
+                NPCSavePipeline.copySection((ConfigurationSection) value, indexCopy.createSection(key));
+            } else {
+                indexCopy.set(key, value);
+            }
+        }
+        indexCopy.set("shards.max-id", maxId);
+        File indexFile = index.getFile();
+        synchronized (pendingWrites) {
+            for (File file : deletes) {
+                pendingWrites.remove(file);
+                pendingDeletes.add(file);
+            }
+            for (Map.Entry<File, YamlConfiguration> entry : writes.entrySet()) {
+                pendingDeletes.remove(entry.getKey());
+                pendingWrites.put(entry.getKey(), entry.getValue());
+            }
+        }
+        Messaging.debug("Writing", writes.size(), "changed NPC shards and deleting", deletes.size());
+        return () -> {
+            Map<File, YamlConfiguration> toWrite;
+            List<File> toDelete;
+            synchronized (pendingWrites) {
+                toWrite = Maps.newHashMap(pendingWrites);
+                toDelete = Lists.newArrayList(pendingDeletes);
+                pendingWrites.clear();
+                pendingDeletes.clear();
+            }
+            try {
+                for (Map.Entry<File, YamlConfiguration> entry : toWrite.entrySet()) {
+                    NPCSavePipeline.write(entry.getKey(), entry.getValue().saveToString());
+                }
+                for (File shard : toDelete) {
+                    java.nio.file.Files.deleteIfExists(shard.toPath());
+                }
+                NPCSavePipeline.write(indexFile, indexCopy.saveToString());
+            } catch (IOException e) {
+                Messaging.severe("Unable to save NPC shards:", e.getMessage());
+                e.printStackTrace();
+            }
+        };
+    }
+
+    @Override
+    public void save() {
+        prepareSave().run();
+    }
+
+    private void setShard(String id, File shard) {
+        File old = npcShards.put(id, shard);
+        if (shard.equals(old))
+            return;
+        if (old != null) {
+            shardNPCs.get(old).remove(id);
+            dirtyShards.add(old);
+        }
+        shardNPCs.computeIfAbsent(shard, f -> Sets.newTreeSet()).add(id);
+    }
+
+    /**
+     * Sets the callback which receives the keys of NPCs loaded after their world was loaded.
+     */
+    public void setWorldLoadCallback(Consumer<Collection<DataKey>> callback) {
+        this.worldLoadCallback = callback;
+    }
+
+    @Override
+    public String toString() {
+        return "ShardedYamlStorage {" + index.getFile() + ", " + folder + "}";
+    }
+
+    private void updateMaxId(String id) {
+        try {
+            maxId = Math.max(maxId, Integer.parseInt(id));
+        } catch (NumberFormatException e) {
+        }
+    }
+
+    /**
+     * Merges the shards of a sharded save back into the index file, so that switching <code>storage.type</code> back
+     * to <code>yaml</code> keeps every NPC. Does nothing if there are no shards or the index file already contains
+     * NPCs. The shard folder is renamed afterwards so that the merge only happens once.
+     *
+     * @return false if the index or a shard could not be read, in which case nothing is changed
+     */
+    public static boolean migrateToSingleFile(File file, String header) {
+        ShardedYamlStorage sharded = new ShardedYamlStorage(file, header);
+        if (!sharded.folder.isDirectory())
+            return true;
+        if (!sharded.index.load())
+            return false;
+        if (sharded.getRoot().isConfigurationSection("npc"))
+            return true;
+        List<File> shards = Lists.newArrayList(new File(sharded.folder, UNPLACED_SHARD));
+        File[] worlds = sharded.folder.listFiles(File::isDirectory);
+        for (File world : worlds == null ? new File[0] : worlds) {
+            File[] files = world.listFiles((dir, name) -> name.endsWith(".yml"));
+            if (files != null) {
+                shards.addAll(Arrays.asList(files));
+            }
+        }
+        for (File shard : shards) {
+            YamlConfiguration config = parseShard(shard);
+            if (config == null)
+                return false;
+            sharded.mergeShard(shard, config);
+        }
+        sharded.getRoot().set("shards", null);
+        sharded.index.save();
+        File migrated = new File(sharded.folder.getParentFile(), sharded.folder.getName() + ".migrated");
+        if (!sharded.folder.renameTo(migrated)) {
+            Messaging.severe("Unable to rename", sharded.folder.getName(), "after merging it into", file.getName());
+        }
+        Messaging.log("Merged", shards.size(), "NPC shards into", file.getName());
+        return true;
+    }
+
+    /**
+     * @return the parsed shard, an empty configuration if the shard does not exist or null if it could not be read
+     */
+    private static YamlConfiguration parseShard(File shard) {
+        YamlConfiguration config = new YamlConfiguration();
+        if (!shard.exists())
+            return config;
+        try {
+            config.load(shard);
+        } catch (IOException | InvalidConfigurationException e) {
+            Messaging.severe("Unable to load NPC shard", shard.getPath() + ":", e.getMessage());
+            return null;
+        }
+        return config;
+    }
+
+    private static final String UNPLACED_SHARD = "unplaced.yml";
+}
@@ -1,21 +1,34 @@
 package net.citizensnpcs.commands;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.Locale;
 import java.util.Map;
 import java.util.WeakHashMap;
 
+import org.bukkit.Bukkit;
 import org.bukkit.command.CommandSender;
 
 import net.citizensnpcs.Citizens;
+import net.citizensnpcs.NPCSavePipeline;
 import net.citizensnpcs.Settings.Setting;
+import net.citizensnpcs.api.CitizensAPI;
 import net.citizensnpcs.api.command.Command;
 import net.citizensnpcs.api.command.CommandContext;
 import net.citizensnpcs.api.command.Requirements;
 import net.citizensnpcs.api.command.exception.CommandException;
+import net.citizensnpcs.api.command.exception.CommandUsageException;
 import net.citizensnpcs.api.exception.NPCLoadException;
 import net.citizensnpcs.api.npc.NPC;
 import net.citizensnpcs.api.util.Messaging;
+import net.citizensnpcs.npc.CitizensNPC;
+import net.citizensnpcs.npc.NPCUpdateScheduler;
+import net.citizensnpcs.npc.NPCUpdateScheduler.TierStats;
+import net.citizensnpcs.npc.NPCUpdateScheduler.UpdateTier;
 import net.citizensnpcs.util.Messages;
 import net.citizensnpcs.util.StringHelper;
+import net.citizensnpcs.util.TickProfiler;
 
 @Requirements
 public class AdminCommands {
@@ -34,6 +47,42 @@ public class AdminCommands {
                 + "><hover:show_text:Citizens website including wiki><u>Website</hover></click> <click:open_url:https://discord.gg/Q6pZGSR><hover:show_text:Citizens Support Discord><u>Support</hover></click>");
     }
 
+    @Command(
+            aliases = { "citizens" },
+            usage = "profile [start|stop|dump]",
+            desc = "Profile trait and NPC tick times",
+            modifiers = { "profile" },
+            min = 2,
+            max = 2,
+            permission = "citizens.admin")
+    public void profile(CommandContext args, CommandSender sender, NPC npc) throws CommandException {
+        String action = args.getString(1).toLowerCase(Locale.ROOT);
+        if (action.equals("start")) {
+            TickProfiler.start();
+            Messaging.sendTr(sender, Messages.CITIZENS_PROFILE_STARTED);
+        } else if (action.equals("stop")) {
+            if (!TickProfiler.isRunning())
+                throw new CommandException(Messages.CITIZENS_PROFILE_NOT_RUNNING);
+            TickProfiler.stop();
+            Messaging.sendTr(sender, Messages.CITIZENS_PROFILE_STOPPED, TickProfiler.getTicks());
+        } else if (action.equals("dump")) {
+            if (!TickProfiler.hasSamples())
+                throw new CommandException(Messages.CITIZENS_PROFILE_NO_SAMPLES);
+            Messaging.send(sender, StringHelper.wrapHeader("<green>Tick profile"));
+            for (String line : TickProfiler.summarise(5)) {
+                Messaging.send(sender, "     <yellow>-- <green>" + line);
+            }
+            try {
+                File file = TickProfiler.dump(plugin.getDataFolder());
+                Messaging.sendTr(sender, Messages.CITIZENS_PROFILE_DUMPED, TickProfiler.getTicks(), file.getName());
+            } catch (IOException e) {
+                e.printStackTrace();
+                throw new CommandException(e.getMessage());
+            }
+        } else
+            throw new CommandUsageException();
+    }
+
     @Command(
             aliases = { "citizens" },
             usage = "reload",
@@ -74,6 +123,44 @@ public class AdminCommands {
     public void save(CommandContext args, CommandSender sender, NPC npc) {
         Messaging.sendTr(sender, Messages.CITIZENS_SAVING);
         plugin.storeNPCs(args.hasFlag('a'));
-        Messaging.sendTr(sender, Messages.CITIZENS_SAVED);
+        NPCSavePipeline pipeline = plugin.getSavePipeline();
+        pipeline.whenWritten(() -> {
+            if (!plugin.isEnabled())
+                return;
+            Bukkit.getScheduler().runTask(plugin, () -> {
+                Messaging.sendTr(sender, Messages.CITIZENS_SAVED);
+                Messaging.sendTr(sender, Messages.CITIZENS_SAVE_STATISTICS, pipeline.getLastStoredCount(),
+                        pipeline.getLastSaveMillis(), pipeline.getLastWriteMillis(), pipeline.getDirtyCount());
+            });
+        });
+    }
+
+    @Command(
+            aliases = { "citizens" },
+            usage = "tiers (-r(eset))",
+            desc = "Show NPC update scheduler tiers",
+            modifiers = { "tiers" },
+            min = 1,
+            max = 1,
+            flags = "r",
+            permission = "citizens.admin")
+    public void tiers(CommandContext args, CommandSender sender, NPC npc) throws CommandException {
+        if (args.hasFlag('r')) {
+            NPCUpdateScheduler.resetStats();
+        }
+        Map<UpdateTier, Integer> counts = new EnumMap<>(UpdateTier.class);
+        for (NPC other : CitizensAPI.getNPCRegistry()) {
+            if (!(other instanceof CitizensNPC) || !other.isSpawned())
+                continue;
+            UpdateTier tier = ((CitizensNPC) other).getScheduledUpdate().getTier();
+            counts.put(tier, counts.getOrDefault(tier, 0) + 1);
+        }
+        Messaging.send(sender, StringHelper.wrapHeader("<green>Update tiers"));
+        for (UpdateTier tier : UpdateTier.values()) {
+            TierStats stats = NPCUpdateScheduler.getStats().get(tier);
+            Messaging.send(sender,
+                    "     <yellow>-- <green>" + tier + ": [[" + counts.getOrDefault(tier, 0) + "]] NPCs, [["
+                            + stats.getUpdates() + "]] updates averaging [[" + stats.getAverageNanos() + "]]ns");
+        }
     }
-}
\ No newline at end of file
+}
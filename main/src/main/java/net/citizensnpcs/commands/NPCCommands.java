@@ -45,6 +45,7 @@ import com.google.common.base.Splitter;
 import com.google.common.base.Strings;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 
 import net.citizensnpcs.Citizens;
 import net.citizensnpcs.Settings.Setting;
@@ -94,8 +95,11 @@ import net.citizensnpcs.commands.gui.NPCConfigurator;
 import net.citizensnpcs.commands.history.CommandHistory;
 import net.citizensnpcs.commands.history.CreateNPCHistoryItem;
 import net.citizensnpcs.commands.history.RemoveNPCHistoryItem;
+import net.citizensnpcs.npc.CitizensNPC;
+import net.citizensnpcs.npc.CitizensNPCRegistry;
 import net.citizensnpcs.npc.EntityControllers;
 import net.citizensnpcs.npc.NPCSelector;
+import net.citizensnpcs.npc.NPCUpdateScheduler;
 import net.citizensnpcs.npc.Template;
 import net.citizensnpcs.trait.Age;
 import net.citizensnpcs.trait.Anchors;
@@ -748,6 +752,7 @@ public class NPCCommands {
 
         if (!Setting.SERVER_OWNS_NPCS.asBoolean()) {
             npc.getOrAddTrait(Owner.class).setOwner(sender);
+            CitizensNPCRegistry.updateOwnerIndex(npc);
         }
 
         if (temporaryTicks != null) {
@@ -837,12 +842,12 @@ public class NPCCommands {
 
     @Command(
             aliases = { "npc" },
-            usage = "debug -p(aths) -n(avigation)",
+            usage = "debug -p(aths) -n(avigation) -u(pdates)",
             desc = "Display debugging information",
             modifiers = { "debug" },
             min = 1,
             max = 1,
-            flags = "pn",
+            flags = "pnu",
             permission = "citizens.npc.debug")
     @Requirements(ownership = true, selected = true)
     public void debug(CommandContext args, CommandSender sender, NPC npc) throws CommandException {
@@ -859,6 +864,11 @@ public class NPCCommands {
                     + npc.getNavigator().getDefaultParameters().speed() + "]]<br>";
             output += "Stuck action [[" + npc.getNavigator().getDefaultParameters().stuckAction() + "]]<br>";
             Messaging.send(sender, output);
+        } else if (args.hasFlag('u') && npc instanceof CitizensNPC) {
+            NPCUpdateScheduler.ScheduledUpdate update = ((CitizensNPC) npc).getScheduledUpdate();
+            Messaging.send(sender, "Update tier [[" + update.getTier() + "]] every [[" + update.getTier().interval()
+                    + "]] ticks, last updated [[" + update.getTicksSinceLastUpdate() + "]] ticks ago (deferred [["
+                    + update.getDeferredCount() + "]] times)");
         }
     }
 
@@ -1435,7 +1445,7 @@ public class NPCCommands {
 
     @Command(
             aliases = { "npc" },
-            usage = "list (page) ((-a) --owner (owner) --type (type) --char (char) --registry (name))",
+            usage = "list (page) ((-a) --owner (owner) --type (type) --world (world) --char (char) --registry (name))",
             desc = "List NPCs",
             flags = "a",
             modifiers = { "list" },
@@ -1444,8 +1454,8 @@ public class NPCCommands {
             permission = "citizens.npc.list")
     @Requirements
     public void list(CommandContext args, CommandSender sender, NPC npc, @Flag("owner") String owner,
-            @Flag("type") EntityType type, @Flag("page") Integer page, @Flag("registry") String registry)
-            throws CommandException {
+            @Flag("type") EntityType type, @Flag("world") String world, @Flag("page") Integer page,
+            @Flag("registry") String registry) throws CommandException {
         NPCRegistry source = registry != null ? CitizensAPI.getNamedNPCRegistry(registry)
                 : CitizensAPI.getNPCRegistry();
         if (source == null)
@@ -1457,11 +1467,25 @@ public class NPCCommands {
                 npcs.add(add);
             }
         } else if (owner != null) {
-            for (NPC add : source.sorted()) {
-                if (!npcs.contains(add) && add.getOrAddTrait(Owner.class).isOwnedBy(owner)) {
-                    npcs.add(add);
+            UUID ownerId = Bukkit.getPlayerExact(owner) != null ? Bukkit.getPlayerExact(owner).getUniqueId() : null;
+            if (ownerId == null) {
+                try {
+                    ownerId = UUID.fromString(owner);
+                } catch (IllegalArgumentException e) {
+                }
+            }
+            if (ownerId != null && source instanceof CitizensNPCRegistry) {
+                npcs.addAll(((CitizensNPCRegistry) source).getOwnedBy(ownerId));
+            } else {
+                for (NPC add : source.sorted()) {
+                    if (!npcs.contains(add) && add.getOrAddTrait(Owner.class).isOwnedBy(owner)) {
+                        npcs.add(add);
+                    }
                 }
             }
+        } else if (sender instanceof Player && source instanceof CitizensNPCRegistry
+                && !sender.hasPermission("citizens.admin")) {
+            npcs.addAll(((CitizensNPCRegistry) source).getOwnedBy(((Player) sender).getUniqueId()));
         } else if (sender instanceof Player) {
             for (NPC add : source.sorted()) {
                 if (!npcs.contains(add) && add.getOrAddTrait(Owner.class).isOwnedBy(sender)) {
@@ -1481,6 +1505,18 @@ public class NPCCommands {
             }
         }
 
+        if (world != null) {
+            World filter = Bukkit.getWorld(world);
+            if (filter == null)
+                throw new CommandException(Messages.WORLD_NOT_FOUND);
+            if (source instanceof CitizensNPCRegistry) {
+                npcs.retainAll(Sets.newHashSet(((CitizensNPCRegistry) source).getNPCsInWorld(filter.getUID())));
+            } else {
+                npcs.removeIf(
+                        n -> n.getStoredLocation() == null || !filter.equals(n.getStoredLocation().getWorld()));
+            }
+        }
+
         Paginator paginator = new Paginator().header("NPCs").console(sender instanceof ConsoleCommandSender)
                 .enablePageSwitcher('/' + args.getRawCommand() + " --page $page");
         for (int i = 0; i < npcs.size(); i++) {
@@ -1937,6 +1973,7 @@ public class NPCCommands {
         if (ownerTrait.isOwnedBy(uuid))
             throw new CommandException(Messages.ALREADY_OWNER, uuid, npc.getName());
         ownerTrait.setOwner(uuid);
+        CitizensNPCRegistry.updateOwnerIndex(npc);
         boolean serverOwner = uuid == null;
         Messaging.sendTr(sender, serverOwner ? Messages.OWNER_SET_SERVER : Messages.OWNER_SET, npc.getName(), uuid);
     }
@@ -3,12 +3,14 @@ package net.citizensnpcs.npc;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.EnumSet;
+import java.util.Objects;
 import java.util.Set;
 import java.util.UUID;
 import java.util.function.Consumer;
 
 import org.bukkit.Bukkit;
 import org.bukkit.Location;
+import org.bukkit.World;
 import org.bukkit.block.Block;
 import org.bukkit.entity.Entity;
 import org.bukkit.entity.EntityType;
@@ -25,6 +27,7 @@ import com.google.common.collect.Iterables;
 import com.google.common.collect.SetMultimap;
 
 import net.citizensnpcs.NPCNeedsRespawnEvent;
+import net.citizensnpcs.Citizens;
 import net.citizensnpcs.Settings.Setting;
 import net.citizensnpcs.api.CitizensAPI;
 import net.citizensnpcs.api.ai.Navigator;
@@ -46,6 +49,7 @@ import net.citizensnpcs.api.trait.trait.Spawned;
 import net.citizensnpcs.api.util.DataKey;
 import net.citizensnpcs.api.util.Messaging;
 import net.citizensnpcs.npc.ai.CitizensNavigator;
+import net.citizensnpcs.npc.skin.SkinUpdateTracker;
 import net.citizensnpcs.npc.skin.SkinnableEntity;
 import net.citizensnpcs.trait.CurrentLocation;
 import net.citizensnpcs.trait.Gravity;
@@ -60,12 +64,17 @@ import net.citizensnpcs.util.Messages;
 import net.citizensnpcs.util.NMS;
 import net.citizensnpcs.util.PlayerAnimation;
 import net.citizensnpcs.util.PlayerUpdateTask;
+import net.citizensnpcs.util.TickProfiler;
 import net.citizensnpcs.util.Util;
 
 public class CitizensNPC extends AbstractNPC {
     private ChunkCoord cachedCoord;
     private EntityController entityController;
+    private UUID indexedWorld;
+    private final EntityMetadataTracker metadataTracker = new EntityMetadataTracker();
     private final CitizensNavigator navigator = new CitizensNavigator(this);
+    private final NPCUpdateScheduler.ScheduledUpdate scheduledUpdate = new NPCUpdateScheduler.ScheduledUpdate(this);
+    private long skinIndexCell;
     private int updateCounter = 0;
 
     public CitizensNPC(UUID uuid, int id, String name, EntityController controller, NPCRegistry registry) {
@@ -112,6 +121,7 @@ public class CitizensNPC extends AbstractNPC {
             ((SkinnableEntity) getEntity()).getSkinTracker().onRemoveNPC();
         }
 
+        unindexEntity();
         if (reason == DespawnReason.DEATH) {
             entityController.die();
         } else {
@@ -152,6 +162,10 @@ public class CitizensNPC extends AbstractNPC {
         return navigator;
     }
 
+    public NPCUpdateScheduler.ScheduledUpdate getScheduledUpdate() {
+        return scheduledUpdate;
+    }
+
     @Override
     public Location getStoredLocation() {
         return isSpawned() ? getEntity().getLocation() : getOrAddTrait(CurrentLocation.class).getLocation();
@@ -180,6 +194,9 @@ public class CitizensNPC extends AbstractNPC {
         super.load(root);
         // Spawn the NPC
         CurrentLocation spawnLocation = getOrAddTrait(CurrentLocation.class);
+        if (spawnLocation.getLocation() != null) {
+            updateWorldIndex(spawnLocation.getLocation().getWorld());
+        }
         if (getOrAddTrait(Spawned.class).shouldSpawn() && spawnLocation.getLocation() != null) {
             if (spawnLocation.getLocation() != null) {
                 spawn(spawnLocation.getLocation(), SpawnReason.RESPAWN);
@@ -189,6 +206,7 @@ public class CitizensNPC extends AbstractNPC {
         }
 
         navigator.load(root.getRelative("navigator"));
+        CitizensNPCRegistry.updateOwnerIndex(this);
     }
 
     @Override
@@ -211,6 +229,7 @@ public class CitizensNPC extends AbstractNPC {
     @Override
     public void save(DataKey root) {
         super.save(root);
+        CitizensNPCRegistry.updateOwnerIndex(this);
         if (!data().get(NPC.Metadata.SHOULD_SAVE, true))
             return;
         navigator.save(root.getRelative("navigator"));
@@ -300,6 +319,9 @@ public class CitizensNPC extends AbstractNPC {
 
         getOrAddTrait(CurrentLocation.class).setLocation(at);
         entityController.create(at.clone(), this);
+        NPCEntityIndex.put(getEntity().getEntityId(), this);
+        updateWorldIndex(at.getWorld());
+        metadataTracker.reset();
         getEntity().setMetadata("NPC", new FixedMetadataValue(CitizensAPI.getPlugin(), true));
         getEntity().setMetadata("NPC-ID", new FixedMetadataValue(CitizensAPI.getPlugin(), getId()));
 
@@ -326,6 +348,7 @@ public class CitizensNPC extends AbstractNPC {
                         "is loaded", Util.isLoaded(at));
             }
             // we need to wait before trying to spawn
+            unindexEntity();
             entityController.remove();
             Bukkit.getPluginManager().callEvent(new NPCNeedsRespawnEvent(this, at));
             return false;
@@ -350,6 +373,7 @@ public class CitizensNPC extends AbstractNPC {
                     if (timer++ > Setting.ENTITY_SPAWN_WAIT_DURATION.asTicks()) {
                         Messaging.debug("Couldn't spawn ", CitizensNPC.this, "waited", timer,
                                 "ticks but entity not added to world");
+                        unindexEntity();
                         entityController.remove();
                         cancel.run();
                         Bukkit.getPluginManager().callEvent(new NPCNeedsRespawnEvent(CitizensNPC.this, to));
@@ -368,6 +392,7 @@ public class CitizensNPC extends AbstractNPC {
                 if (spawnEvent.isCancelled()) {
                     Messaging.debug("Couldn't spawn", CitizensNPC.this, "SpawnReason." + reason,
                             "due to event cancellation.");
+                    unindexEntity();
                     entityController.remove();
                     cancel.run();
                     return;
@@ -470,101 +495,43 @@ public class CitizensNPC extends AbstractNPC {
         return getId() + "{" + getRawName() + ", " + mobType + "}";
     }
 
+    private void unindexEntity() {
+        if (getEntity() != null) {
+            NPCEntityIndex.remove(getEntity().getEntityId(), this);
+        }
+    }
+
     @Override
     public void update() {
+        if (getEntity() != null) {
+            updateWorldIndex(getEntity().getWorld());
+            if (getEntity() instanceof SkinnableEntity) {
+                updateSkinIndex();
+            }
+        }
+        long start = System.nanoTime();
         try {
-            super.update();
+            // traits and goals run every tick, only the entity and navigation work is throttled by the scheduler
+            if (TickProfiler.isRunning()) {
+                updateProfiled();
+            } else {
+                super.update();
+            }
             if (!isSpawned()) {
                 resetCachedCoord();
-                return;
-            }
-
-            if (data().has(NPC.Metadata.ACTIVATION_RANGE)) {
-                int range = data().get(NPC.Metadata.ACTIVATION_RANGE);
-                if (range == -1 || CitizensAPI.getLocationLookup().getNearbyPlayers(getStoredLocation(), range)
-                        .iterator().hasNext()) {
-                    NMS.activate(getEntity());
-                }
-            }
-
-            boolean shouldSwim = data().get(NPC.Metadata.SWIMMING, SwimmingExaminer.isWaterMob(getEntity()))
-                    && MinecraftBlockExaminer.isLiquid(getEntity().getLocation().getBlock().getType());
-            if (navigator.isNavigating()) {
-                if (shouldSwim) {
-                    getEntity().setVelocity(getEntity().getVelocity().multiply(
-                            data().get(NPC.Metadata.WATER_SPEED_MODIFIER, Setting.NPC_WATER_SPEED_MODIFIER.asFloat())));
-                    Location currentDest = navigator.getPathStrategy().getCurrentDestination();
-                    if (currentDest == null || currentDest.getY() > getStoredLocation().getY()) {
-                        NMS.trySwim(getEntity());
-                    }
-                }
-            } else if (shouldSwim) {
-                Gravity trait = getTraitNullable(Gravity.class);
-                if (trait == null || trait.hasGravity()) {
-                    NMS.trySwim(getEntity());
-                }
-            }
-
-            if (SUPPORT_GLOWING && data().has(NPC.Metadata.GLOWING)) {
-                try {
-                    getEntity().setGlowing(data().get(NPC.Metadata.GLOWING, false));
-                } catch (NoSuchMethodError e) {
-                    SUPPORT_GLOWING = false;
-                }
-            }
-
-            if (SUPPORT_SILENT && data().has(NPC.Metadata.SILENT)) {
-                try {
-                    getEntity().setSilent(Boolean.parseBoolean(data().get(NPC.Metadata.SILENT).toString()));
-                } catch (NoSuchMethodError e) {
-                    SUPPORT_SILENT = false;
-                }
+            } else if (scheduledUpdate.shouldUpdate()) {
+                long entityStart = System.nanoTime();
+                updateEntity();
+                scheduledUpdate.finish(System.nanoTime() - entityStart);
             }
-
-            boolean isLiving = getEntity() instanceof LivingEntity;
-            if (isUpdating(NPCUpdate.PACKET)) {
-                if (data().get(NPC.Metadata.KEEP_CHUNK_LOADED, Setting.KEEP_CHUNKS_LOADED.asBoolean())) {
-                    ChunkCoord currentCoord = new ChunkCoord(getStoredLocation());
-                    if (!currentCoord.equals(cachedCoord)) {
-                        resetCachedCoord();
-                        currentCoord.setForceLoaded(true);
-                        CHUNK_LOADERS.put(currentCoord, this);
-                        cachedCoord = currentCoord;
-                    }
-                }
-                if (isLiving) {
-                    updateScoreboard();
-                }
-                updateCounter = 0;
-            }
-            updateCustomNameVisibility();
-
-            if (isLiving) {
-                NMS.setKnockbackResistance((LivingEntity) getEntity(), isProtected() ? 1D : 0D);
-                if (SUPPORT_PICKUP_ITEMS) {
-                    try {
-                        ((LivingEntity) getEntity()).setCanPickupItems(data().get(NPC.Metadata.PICKUP_ITEMS, false));
-                    } catch (Throwable t) {
-                        SUPPORT_PICKUP_ITEMS = false;
-                    }
-                }
-
-                if (getEntity() instanceof Player) {
-                    updateUsingItemState((Player) getEntity());
-                    if (data().has(NPC.Metadata.SNEAKING) && !hasTrait(SneakTrait.class)) {
-                        addTrait(SneakTrait.class);
-                    }
-                }
-            }
-
-            navigator.run();
-
-            updateCounter++;
         } catch (Exception ex) {
             Throwable error = Throwables.getRootCause(ex);
             Messaging.logTr(Messages.EXCEPTION_UPDATING_NPC, getId(), error.getMessage());
             error.printStackTrace();
         }
+        if (TickProfiler.isRunning()) {
+            TickProfiler.recordNPC(this, System.nanoTime() - start);
+        }
     }
 
     @Override
@@ -587,6 +554,117 @@ public class CitizensNPC extends AbstractNPC {
         getEntity().setCustomNameVisible(Boolean.parseBoolean(nameplateVisible));
     }
 
+    private void updateEntity() {
+        if (data().has(NPC.Metadata.ACTIVATION_RANGE)) {
+            int range = data().get(NPC.Metadata.ACTIVATION_RANGE);
+            if (range == -1 || CitizensAPI.getLocationLookup().getNearbyPlayers(getStoredLocation(), range)
+                    .iterator().hasNext()) {
+                NMS.activate(getEntity());
+            }
+        }
+
+        boolean shouldSwim = data().get(NPC.Metadata.SWIMMING, SwimmingExaminer.isWaterMob(getEntity()))
+                && MinecraftBlockExaminer.isLiquid(getEntity().getLocation().getBlock().getType());
+        if (navigator.isNavigating()) {
+            if (shouldSwim) {
+                getEntity().setVelocity(getEntity().getVelocity().multiply(
+                        data().get(NPC.Metadata.WATER_SPEED_MODIFIER, Setting.NPC_WATER_SPEED_MODIFIER.asFloat())));
+                Location currentDest = navigator.getPathStrategy().getCurrentDestination();
+                if (currentDest == null || currentDest.getY() > getStoredLocation().getY()) {
+                    NMS.trySwim(getEntity());
+                }
+            }
+        } else if (shouldSwim) {
+            Gravity trait = getTraitNullable(Gravity.class);
+            if (trait == null || trait.hasGravity()) {
+                NMS.trySwim(getEntity());
+            }
+        }
+
+        boolean isLiving = getEntity() instanceof LivingEntity;
+        if (isUpdating(NPCUpdate.PACKET)) {
+            // periodically re-apply metadata in case the entity was changed externally
+            metadataTracker.reset();
+            if (data().get(NPC.Metadata.KEEP_CHUNK_LOADED, Setting.KEEP_CHUNKS_LOADED.asBoolean())) {
+                ChunkCoord currentCoord = new ChunkCoord(getStoredLocation());
+                if (!currentCoord.equals(cachedCoord)) {
+                    resetCachedCoord();
+                    currentCoord.setForceLoaded(true);
+                    CHUNK_LOADERS.put(currentCoord, this);
+                    cachedCoord = currentCoord;
+                }
+            }
+            if (isLiving) {
+                updateScoreboard();
+            }
+            updateCounter = 0;
+        }
+        updateCustomNameVisibility();
+        updateEntityMetadata(isLiving);
+
+        if (isLiving) {
+            if (getEntity() instanceof Player) {
+                updateUsingItemState((Player) getEntity());
+                if (data().has(NPC.Metadata.SNEAKING) && !hasTrait(SneakTrait.class)) {
+                    addTrait(SneakTrait.class);
+                }
+            }
+        }
+
+        if (TickProfiler.isRunning()) {
+            long start = System.nanoTime();
+            navigator.run();
+            TickProfiler.recordTask("Navigator", System.nanoTime() - start);
+        } else {
+            navigator.run();
+        }
+
+        updateCounter++;
+    }
+
+    private void updateEntityMetadata(boolean isLiving) {
+        if (SUPPORT_GLOWING && data().has(NPC.Metadata.GLOWING)) {
+            boolean glowing = data().get(NPC.Metadata.GLOWING, false);
+            if (metadataTracker.changed(EntityMetadataTracker.Key.GLOWING, glowing)) {
+                try {
+                    getEntity().setGlowing(glowing);
+                } catch (NoSuchMethodError e) {
+                    SUPPORT_GLOWING = false;
+                }
+            }
+        }
+
+        if (SUPPORT_SILENT && data().has(NPC.Metadata.SILENT)) {
+            boolean silent = Boolean.parseBoolean(data().get(NPC.Metadata.SILENT).toString());
+            if (metadataTracker.changed(EntityMetadataTracker.Key.SILENT, silent)) {
+                try {
+                    getEntity().setSilent(silent);
+                } catch (NoSuchMethodError e) {
+                    SUPPORT_SILENT = false;
+                }
+            }
+        }
+
+        if (!isLiving)
+            return;
+
+        double knockbackResistance = isProtected() ? 1D : 0D;
+        if (metadataTracker.changed(EntityMetadataTracker.Key.KNOCKBACK_RESISTANCE, knockbackResistance)) {
+            NMS.setKnockbackResistance((LivingEntity) getEntity(), knockbackResistance);
+        }
+
+        if (SUPPORT_PICKUP_ITEMS) {
+            boolean pickupItems = data().get(NPC.Metadata.PICKUP_ITEMS, false);
+            if (metadataTracker.changed(EntityMetadataTracker.Key.PICKUP_ITEMS, pickupItems)) {
+                try {
+                    ((LivingEntity) getEntity()).setCanPickupItems(pickupItems);
+                } catch (Throwable t) {
+                    SUPPORT_PICKUP_ITEMS = false;
+                }
+            }
+        }
+    }
+
     private void updateFlyableState() {
         EntityType type = isSpawned() ? getEntity().getType() : getOrAddTrait(MobType.class).getType();
         if (type == null)
@@ -601,12 +679,42 @@ public class CitizensNPC extends AbstractNPC {
         }
     }
 
+    /**
+     * Mirrors {@link AbstractNPC#update()} while timing each runnable so that per-trait costs can be reported. The
+     * runnables list is only read, so traits added or removed during the update behave as they do unprofiled.
+     */
+    private void updateProfiled() {
+        for (int i = 0; i < runnables.size(); i++) {
+            Runnable runnable = runnables.get(i);
+            long start = System.nanoTime();
+            runnable.run();
+            TickProfiler.recordTrait(runnable.getClass(), System.nanoTime() - start);
+        }
+        if (isSpawned()) {
+            long start = System.nanoTime();
+            getDefaultGoalController().run();
+            TickProfiler.recordTask("GoalController", System.nanoTime() - start);
+        }
+    }
+
     private void updateScoreboard() {
         if (data().has(NPC.Metadata.SCOREBOARD_FAKE_TEAM_NAME)) {
             getOrAddTrait(ScoreboardTrait.class).update();
         }
     }
 
+    private void updateSkinIndex() {
+        // the skin tracker only learns about teleports and spawns from events, so report other movement here
+        long cell = SkinUpdateTracker.getIndexCell(getEntity().getLocation(CACHE_LOCATION));
+        if (cell == skinIndexCell)
+            return;
+        skinIndexCell = cell;
+        if (CitizensAPI.getPlugin() instanceof Citizens
+                && ((Citizens) CitizensAPI.getPlugin()).getSkinUpdateTracker() != null) {
+            ((Citizens) CitizensAPI.getPlugin()).getSkinUpdateTracker().onNPCCellChange(this);
+        }
+    }
+
     private void updateUsingItemState(Player player) {
         boolean useItem = data().get(NPC.Metadata.USING_HELD_ITEM, false),
                 offhand = data().get(NPC.Metadata.USING_OFFHAND_ITEM, false);
@@ -625,6 +733,17 @@ public class CitizensNPC extends AbstractNPC {
         }
     }
 
+    private void updateWorldIndex(World world) {
+        UUID uuid = world == null ? null : world.getUID();
+        if (Objects.equals(uuid, indexedWorld))
+            return;
+        indexedWorld = uuid;
+        if (getOwningRegistry() instanceof CitizensNPCRegistry) {
+            ((CitizensNPCRegistry) getOwningRegistry()).updateWorld(this, uuid);
+        }
+    }
+
+    private static final Location CACHE_LOCATION = new Location(null, 0, 0, 0);
     private static final SetMultimap<ChunkCoord, NPC> CHUNK_LOADERS = HashMultimap.create();
     private static boolean SUPPORT_GLOWING = true;
     private static boolean SUPPORT_NODAMAGE_TICKS = true;
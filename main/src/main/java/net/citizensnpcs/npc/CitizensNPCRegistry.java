@@ -5,6 +5,8 @@ import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 import java.util.UUID;
 
 import org.bukkit.Bukkit;
@@ -16,8 +18,12 @@ import org.bukkit.inventory.ItemStack;
 
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 
+import gnu.trove.iterator.TIntIterator;
 import gnu.trove.map.hash.TIntObjectHashMap;
+import gnu.trove.set.TIntSet;
+import gnu.trove.set.hash.TIntHashSet;
 import net.citizensnpcs.Settings.Setting;
 import net.citizensnpcs.api.CitizensAPI;
 import net.citizensnpcs.api.event.DespawnReason;
@@ -27,6 +33,7 @@ import net.citizensnpcs.api.npc.NPC;
 import net.citizensnpcs.api.npc.NPCDataStore;
 import net.citizensnpcs.api.npc.NPCRegistry;
 import net.citizensnpcs.api.trait.Trait;
+import net.citizensnpcs.api.trait.trait.Owner;
 import net.citizensnpcs.api.util.RemoveReason;
 import net.citizensnpcs.npc.ai.NPCHolder;
 import net.citizensnpcs.trait.ArmorStandTrait;
@@ -37,8 +44,12 @@ import net.citizensnpcs.util.NMS;
 public class CitizensNPCRegistry implements NPCRegistry {
     private final String name;
     private final TIntObjectHashMap<NPC> npcs = new TIntObjectHashMap<NPC>();
+    private final Map<UUID, TIntSet> ownedNPCs = Maps.newHashMap();
+    private final TIntObjectHashMap<UUID> owners = new TIntObjectHashMap<UUID>();
     private final NPCDataStore saves;
     private final Map<UUID, NPC> uniqueNPCs = Maps.newHashMap();
+    private final Map<UUID, Set<NPC>> worldNPCs = Maps.newHashMap();
+    private final TIntObjectHashMap<UUID> worlds = new TIntObjectHashMap<UUID>();
 
     public CitizensNPCRegistry(NPCDataStore store) {
         this(store, "");
@@ -106,6 +117,8 @@ public class CitizensNPCRegistry implements NPCRegistry {
         npc.despawn(DespawnReason.REMOVAL);
         npcs.remove(npc.getId());
         uniqueNPCs.remove(npc.getUniqueId());
+        removeOwner(npc.getId());
+        removeWorld(npc);
         if (saves != null) {
             saves.clearData(npc);
         }
@@ -192,6 +205,28 @@ public class CitizensNPCRegistry implements NPCRegistry {
         return name;
     }
 
+    /**
+     * Returns the NPCs whose {@link Owner} trait is set to the given player, sorted by ID. Uses the owner index rather
+     * than scanning the registry. The index is refreshed when an NPC is loaded or saved and when its {@link Owner}
+     * trait is added or removed; {@link Owner#setOwner} has no change hook, so callers that set the owner should call
+     * {@link #updateOwnerIndex(NPC)} afterwards.
+     */
+    public List<NPC> getOwnedBy(UUID owner) {
+        TIntSet ids = ownedNPCs.get(owner);
+        if (ids == null)
+            return Collections.emptyList();
+        List<NPC> result = new ArrayList<NPC>(ids.size());
+        for (TIntIterator itr = ids.iterator(); itr.hasNext();) {
+            NPC npc = npcs.get(itr.next());
+            Owner trait = npc == null ? null : npc.getTraitNullable(Owner.class);
+            if (trait != null && owner.equals(trait.getOwnerId())) {
+                result.add(npc);
+            }
+        }
+        Collections.sort(result, (a, b) -> Integer.compare(a.getId(), b.getId()));
+        return result;
+    }
+
     @Override
     public NPC getNPC(Entity entity) {
         if (entity == null)
@@ -201,6 +236,14 @@ public class CitizensNPCRegistry implements NPCRegistry {
         return NMS.getNPC(entity);
     }
 
+    /**
+     * Returns the NPCs that are spawned in the given world or, if despawned, were last stored there.
+     */
+    public List<NPC> getNPCsInWorld(UUID world) {
+        Set<NPC> npcs = worldNPCs.get(world);
+        return npcs == null ? Collections.emptyList() : new ArrayList<NPC>(npcs);
+    }
+
     @Override
     public boolean isNPC(Entity entity) {
         return getNPC(entity) != null;
@@ -210,6 +253,8 @@ public class CitizensNPCRegistry implements NPCRegistry {
     public Iterator<NPC> iterator() {
         return new Iterator<NPC>() {
             Iterator<NPC> itr = npcs.valueCollection().iterator();
+            int lastId = -1;
+            NPC last;
             UUID lastUUID;
 
             @Override
@@ -223,6 +268,8 @@ public class CitizensNPCRegistry implements NPCRegistry {
                 if (npc != null && npc.getUniqueId() != null) {
                     lastUUID = npc.getUniqueId();
                 }
+                lastId = npc == null ? -1 : npc.getId();
+                last = npc;
                 return npc;
             }
 
@@ -233,10 +280,36 @@ public class CitizensNPCRegistry implements NPCRegistry {
                     uniqueNPCs.remove(lastUUID);
                     lastUUID = null;
                 }
+                if (lastId != -1) {
+                    removeOwner(lastId);
+                    removeWorld(last);
+                    lastId = -1;
+                    last = null;
+                }
             }
         };
     }
 
+    private void removeOwner(int id) {
+        UUID previous = owners.remove(id);
+        if (previous == null)
+            return;
+        TIntSet ids = ownedNPCs.get(previous);
+        if (ids != null && ids.remove(id) && ids.isEmpty()) {
+            ownedNPCs.remove(previous);
+        }
+    }
+
+    private void removeWorld(NPC npc) {
+        UUID previous = worlds.remove(npc.getId());
+        if (previous == null)
+            return;
+        Set<NPC> npcs = worldNPCs.get(previous);
+        if (npcs != null && npcs.remove(npc) && npcs.isEmpty()) {
+            worldNPCs.remove(previous);
+        }
+    }
+
     @Override
     public void saveToStore() {
         saves.storeAll(this);
@@ -249,4 +322,45 @@ public class CitizensNPCRegistry implements NPCRegistry {
         Collections.sort(vals, (a, b) -> Integer.compare(a.getId(), b.getId()));
         return vals;
     }
+
+    private void updateOwner(NPC npc) {
+        if (npcs.get(npc.getId()) != npc)
+            return;
+        Owner trait = npc.getTraitNullable(Owner.class);
+        UUID owner = trait == null ? null : trait.getOwnerId();
+        if (Objects.equals(owner, owners.get(npc.getId())))
+            return;
+        removeOwner(npc.getId());
+        if (owner == null)
+            return;
+        owners.put(npc.getId(), owner);
+        TIntSet ids = ownedNPCs.get(owner);
+        if (ids == null) {
+            ownedNPCs.put(owner, ids = new TIntHashSet());
+        }
+        ids.add(npc.getId());
+    }
+
+    void updateWorld(NPC npc, UUID world) {
+        if (npcs.get(npc.getId()) != npc || Objects.equals(world, worlds.get(npc.getId())))
+            return;
+        removeWorld(npc);
+        if (world == null)
+            return;
+        worlds.put(npc.getId(), world);
+        Set<NPC> npcs = worldNPCs.get(world);
+        if (npcs == null) {
+            worldNPCs.put(world, npcs = Sets.newLinkedHashSet());
+        }
+        npcs.add(npc);
+    }
+
+    /**
+     * Refreshes the owner index entry for the NPC. Call after changing its {@link Owner}.
+     */
+    public static void updateOwnerIndex(NPC npc) {
+        if (npc.getOwningRegistry() instanceof CitizensNPCRegistry) {
+            ((CitizensNPCRegistry) npc.getOwningRegistry()).updateOwner(npc);
+        }
+    }
 }
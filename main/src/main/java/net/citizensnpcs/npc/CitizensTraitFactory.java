@@ -76,7 +76,8 @@ public class CitizensTraitFactory implements TraitFactory {
         registerTrait(TraitInfo.create(Anchors.class));
         registerTrait(TraitInfo.create(BoundingBoxTrait.class));
         registerTrait(TraitInfo.create(ClickRedirectTrait.class));
-        registerTrait(TraitInfo.create(CommandTrait.class).optInToStats());
+        registerTrait(TraitInfo.create(CommandTrait.class)
+                .withSupplier(() -> new CommandTrait(plugin.getCommandCooldowns())).optInToStats());
         registerTrait(TraitInfo.create(Controllable.class).optInToStats());
         registerTrait(TraitInfo.create(CurrentLocation.class));
         registerTrait(TraitInfo.create(DropsTrait.class).optInToStats());
@@ -0,0 +1,39 @@
+package net.citizensnpcs.npc;
+
+import java.util.Objects;
+
+/**
+ * Remembers the metadata values last pushed to an NPC entity so that unchanged values are not re-applied every tick.
+ * Keeps a bitset of the keys that have been applied to the current entity.
+ */
+class EntityMetadataTracker {
+    private int applied;
+    private final Object[] values = new Object[Key.values().length];
+
+    /**
+     * Records the new value for the given key and returns whether it differs from the value last applied to the
+     * entity.
+     */
+    boolean changed(Key key, Object value) {
+        int bit = 1 << key.ordinal();
+        if ((applied & bit) != 0 && Objects.equals(values[key.ordinal()], value))
+            return false;
+        applied |= bit;
+        values[key.ordinal()] = value;
+        return true;
+    }
+
+    /**
+     * Forces every key to be re-applied, e.g. after the entity was recreated.
+     */
+    void reset() {
+        applied = 0;
+    }
+
+    enum Key {
+        GLOWING,
+        KNOCKBACK_RESISTANCE,
+        PICKUP_ITEMS,
+        SILENT;
+    }
+}
@@ -0,0 +1,102 @@
+package net.citizensnpcs.npc;
+
+import java.util.concurrent.locks.StampedLock;
+
+import gnu.trove.map.hash.TIntObjectHashMap;
+import net.citizensnpcs.api.npc.NPC;
+import net.citizensnpcs.trait.RotationTrait;
+
+/**
+ * Maps the entity IDs of spawned NPCs to their {@link NPC}. Updated on the main thread as entities are created and
+ * removed, and safe to read from netty threads so that packet listeners can reject packets for vanilla entities with a
+ * single lookup. The {@link RotationTrait} of each NPC is indexed as well, since the trait map of an NPC must not be
+ * read off the main thread.
+ */
+public class NPCEntityIndex {
+    public static void clear() {
+        long stamp = LOCK.writeLock();
+        try {
+            NPCS.clear();
+            ROTATION_TRAITS.clear();
+        } finally {
+            LOCK.unlockWrite(stamp);
+        }
+    }
+
+    public static NPC get(int entityId) {
+        long stamp = LOCK.readLock();
+        try {
+            return NPCS.get(entityId);
+        } finally {
+            LOCK.unlockRead(stamp);
+        }
+    }
+
+    public static RotationTrait getRotationTrait(int entityId) {
+        long stamp = LOCK.readLock();
+        try {
+            return ROTATION_TRAITS.get(entityId);
+        } finally {
+            LOCK.unlockRead(stamp);
+        }
+    }
+
+    static void put(int entityId, NPC npc) {
+        RotationTrait trait = npc.getTraitNullable(RotationTrait.class);
+        long stamp = LOCK.writeLock();
+        try {
+            NPCS.put(entityId, npc);
+            if (trait != null) {
+                ROTATION_TRAITS.put(entityId, trait);
+            } else {
+                ROTATION_TRAITS.remove(entityId);
+            }
+        } finally {
+            LOCK.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Removes the entity ID only if it still maps to the given NPC.
+     */
+    static void remove(int entityId, NPC npc) {
+        long stamp = LOCK.writeLock();
+        try {
+            if (NPCS.get(entityId) == npc) {
+                NPCS.remove(entityId);
+                ROTATION_TRAITS.remove(entityId);
+            }
+        } finally {
+            LOCK.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Sets the rotation trait of a spawned NPC after the trait was added or removed. Must be called from the main
+     * thread.
+     *
+     * @param trait
+     *            the trait, or null if it was removed
+     */
+    public static void setRotationTrait(NPC npc, RotationTrait trait) {
+        if (!npc.isSpawned())
+            return;
+        int entityId = npc.getEntity().getEntityId();
+        long stamp = LOCK.writeLock();
+        try {
+            if (NPCS.get(entityId) != npc)
+                return;
+            if (trait != null) {
+                ROTATION_TRAITS.put(entityId, trait);
+            } else {
+                ROTATION_TRAITS.remove(entityId);
+            }
+        } finally {
+            LOCK.unlockWrite(stamp);
+        }
+    }
+
+    private static final StampedLock LOCK = new StampedLock();
+    private static final TIntObjectHashMap<NPC> NPCS = new TIntObjectHashMap<>();
+    private static final TIntObjectHashMap<RotationTrait> ROTATION_TRAITS = new TIntObjectHashMap<>();
+}
@@ -0,0 +1,178 @@
+package net.citizensnpcs.npc;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+import org.bukkit.Location;
+import org.bukkit.entity.Player;
+import org.bukkit.scheduler.BukkitRunnable;
+
+import net.citizensnpcs.Settings.Setting;
+import net.citizensnpcs.api.CitizensAPI;
+import net.citizensnpcs.api.LocationLookup;
+
+/**
+ * Decides how often the entity and navigation part of {@link CitizensNPC#update()} runs based on the distance to the
+ * nearest player. NPCs close to players (or navigating) are updated every tick while distant NPCs are updated every few
+ * ticks, subject to a per-tick time budget. Traits and goals are not throttled and run every tick.
+ */
+public class NPCUpdateScheduler extends BukkitRunnable {
+    @Override
+    public void cancel() {
+        super.cancel();
+        reset();
+    }
+
+    @Override
+    public void run() {
+        CURRENT_TICK++;
+        BUDGET_USED = 0;
+    }
+
+    public static class ScheduledUpdate {
+        private long deferred;
+        private int lastUpdate = Integer.MIN_VALUE;
+        private int nextTierCheck;
+        private final CitizensNPC npc;
+        private UpdateTier tier = UpdateTier.NEAR;
+
+        ScheduledUpdate(CitizensNPC npc) {
+            this.npc = npc;
+            this.nextTierCheck = npc.getId() % TIER_CHECK_INTERVAL;
+        }
+
+        private UpdateTier computeTier() {
+            if (!npc.isSpawned())
+                return UpdateTier.NEAR;
+            LocationLookup lookup = CitizensAPI.getLocationLookup();
+            if (lookup == null)
+                return UpdateTier.NEAR;
+            Location loc = npc.getStoredLocation();
+            double near = Setting.NPC_UPDATE_NEAR_RANGE.asDouble();
+            double far = Math.max(near, Setting.NPC_UPDATE_FAR_RANGE.asDouble());
+            double nearSquared = near * near;
+            UpdateTier tier = UpdateTier.DORMANT;
+            // one query at the far range, classifying each player found by distance
+            for (Player player : lookup.getNearbyPlayers(loc, far)) {
+                if (player.getLocation(CACHE_LOCATION).distanceSquared(loc) <= nearSquared)
+                    return UpdateTier.NEAR;
+                tier = UpdateTier.FAR;
+            }
+            return tier;
+        }
+
+        void finish(long elapsedNanos) {
+            lastUpdate = CURRENT_TICK;
+            STATS.get(tier).record(elapsedNanos);
+            if (tier.interval() > 1) {
+                BUDGET_USED += elapsedNanos;
+            }
+        }
+
+        public long getDeferredCount() {
+            return deferred;
+        }
+
+        public UpdateTier getTier() {
+            return tier;
+        }
+
+        public int getTicksSinceLastUpdate() {
+            return lastUpdate == Integer.MIN_VALUE ? -1 : CURRENT_TICK - lastUpdate;
+        }
+
+        boolean shouldUpdate() {
+            if (!Setting.NPC_UPDATE_SCHEDULER.asBoolean()) {
+                tier = UpdateTier.NEAR;
+                return true;
+            }
+            if (npc.getNavigator().isNavigating()) {
+                tier = UpdateTier.ACTIVE;
+                return true;
+            }
+            if (tier == UpdateTier.ACTIVE || CURRENT_TICK >= nextTierCheck) {
+                tier = computeTier();
+                nextTierCheck = CURRENT_TICK + TIER_CHECK_INTERVAL;
+            }
+            int interval = tier.interval();
+            if (interval <= 1)
+                return true;
+            if (lastUpdate != Integer.MIN_VALUE && CURRENT_TICK - lastUpdate < interval)
+                return false;
+            // stay due so that the update is retried next tick
+            if (BUDGET_USED >= Setting.NPC_UPDATE_TICK_BUDGET.asDouble() * 1000000) {
+                deferred++;
+                return false;
+            }
+            return true;
+        }
+    }
+
+    public static class TierStats {
+        private long nanos;
+        private long updates;
+
+        public long getAverageNanos() {
+            return updates == 0 ? 0 : nanos / updates;
+        }
+
+        public long getUpdates() {
+            return updates;
+        }
+
+        private void record(long elapsed) {
+            nanos += elapsed;
+            updates++;
+        }
+    }
+
+    public enum UpdateTier {
+        ACTIVE,
+        DORMANT,
+        FAR,
+        NEAR;
+
+        public int interval() {
+            switch (this) {
+                case FAR:
+                    return Math.max(1, Setting.NPC_UPDATE_FAR_INTERVAL.asTicks());
+                case DORMANT:
+                    return Math.max(1, Setting.NPC_UPDATE_DORMANT_INTERVAL.asTicks());
+                default:
+                    return 1;
+            }
+        }
+    }
+
+    public static int getCurrentTick() {
+        return CURRENT_TICK;
+    }
+
+    public static Map<UpdateTier, TierStats> getStats() {
+        return STATS;
+    }
+
+    /**
+     * Resets the tick counter. Called on disable, since cancelling the plugin's tasks does not call
+     * {@link #cancel()}.
+     */
+    public static void reset() {
+        CURRENT_TICK = 0;
+        BUDGET_USED = 0;
+    }
+
+    public static void resetStats() {
+        for (UpdateTier tier : UpdateTier.values()) {
+            STATS.put(tier, new TierStats());
+        }
+    }
+
+    private static long BUDGET_USED;
+    private static final Location CACHE_LOCATION = new Location(null, 0, 0, 0);
+    private static int CURRENT_TICK;
+    private static final Map<UpdateTier, TierStats> STATS = new EnumMap<>(UpdateTier.class);
+    private static final int TIER_CHECK_INTERVAL = 20;
+    static {
+        resetStats();
+    }
+}
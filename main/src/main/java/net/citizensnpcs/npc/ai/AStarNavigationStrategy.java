@@ -32,8 +32,11 @@ public class AStarNavigationStrategy extends AbstractPathStrategy {
     private final Location destination;
     private final NPC npc;
     private final NavigatorParameters params;
+    private PathCache.Profile pathProfile;
+    private Location pathStart;
     private Path plan;
     private AStarPlanner planner;
+    private AsyncPathfinder.Search search;
     private Vector vector;
 
     public AStarNavigationStrategy(NPC npc, Iterable<Vector> path, NavigatorParameters params) {
@@ -67,8 +70,27 @@ public class AStarNavigationStrategy extends AbstractPathStrategy {
         return destination;
     }
 
+    /**
+     * Installs a shared cached path from the current location if there is one. Only checked once per strategy.
+     */
+    private boolean loadCachedPath() {
+        if (pathStart != null)
+            return false;
+        pathStart = npc.getEntity().getLocation();
+        pathProfile = PathCache.profile(npc, params);
+        List<Vector> cached = PathCache.get(pathStart, destination, pathProfile);
+        if (cached == null)
+            return false;
+        plan = new Path(cached);
+        return true;
+    }
+
     @Override
     public void stop() {
+        if (search != null) {
+            search.cancel();
+            search = null;
+        }
         if (plan != null && params.debug()) {
             Util.sendBlockChanges(plan.getBlocks(npc.getEntity().getWorld()), null);
         }
@@ -77,18 +99,25 @@ public class AStarNavigationStrategy extends AbstractPathStrategy {
 
     @Override
     public boolean update() {
-        if (plan == null) {
-            if (planner == null) {
-                planner = new AStarPlanner(params, npc.getEntity().getLocation(), destination);
-            }
-            CancelReason reason = planner.tick(Setting.ASTAR_ITERATIONS_PER_TICK.asInt(),
-                    Setting.MAXIMUM_ASTAR_ITERATIONS.asInt());
-            if (reason != null) {
-                setCancelReason(reason);
-            }
-            plan = planner.plan;
-            if (plan != null) {
-                planner = null;
+        if (plan == null && (search != null || planner != null || !loadCachedPath())) {
+            if (search != null
+                    || (Setting.ASYNC_PATHFINDER.asBoolean() && SnapshotBlockSource.canExamine(params))) {
+                if (!updateAsync())
+                    return false;
+            } else {
+                if (planner == null) {
+                    planner = new AStarPlanner(params, npc.getEntity().getLocation(), destination);
+                }
+                CancelReason reason = planner.tick(Setting.ASTAR_ITERATIONS_PER_TICK.asInt(),
+                        Setting.MAXIMUM_ASTAR_ITERATIONS.asInt());
+                if (reason != null) {
+                    setCancelReason(reason);
+                }
+                plan = planner.plan;
+                if (plan != null) {
+                    planner = null;
+                    PathCache.put(pathStart, destination, pathProfile, plan.getPath());
+                }
             }
         }
         if (getCancelReason() != null || plan == null || plan.isComplete()) {
@@ -142,6 +171,36 @@ public class AStarNavigationStrategy extends AbstractPathStrategy {
         return false;
     }
 
+    /**
+     * Submits or polls a background search, installing its plan once finished.
+     *
+     * @return whether the search has finished
+     */
+    private boolean updateAsync() {
+        SnapshotBlockSource.resolveShapes(SHAPES_PER_TICK);
+        if (search == null) {
+            Location from = npc.getEntity().getLocation();
+            search = AsyncPathfinder
+                    .submit(new AStarPlanner(params, from, destination, new SnapshotBlockSource(from, params.range())));
+            return false;
+        }
+        if (!search.isDone())
+            return false;
+        if (search.getCancelReason() != null) {
+            setCancelReason(search.getCancelReason());
+        }
+        plan = search.getPlan();
+        search = null;
+        if (plan != null) {
+            PathCache.put(pathStart, destination, pathProfile, plan.getPath());
+        }
+        if (plan != null && params.debug()) {
+            Util.sendBlockChanges(plan.getBlocks(destination.getWorld()),
+                    Util.getFallbackMaterial("DANDELION", "YELLOW_FLOWER"));
+        }
+        return true;
+    }
+
     public static class AStarPlanner {
         Location from;
         int iterations;
@@ -151,6 +210,10 @@ public class AStarNavigationStrategy extends AbstractPathStrategy {
         Location to;
 
         public AStarPlanner(NavigatorParameters params, Location from, Location to) {
+            this(params, from, to, new NMSChunkBlockSource(from, params.range()));
+        }
+
+        public AStarPlanner(NavigatorParameters params, Location from, Location to, BlockSource source) {
             this.params = params;
             this.from = from;
             this.to = to;
@@ -159,10 +222,13 @@ public class AStarNavigationStrategy extends AbstractPathStrategy {
                 public float getCost(BlockSource source, PathPoint point) {
                     Vector pos = point.getVector();
                     Material above = source.getMaterialAt(pos.getBlockX(), pos.getBlockY() + 1, pos.getBlockZ());
-                    return params.avoidWater() && (MinecraftBlockExaminer.isLiquid(above)
-                            || MinecraftBlockExaminer.isLiquidOrInLiquid(pos.toLocation(source.getWorld()).getBlock()))
-                                    ? 2F
-                                    : 0F;
+                    if (!params.avoidWater())
+                        return 0F;
+                    boolean inLiquid = source instanceof SnapshotBlockSource
+                            ? ((SnapshotBlockSource) source).isLiquidOrInLiquid(pos.getBlockX(), pos.getBlockY(),
+                                    pos.getBlockZ())
+                            : MinecraftBlockExaminer.isLiquidOrInLiquid(pos.toLocation(source.getWorld()).getBlock());
+                    return MinecraftBlockExaminer.isLiquid(above) || inLiquid ? 2F : 0F;
                 }
 
                 @Override
@@ -171,11 +237,14 @@ public class AStarNavigationStrategy extends AbstractPathStrategy {
                 }
             });
             VectorGoal goal = new VectorGoal(to, (float) params.pathDistanceMargin());
-            state = ASTAR.getStateFor(goal,
-                    new VectorNode(goal, from, new NMSChunkBlockSource(from, params.range()), params.examiners()));
+            state = ASTAR.getStateFor(goal, new VectorNode(goal, from, source, params.examiners()));
         }
 
-        public CancelReason tick(int iterationsPerTick, int maxIterations) {
+        /**
+         * Advances the search without touching the world, so that it may be run off the main thread when the planner
+         * uses a {@link SnapshotBlockSource}.
+         */
+        CancelReason search(int iterationsPerTick, int maxIterations) {
             if (this.plan != null)
                 return null;
             Path plan = ASTAR.run(state, iterationsPerTick);
@@ -191,14 +260,22 @@ public class AStarNavigationStrategy extends AbstractPathStrategy {
                 }
             } else {
                 this.plan = plan;
-                if (params.debug()) {
-                    Util.sendBlockChanges(plan.getBlocks(to.getWorld()),
-                            Util.getFallbackMaterial("DANDELION", "YELLOW_FLOWER"));
-                }
             }
             return null;
         }
+
+        public CancelReason tick(int iterationsPerTick, int maxIterations) {
+            if (this.plan != null)
+                return null;
+            CancelReason reason = search(iterationsPerTick, maxIterations);
+            if (plan != null && params.debug()) {
+                Util.sendBlockChanges(plan.getBlocks(to.getWorld()),
+                        Util.getFallbackMaterial("DANDELION", "YELLOW_FLOWER"));
+            }
+            return reason;
+        }
     }
 
     private static final AStarMachine<VectorNode, Path> ASTAR = AStarMachine.createWithDefaultStorage();
+    private static final int SHAPES_PER_TICK = 64;
 }
@@ -0,0 +1,95 @@
+package net.citizensnpcs.npc.ai;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import net.citizensnpcs.Settings.Setting;
+import net.citizensnpcs.api.ai.event.CancelReason;
+import net.citizensnpcs.api.astar.pathfinder.Path;
+import net.citizensnpcs.npc.ai.AStarNavigationStrategy.AStarPlanner;
+
+/**
+ * Runs {@link AStarPlanner} searches on a worker pool. Planners must be created on the main thread with a
+ * {@link SnapshotBlockSource} and only examiners accepted by {@link SnapshotBlockSource#canExamine}, so that searches
+ * never read live world state.
+ */
+public class AsyncPathfinder {
+    public static class Search implements Runnable {
+        private volatile boolean cancelled;
+        private volatile boolean done;
+        private final ExecutorService executor;
+        private final int iterationsPerSlice;
+        private final int maxIterations;
+        private final AStarPlanner planner;
+        private volatile CancelReason reason;
+
+        private Search(ExecutorService executor, AStarPlanner planner, int iterationsPerSlice, int maxIterations) {
+            this.executor = executor;
+            this.planner = planner;
+            this.iterationsPerSlice = iterationsPerSlice;
+            this.maxIterations = maxIterations;
+        }
+
+        public void cancel() {
+            cancelled = true;
+        }
+
+        public CancelReason getCancelReason() {
+            return reason;
+        }
+
+        public Path getPlan() {
+            return planner.plan;
+        }
+
+        public boolean isDone() {
+            return done;
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (!cancelled) {
+                    reason = planner.search(iterationsPerSlice, maxIterations);
+                    if (reason == null && planner.plan == null) {
+                        // requeue between slices so that a long search doesn't starve other queued searches
+                        executor.execute(this);
+                        return;
+                    }
+                }
+            } catch (Throwable t) {
+                if (!(t instanceof RejectedExecutionException)) {
+                    t.printStackTrace();
+                }
+                reason = CancelReason.STUCK;
+            }
+            done = true;
+        }
+    }
+
+    public static synchronized void shutdown() {
+        if (EXECUTOR != null) {
+            EXECUTOR.shutdownNow();
+            EXECUTOR = null;
+        }
+    }
+
+    /**
+     * Queues the planner's search. Must be called from the main thread.
+     */
+    public static synchronized Search submit(AStarPlanner planner) {
+        if (EXECUTOR == null) {
+            EXECUTOR = Executors.newFixedThreadPool(Math.max(1, Setting.ASYNC_PATHFINDER_THREADS.asInt()),
+                    new ThreadFactoryBuilder().setNameFormat("Citizens Pathfinder %d").setDaemon(true).build());
+        }
+        Search search = new Search(EXECUTOR, planner, Setting.ASTAR_ITERATIONS_PER_TICK.asInt(),
+                Setting.MAXIMUM_ASTAR_ITERATIONS.asInt());
+        EXECUTOR.execute(search);
+        return search;
+    }
+
+    private static ExecutorService EXECUTOR;
+}
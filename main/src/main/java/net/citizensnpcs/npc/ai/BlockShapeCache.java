@@ -0,0 +1,106 @@
+package net.citizensnpcs.npc.ai;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.Nullable;
+
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.block.data.BlockData;
+
+import com.google.common.collect.ImmutableSet;
+
+import net.citizensnpcs.api.util.BoundingBox;
+import net.citizensnpcs.util.NMS;
+
+/**
+ * Caches block collision boxes relative to the block position, keyed by block state and shared between all path
+ * searches. A few states have shapes that depend on the world, such as random per-position offsets or shapes that
+ * depend on the colliding entity. These are never cached and are computed from the block every time. The cache is
+ * cleared if it grows past a fixed number of states.
+ */
+public class BlockShapeCache {
+    private BlockShapeCache() {
+    }
+
+    /**
+     * Returns the cached collision box for the block state relative to its block position, or null if it has not been
+     * computed yet. Safe to call from any thread.
+     */
+    @Nullable
+    public static BoundingBox get(BlockData data) {
+        return SHAPES.get(data);
+    }
+
+    /**
+     * Returns the absolute collision box of the block, computing and caching its shape if needed. Must be called from
+     * the main thread.
+     */
+    public static BoundingBox getCollisionBox(Block block) {
+        if (!SUPPORTS_BLOCK_DATA)
+            return NMS.getCollisionBox(block);
+        BlockData data = block.getBlockData();
+        BoundingBox shape = SHAPES.get(data);
+        if (shape == null) {
+            BoundingBox box = NMS.getCollisionBox(block);
+            if (isWorldDependent(data.getMaterial()))
+                return isEmpty(box) ? BoundingBox.EMPTY : box;
+            shape = isEmpty(box) ? BoundingBox.EMPTY : box.add(-block.getX(), -block.getY(), -block.getZ());
+            if (SHAPES.size() >= MAX_SHAPES) {
+                SHAPES.clear();
+            }
+            SHAPES.put(data, shape);
+        }
+        return offset(shape, block.getX(), block.getY(), block.getZ());
+    }
+
+    /**
+     * Equivalent to {@link #getCollisionBox(Block)} but only creates a {@link Block} if the shape is not cached. Must
+     * be called from the main thread.
+     */
+    public static BoundingBox getCollisionBox(World world, int x, int y, int z) {
+        if (SUPPORTS_BLOCK_DATA) {
+            BoundingBox shape = SHAPES.get(world.getBlockData(x, y, z));
+            if (shape != null)
+                return offset(shape, x, y, z);
+        }
+        return getCollisionBox(world.getBlockAt(x, y, z));
+    }
+
+    private static boolean isEmpty(BoundingBox box) {
+        return box == null || box == BoundingBox.EMPTY || box.maxX <= box.minX || box.maxY <= box.minY
+                || box.maxZ <= box.minZ;
+    }
+
+    public static boolean isWorldDependent(Material material) {
+        String name = material.name();
+        return WORLD_DEPENDENT.contains(name) || name.endsWith("SHULKER_BOX");
+    }
+
+    private static BoundingBox offset(BoundingBox shape, int x, int y, int z) {
+        return shape == BoundingBox.EMPTY ? shape : shape.add(x, y, z);
+    }
+
+    /**
+     * @return whether block states are available (1.13+)
+     */
+    public static boolean supportsBlockData() {
+        return SUPPORTS_BLOCK_DATA;
+    }
+
+    private static final int MAX_SHAPES = 65536;
+    private static final Map<BlockData, BoundingBox> SHAPES = new ConcurrentHashMap<>();
+    private static boolean SUPPORTS_BLOCK_DATA = true;
+    private static final Set<String> WORLD_DEPENDENT = ImmutableSet.of("BAMBOO", "MOVING_PISTON", "POINTED_DRIPSTONE",
+            "POWDER_SNOW", "SCAFFOLDING");
+    static {
+        try {
+            Class.forName("org.bukkit.block.data.BlockData");
+        } catch (ClassNotFoundException e) {
+            SUPPORTS_BLOCK_DATA = false;
+        }
+    }
+}
@@ -0,0 +1,504 @@
+package net.citizensnpcs.npc.ai;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.UUID;
+
+import javax.annotation.Nullable;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.util.Vector;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import net.citizensnpcs.Settings.Setting;
+import net.citizensnpcs.api.astar.pathfinder.MinecraftBlockExaminer;
+import net.citizensnpcs.api.util.SpigotUtil;
+import net.citizensnpcs.npc.NPCUpdateScheduler;
+
+/**
+ * A coarse walking graph over 16x16x16 chunk sections. The standable cells of each section are grouped into regions
+ * that are connected by walking inside the section, and regions are linked to the regions of neighbouring sections
+ * through portals: border cells where an NPC can step from one section into the next. Long routes are planned over
+ * regions first and then refined between portals by the block-level pathfinder.
+ *
+ * Sections are computed lazily from loaded chunks and dropped when a block inside them changes. Computing and linking
+ * sections and expanding regions share a global budget per tick between all searches. Must only be used from the main
+ * thread.
+ */
+public class ChunkPortalGraph {
+    private ChunkPortalGraph() {
+    }
+
+    public static void clear() {
+        SECTIONS.clear();
+    }
+
+    public static void clear(World world) {
+        UUID uuid = world.getUID();
+        SECTIONS.keySet().removeIf(key -> key.world.equals(uuid));
+    }
+
+    @Nullable
+    private static Section computeSection(World world, int sx, int sy, int sz) {
+        if (!world.isChunkLoaded(sx, sz))
+            return null;
+        spendWork(SECTION_WORK);
+        Section section = new Section(world, sx, sy, sz);
+        boolean[] standable = new boolean[4096];
+        boolean[] passable = new boolean[18];
+        boolean[] solid = new boolean[18];
+        int minY = sy << 4;
+        int count = 0;
+        for (int x = 0; x < 16; x++) {
+            for (int z = 0; z < 16; z++) {
+                for (int i = 0; i < 18; i++) {
+                    int y = minY + i - 1;
+                    if (!SpigotUtil.checkYSafe(y, world)) {
+                        passable[i] = solid[i] = false;
+                        continue;
+                    }
+                    Block block = world.getBlockAt((sx << 4) + x, y, (sz << 4) + z);
+                    passable[i] = MinecraftBlockExaminer.canStandIn(block);
+                    solid[i] = MinecraftBlockExaminer.canStandOn(block);
+                }
+                for (int y = 0; y < 16; y++) {
+                    if (solid[y] && passable[y + 1] && passable[y + 2]) {
+                        standable[index(x, y, z)] = true;
+                        count++;
+                    }
+                }
+            }
+        }
+        if (count > 0) {
+            section.fill(standable);
+        }
+        return section;
+    }
+
+    /**
+     * Finds the standable cell at or just around the location.
+     */
+    @Nullable
+    private static Vector findCell(Location location) {
+        for (int dy : new int[] { 0, -1, 1 }) {
+            int x = location.getBlockX(), y = location.getBlockY() + dy, z = location.getBlockZ();
+            if (isStandable(location.getWorld(), x, y, z))
+                return new Vector(x, y, z);
+        }
+        return null;
+    }
+
+    @Nullable
+    private static Region getRegion(World world, Vector cell) {
+        int x = cell.getBlockX(), y = cell.getBlockY(), z = cell.getBlockZ();
+        Section section = getSection(world, x >> 4, y >> 4, z >> 4);
+        return section == null ? null : section.getRegionAt(x, y, z);
+    }
+
+    @Nullable
+    private static Section getSection(World world, int sx, int sy, int sz) {
+        SectionKey key = new SectionKey(world.getUID(), sx, sy, sz);
+        Section section = SECTIONS.get(key);
+        if (section == null) {
+            section = computeSection(world, sx, sy, sz);
+            if (section == null)
+                return null;
+            SECTIONS.put(key, section);
+            Iterator<Map.Entry<SectionKey, Section>> itr = SECTIONS.entrySet().iterator();
+            while (SECTIONS.size() > MAX_SECTIONS && itr.hasNext()) {
+                Section evicted = itr.next().getValue();
+                itr.remove();
+                unlinkNeighbours(evicted.world, evicted.sx, evicted.sy, evicted.sz);
+            }
+        }
+        return section;
+    }
+
+    private static int index(int x, int y, int z) {
+        return (y << 8) | (z << 4) | x;
+    }
+
+    /**
+     * Discards the sections whose standable cells depend on the given block.
+     */
+    public static void invalidate(Block block) {
+        if (SECTIONS.isEmpty())
+            return;
+        UUID world = block.getWorld().getUID();
+        int sx = block.getX() >> 4, sz = block.getZ() >> 4;
+        // a block is the floor of the cell above it and the head space of the cell below it
+        for (int sy = (block.getY() - 1) >> 4; sy <= (block.getY() + 1) >> 4; sy++) {
+            if (SECTIONS.remove(new SectionKey(world, sx, sy, sz)) != null) {
+                unlinkNeighbours(block.getWorld(), sx, sy, sz);
+            }
+        }
+    }
+
+    public static void invalidate(Iterable<Block> blocks) {
+        for (Block block : blocks) {
+            invalidate(block);
+        }
+    }
+
+    /**
+     * Returns whether an NPC can stand in the cell, using the cached section if possible. Cells in unloaded chunks are
+     * never standable.
+     */
+    static boolean isStandable(World world, int x, int y, int z) {
+        Section section = getSection(world, x >> 4, y >> 4, z >> 4);
+        return section != null && section.getRegionAt(x, y, z) != null;
+    }
+
+    /**
+     * Returns whether the work budget shared by every search this tick has been spent. Callers which compute sections
+     * through {@link #isStandable(World, int, int, int)} should stop once it has.
+     */
+    static boolean isWorkBudgetSpent() {
+        spendWork(0);
+        return WORK_DONE >= Setting.PATHFINDER_HIERARCHICAL_SECTIONS_PER_TICK.asInt() * SECTION_WORK;
+    }
+
+    /**
+     * Starts a coarse search between two locations. The search computes sections as it goes and is advanced by
+     * {@link Search#tick()}.
+     */
+    public static Search search(Location from, Location to) {
+        return new Search(from, to);
+    }
+
+    private static void spendWork(int work) {
+        int tick = NPCUpdateScheduler.getCurrentTick();
+        if (tick != WORK_TICK) {
+            WORK_TICK = tick;
+            WORK_DONE = 0;
+        }
+        WORK_DONE += work;
+    }
+
+    private static void unlinkNeighbours(World world, int sx, int sy, int sz) {
+        UUID uuid = world.getUID();
+        for (int dx = -1; dx <= 1; dx++) {
+            for (int dy = -1; dy <= 1; dy++) {
+                for (int dz = -1; dz <= 1; dz++) {
+                    Section neighbour = SECTIONS.get(new SectionKey(uuid, sx + dx, sy + dy, sz + dz));
+                    if (neighbour != null) {
+                        neighbour.unlink();
+                    }
+                }
+            }
+        }
+    }
+
+    private static class Node {
+        private boolean closed;
+        private final double f;
+        private final double g;
+        private final Node parent;
+        private final Region region;
+        private final Portal via;
+
+        private Node(Region region, Node parent, Portal via, double g, double h) {
+            this.region = region;
+            this.parent = parent;
+            this.via = via;
+            this.g = g;
+            this.f = g + h;
+        }
+    }
+
+    private static class Portal {
+        private final double cost;
+        private final int fromX, fromY, fromZ;
+        private final Region to;
+        private final int toX, toY, toZ;
+
+        private Portal(Region from, int fromX, int fromY, int fromZ, Region to, int toX, int toY, int toZ) {
+            this.fromX = fromX;
+            this.fromY = fromY;
+            this.fromZ = fromZ;
+            this.to = to;
+            this.toX = toX;
+            this.toY = toY;
+            this.toZ = toZ;
+            this.cost = from.distance(fromX, fromY, fromZ) + 1 + to.distance(toX, toY, toZ);
+        }
+
+        private double distanceSquared(double x, double y, double z) {
+            return (fromX - x) * (fromX - x) + (fromY - y) * (fromY - y) + (fromZ - z) * (fromZ - z);
+        }
+    }
+
+    private static class Region {
+        private double cx, cy, cz;
+        private final short id;
+        private List<Portal> portals = Collections.emptyList();
+        private final Section section;
+
+        private Region(Section section, short id) {
+            this.section = section;
+            this.id = id;
+        }
+
+        /**
+         * Checks the cell against the cells this region was computed from, so that it still works after the section
+         * has been evicted or invalidated and computed again.
+         */
+        private boolean contains(Vector cell) {
+            int x = cell.getBlockX(), y = cell.getBlockY(), z = cell.getBlockZ();
+            return x >> 4 == section.sx && y >> 4 == section.sy && z >> 4 == section.sz
+                    && section.cells[index(x & 15, y & 15, z & 15)] == id;
+        }
+
+        private double distance(double x, double y, double z) {
+            return Math.sqrt((cx - x) * (cx - x) + (cy - y) * (cy - y) + (cz - z) * (cz - z));
+        }
+    }
+
+    /**
+     * An incremental A* search over regions.
+     */
+    public static class Search {
+        private int expansions;
+        private final Location from;
+        private Vector goal;
+        private final Map<Region, Node> nodes = Maps.newHashMap();
+        private final PriorityQueue<Node> open = new PriorityQueue<>(Comparator.comparingDouble(node -> node.f));
+        private boolean started;
+        private final Location to;
+        private List<Vector> waypoints;
+
+        private Search(Location from, Location to) {
+            this.from = from.clone();
+            this.to = to.clone();
+        }
+
+        private void finish(Node node) {
+            List<Vector> path = Lists.newArrayList();
+            for (; node.via != null; node = node.parent) {
+                path.add(new Vector(node.via.toX, node.via.toY, node.via.toZ));
+            }
+            waypoints = Lists.reverse(path);
+            open.clear();
+            nodes.clear();
+        }
+
+        /**
+         * @return the portal cells to walk through in order, not including the destination, or null if there is no
+         *         route
+         */
+        @Nullable
+        public List<Vector> getWaypoints() {
+            return waypoints;
+        }
+
+        public boolean isDone() {
+            return started && open.isEmpty();
+        }
+
+        /**
+         * Advances the search until it finishes or the work budget for this tick, shared with every other search, has
+         * been spent.
+         */
+        public void tick() {
+            spendWork(0);
+            int budget = Setting.PATHFINDER_HIERARCHICAL_SECTIONS_PER_TICK.asInt() * SECTION_WORK;
+            if (!started) {
+                started = true;
+                if (from.getWorld() != to.getWorld())
+                    return;
+                Vector start = findCell(from);
+                goal = findCell(to);
+                Region region = start == null ? null : getRegion(from.getWorld(), start);
+                if (region == null || goal == null)
+                    return;
+                open.add(new Node(region, null, null, 0, region.distance(to.getX(), to.getY(), to.getZ())));
+            }
+            while (!open.isEmpty() && WORK_DONE < budget) {
+                Node node = open.poll();
+                if (node.closed)
+                    continue;
+                if (node.region.contains(goal)) {
+                    finish(node);
+                    return;
+                }
+                if (++expansions > MAX_EXPANSIONS) {
+                    open.clear();
+                    return;
+                }
+                spendWork(1);
+                node.closed = true;
+                node.region.section.link();
+                for (Portal portal : node.region.portals) {
+                    double g = node.g + portal.cost;
+                    Node existing = nodes.get(portal.to);
+                    if (existing != null && (existing.closed || existing.g <= g))
+                        continue;
+                    if (existing != null) {
+                        existing.closed = true;
+                    }
+                    Node next = new Node(portal.to, node, portal, g,
+                            portal.to.distance(to.getX(), to.getY(), to.getZ()));
+                    nodes.put(portal.to, next);
+                    open.add(next);
+                }
+            }
+        }
+    }
+
+    private static class Section {
+        private short[] cells;
+        private boolean linked;
+        private List<Region> regions = Collections.emptyList();
+        private final int sx, sy, sz;
+        private final World world;
+
+        private Section(World world, int sx, int sy, int sz) {
+            this.world = world;
+            this.sx = sx;
+            this.sy = sy;
+            this.sz = sz;
+        }
+
+        /**
+         * Groups the standable cells into regions by flood filling along walking moves.
+         */
+        private void fill(boolean[] standable) {
+            cells = new short[4096];
+            regions = Lists.newArrayList();
+            int[] queue = new int[4096];
+            for (int start = 0; start < 4096; start++) {
+                if (!standable[start] || cells[start] != 0)
+                    continue;
+                short id = (short) (regions.size() + 1);
+                Region region = new Region(this, id);
+                regions.add(region);
+                int head = 0, tail = 0;
+                queue[tail++] = start;
+                cells[start] = id;
+                while (head < tail) {
+                    int cell = queue[head++];
+                    int x = cell & 15, y = cell >> 8, z = (cell >> 4) & 15;
+                    region.cx += x;
+                    region.cy += y;
+                    region.cz += z;
+                    for (int[] move : MOVES) {
+                        int nx = x + move[0], ny = y + move[1], nz = z + move[2];
+                        if (nx < 0 || nx > 15 || ny < 0 || ny > 15 || nz < 0 || nz > 15)
+                            continue;
+                        int next = index(nx, ny, nz);
+                        if (!standable[next] || cells[next] != 0)
+                            continue;
+                        cells[next] = id;
+                        queue[tail++] = next;
+                    }
+                }
+                region.cx = region.cx / tail + (sx << 4);
+                region.cy = region.cy / tail + (sy << 4);
+                region.cz = region.cz / tail + (sz << 4);
+            }
+        }
+
+        @Nullable
+        private Region getRegionAt(int x, int y, int z) {
+            if (cells == null)
+                return null;
+            int id = cells[index(x & 15, y & 15, z & 15)];
+            return id == 0 ? null : regions.get(id - 1);
+        }
+
+        /**
+         * Computes the portals from this section's regions into neighbouring sections, keeping the portal closest to
+         * the middle of the two regions for each pair of regions.
+         */
+        private void link() {
+            if (linked)
+                return;
+            linked = true;
+            if (cells == null)
+                return;
+            spendWork(SECTION_WORK);
+            List<Map<Region, Portal>> best = Lists.newArrayListWithCapacity(regions.size());
+            for (int i = 0; i < regions.size(); i++) {
+                best.add(Maps.newHashMap());
+            }
+            for (int cell = 0; cell < 4096; cell++) {
+                if (cells[cell] == 0)
+                    continue;
+                int x = (sx << 4) + (cell & 15), y = (sy << 4) + (cell >> 8), z = (sz << 4) + ((cell >> 4) & 15);
+                Region from = regions.get(cells[cell] - 1);
+                for (int[] move : MOVES) {
+                    int nx = x + move[0], ny = y + move[1], nz = z + move[2];
+                    if (nx >> 4 == sx && ny >> 4 == sy && nz >> 4 == sz)
+                        continue;
+                    Section neighbour = getSection(world, nx >> 4, ny >> 4, nz >> 4);
+                    Region to = neighbour == null ? null : neighbour.getRegionAt(nx, ny, nz);
+                    if (to == null)
+                        continue;
+                    Map<Region, Portal> portals = best.get(cells[cell] - 1);
+                    Portal existing = portals.get(to);
+                    double mx = (from.cx + to.cx) / 2, my = (from.cy + to.cy) / 2, mz = (from.cz + to.cz) / 2;
+                    Portal portal = new Portal(from, x, y, z, to, nx, ny, nz);
+                    if (existing == null || portal.distanceSquared(mx, my, mz) < existing.distanceSquared(mx, my, mz)) {
+                        portals.put(to, portal);
+                    }
+                }
+            }
+            for (int i = 0; i < regions.size(); i++) {
+                regions.get(i).portals = Lists.newArrayList(best.get(i).values());
+            }
+        }
+
+        private void unlink() {
+            linked = false;
+            for (Region region : regions) {
+                region.portals = Collections.emptyList();
+            }
+        }
+    }
+
+    private static class SectionKey {
+        private final long section;
+        private final UUID world;
+
+        private SectionKey(UUID world, int sx, int sy, int sz) {
+            this.world = world;
+            this.section = ((long) (sx & 0x3FFFFF) << 42) | ((long) (sz & 0x3FFFFF) << 20) | (sy & 0xFFFFF);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj)
+                return true;
+            if (obj == null || getClass() != obj.getClass())
+                return false;
+            SectionKey other = (SectionKey) obj;
+            return section == other.section && world.equals(other.world);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(world, section);
+        }
+    }
+
+    private static final int MAX_EXPANSIONS = 8192;
+    private static final int MAX_SECTIONS = 4096;
+    // horizontal steps, including stepping up or down a block
+    static final int[][] MOVES = { { 1, 0, 0 }, { -1, 0, 0 }, { 0, 0, 1 }, { 0, 0, -1 }, { 1, 1, 0 },
+            { -1, 1, 0 }, { 0, 1, 1 }, { 0, 1, -1 }, { 1, -1, 0 }, { -1, -1, 0 }, { 0, -1, 1 }, { 0, -1, -1 } };
+    // the work of computing or linking a section, in region expansions
+    private static final int SECTION_WORK = 64;
+    private static final Map<SectionKey, Section> SECTIONS = new LinkedHashMap<>(16, 0.75F, true);
+    private static int WORK_DONE;
+    private static int WORK_TICK = Integer.MIN_VALUE;
+}
@@ -191,7 +191,10 @@ public class CitizensNavigator implements Navigator, Runnable {
             return;
         Location npcLoc = npc.getStoredLocation();
         Location targetLoc = getTargetAsLocation();
-        if (!npcLoc.getWorld().equals(targetLoc.getWorld()) || localParams.range() < npcLoc.distance(targetLoc)) {
+        double range = executing instanceof HierarchicalNavigationStrategy
+                ? Setting.PATHFINDER_HIERARCHICAL_MAX_DISTANCE.asDouble()
+                : localParams.range();
+        if (!npcLoc.getWorld().equals(targetLoc.getWorld()) || range < npcLoc.distance(targetLoc)) {
             stopNavigating(CancelReason.STUCK);
             return;
         }
@@ -353,6 +356,8 @@ public class CitizensNavigator implements Navigator, Runnable {
         setTarget(params -> {
             if (npc.isFlyable()) {
                 return new FlyingAStarNavigationStrategy(npc, target, params);
+            } else if (HierarchicalNavigationStrategy.shouldUse(npc, target, params)) {
+                return new HierarchicalNavigationStrategy(npc, target, params);
             } else if (params.useNewPathfinder() || !(npc.getEntity() instanceof LivingEntity)) {
                 return new AStarNavigationStrategy(npc, target, params);
             } else {
@@ -26,6 +26,10 @@ public class FallingExaminer implements BlockExaminer {
         return fall.containsKey(point) ? 0.25f : 0;
     }
 
+    public int getMaxFallDistance() {
+        return maxFallDistance;
+    }
+
     @Override
     public PassableState isPassable(BlockSource source, PathPoint point) {
         Vector pos = point.getVector();
@@ -36,7 +40,7 @@ public class FallingExaminer implements BlockExaminer {
             return PassableState.PASSABLE;
 
         if (!MinecraftBlockExaminer
-                .canStandOn(source.getBlockAt(pos.getBlockX(), pos.getBlockY() - 1, pos.getBlockZ()))) {
+                .canStandOn(source.getMaterialAt(pos.getBlockX(), pos.getBlockY() - 1, pos.getBlockZ()))) {
             Integer dist = fall.get(point.getParentPoint());
             if (dist == null && mc.isPassable(source, point.getParentPoint()) == PassableState.PASSABLE) {
                 // start a fall
@@ -0,0 +1,204 @@
+package net.citizensnpcs.npc.ai;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+
+import javax.annotation.Nullable;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.util.Vector;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import gnu.trove.impl.Constants;
+import gnu.trove.list.array.TLongArrayList;
+import gnu.trove.map.hash.TLongIntHashMap;
+import net.citizensnpcs.npc.NPCUpdateScheduler;
+
+/**
+ * A reverse breadth-first search over standable cells that is shared by every NPC walking to the same target block.
+ * The search grows outward from the target only as far as needed to reach each NPC that asks for a path, so NPCs
+ * converging on one target reuse a single search instead of each running their own. Fields are discarded once they
+ * are older than the path update rate of the NPC asking, so block changes are picked up at the next re-path. Must only
+ * be used from the main thread.
+ *
+ * Cells are standable when they have a floor and two passable blocks above, as in {@link ChunkPortalGraph}. The
+ * navigator's block examiners are not consulted, so paths may differ from the regular pathfinder for NPCs that are
+ * taller than two blocks, open doors, limit their fall distance or check bounding boxes. Growing a field computes
+ * sections of the {@link ChunkPortalGraph} and stops once its shared per-tick work budget has been spent, in which case
+ * the NPC falls back to the regular pathfinder and the field continues growing at the next request.
+ */
+public class FlowField {
+    private final TLongIntHashMap distances = new TLongIntHashMap(Constants.DEFAULT_CAPACITY,
+            Constants.DEFAULT_LOAD_FACTOR, Constants.DEFAULT_LONG_NO_ENTRY_VALUE, -1);
+    // polled by advancing frontierHead, bounded by MAX_CELLS
+    private final TLongArrayList frontier = new TLongArrayList();
+    private int frontierHead;
+    private int lastAccess;
+    private final int tick;
+    private final int x, y, z;
+
+    private FlowField(int x, int y, int z, int tick) {
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        this.tick = tick;
+        long target = cellKey(x, y, z);
+        distances.put(target, 0);
+        frontier.add(target);
+    }
+
+    /**
+     * Grows the field until the cell has been reached, the field cannot grow any further or the shared work budget for
+     * this tick has been spent.
+     */
+    private boolean expandTo(World world, long cell, double range) {
+        double rangeSquared = range * range;
+        while (!distances.containsKey(cell)) {
+            if (frontierHead >= frontier.size() || distances.size() >= MAX_CELLS
+                    || ChunkPortalGraph.isWorkBudgetSpent())
+                return false;
+            long current = frontier.get(frontierHead++);
+            int distance = distances.get(current);
+            int cx = cellX(current), cy = cellY(current), cz = cellZ(current);
+            for (int[] move : ChunkPortalGraph.MOVES) {
+                int nx = cx + move[0], ny = cy + move[1], nz = cz + move[2];
+                long next = cellKey(nx, ny, nz);
+                if (distances.containsKey(next))
+                    continue;
+                double dx = nx - x, dy = ny - y, dz = nz - z;
+                if (dx * dx + dy * dy + dz * dz > rangeSquared || !ChunkPortalGraph.isStandable(world, nx, ny, nz))
+                    continue;
+                distances.put(next, distance + 1);
+                frontier.add(next);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Follows decreasing distances from the cell down to the target.
+     */
+    private List<Vector> trace(long cell) {
+        List<Vector> path = Lists.newArrayListWithCapacity(distances.get(cell));
+        int distance = distances.get(cell);
+        while (distance > 0) {
+            int cx = cellX(cell), cy = cellY(cell), cz = cellZ(cell);
+            for (int[] move : ChunkPortalGraph.MOVES) {
+                long next = cellKey(cx + move[0], cy + move[1], cz + move[2]);
+                if (distances.get(next) == distance - 1) {
+                    cell = next;
+                    break;
+                }
+            }
+            distance--;
+            path.add(new Vector(cellX(cell), cellY(cell), cellZ(cell)));
+        }
+        return path;
+    }
+
+    private static void advanceTick() {
+        int tick = NPCUpdateScheduler.getCurrentTick();
+        if (tick == LAST_TICK)
+            return;
+        LAST_TICK = tick;
+        if (tick - LAST_SWEEP >= MAX_IDLE_TICKS || tick < LAST_SWEEP) {
+            LAST_SWEEP = tick;
+            FIELDS.values().removeIf(field -> tick - field.lastAccess > MAX_IDLE_TICKS);
+        }
+    }
+
+    private static long cellKey(int x, int y, int z) {
+        return ((long) (x & 0x3FFFFFF) << 38) | ((long) (z & 0x3FFFFFF) << 12) | (y & 0xFFF);
+    }
+
+    private static int cellX(long key) {
+        return (int) (key >> 38);
+    }
+
+    private static int cellY(long key) {
+        return (int) (key << 52 >> 52);
+    }
+
+    private static int cellZ(long key) {
+        return (int) (key << 26 >> 38);
+    }
+
+    public static void clear() {
+        FIELDS.clear();
+    }
+
+    /**
+     * Finds a walking path from a location to a target block using the shared field for the target, creating or
+     * growing the field as needed.
+     *
+     * @param maxAge
+     *            the maximum age in ticks of a field to reuse
+     * @param range
+     *            the maximum distance from the target to search
+     * @return the cells to walk through, ending at the target, or null if the target was not reached
+     */
+    @Nullable
+    public static List<Vector> findPath(Location from, Location target, int maxAge, double range) {
+        World world = target.getWorld();
+        if (world != from.getWorld())
+            return null;
+        advanceTick();
+        FieldKey key = new FieldKey(world.getUID(), target.getBlockX(), target.getBlockY(), target.getBlockZ());
+        FlowField field = FIELDS.get(key);
+        if (field == null || LAST_TICK - field.tick > maxAge) {
+            if (!ChunkPortalGraph.isStandable(world, key.x, key.y, key.z))
+                return null;
+            FIELDS.put(key, field = new FlowField(key.x, key.y, key.z, LAST_TICK));
+        }
+        field.lastAccess = LAST_TICK;
+        for (int dy : new int[] { 0, -1, 1 }) {
+            int x = from.getBlockX(), y = from.getBlockY() + dy, z = from.getBlockZ();
+            if (!ChunkPortalGraph.isStandable(world, x, y, z))
+                continue;
+            long cell = cellKey(x, y, z);
+            if (!field.expandTo(world, cell, range))
+                return null;
+            List<Vector> path = field.trace(cell);
+            return path.isEmpty() ? null : path;
+        }
+        return null;
+    }
+
+    private static class FieldKey {
+        private final UUID world;
+        private final int x, y, z;
+
+        private FieldKey(UUID world, int x, int y, int z) {
+            this.world = world;
+            this.x = x;
+            this.y = y;
+            this.z = z;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj)
+                return true;
+            if (obj == null || getClass() != obj.getClass())
+                return false;
+            FieldKey other = (FieldKey) obj;
+            return x == other.x && y == other.y && z == other.z && world.equals(other.world);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(world, x, y, z);
+        }
+    }
+
+    private static final Map<FieldKey, FlowField> FIELDS = Maps.newHashMap();
+    private static int LAST_SWEEP;
+    private static int LAST_TICK = Integer.MIN_VALUE;
+    private static final int MAX_CELLS = 16384;
+    private static final int MAX_IDLE_TICKS = 100;
+}
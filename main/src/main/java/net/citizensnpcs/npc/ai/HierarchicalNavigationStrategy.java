@@ -0,0 +1,143 @@
+package net.citizensnpcs.npc.ai;
+
+import java.util.List;
+
+import org.bukkit.Location;
+import org.bukkit.block.Block;
+import org.bukkit.entity.LivingEntity;
+import org.bukkit.util.Vector;
+
+import com.google.common.collect.Lists;
+
+import net.citizensnpcs.Settings.Setting;
+import net.citizensnpcs.api.ai.AbstractPathStrategy;
+import net.citizensnpcs.api.ai.NavigatorParameters;
+import net.citizensnpcs.api.ai.PathStrategy;
+import net.citizensnpcs.api.ai.TargetType;
+import net.citizensnpcs.api.ai.event.CancelReason;
+import net.citizensnpcs.api.npc.NPC;
+import net.citizensnpcs.util.Util;
+
+/**
+ * Navigates to destinations beyond the pathfinding range. A route is first planned over the {@link ChunkPortalGraph},
+ * then walked in segments that each stay within the pathfinding range, using the regular block-level strategies.
+ */
+public class HierarchicalNavigationStrategy extends AbstractPathStrategy {
+    private final Location destination;
+    private int index;
+    private final NPC npc;
+    private final NavigatorParameters params;
+    private ChunkPortalGraph.Search search;
+    private PathStrategy segment;
+    private List<Vector> waypoints;
+
+    public HierarchicalNavigationStrategy(NPC npc, Location dest, NavigatorParameters params) {
+        super(TargetType.LOCATION);
+        this.npc = npc;
+        this.destination = dest;
+        this.params = params;
+    }
+
+    private PathStrategy createSegment(Location target) {
+        if (params.useNewPathfinder() || !(npc.getEntity() instanceof LivingEntity))
+            return new AStarNavigationStrategy(npc, target, params);
+        return new MCNavigationStrategy(npc, target, params);
+    }
+
+    @Override
+    public Location getCurrentDestination() {
+        return segment != null ? segment.getCurrentDestination() : destination.clone();
+    }
+
+    @Override
+    public Iterable<Vector> getPath() {
+        return segment == null ? null : segment.getPath();
+    }
+
+    @Override
+    public Location getTargetAsLocation() {
+        return destination;
+    }
+
+    private List<Block> getWaypointBlocks() {
+        return Lists.transform(waypoints, vector -> vector.toLocation(destination.getWorld()).getBlock());
+    }
+
+    /**
+     * Picks the farthest remaining waypoint that is within half of the pathfinding range, so that the block-level
+     * search for the segment stays inside its block source.
+     */
+    private int nextWaypoint() {
+        Location loc = npc.getEntity().getLocation();
+        double maxDistance = params.range() / 2;
+        int next = index;
+        for (int i = index + 1; i < waypoints.size(); i++) {
+            if (waypoints.get(i).toLocation(loc.getWorld()).distance(loc) > maxDistance)
+                break;
+            next = i;
+        }
+        return next;
+    }
+
+    @Override
+    public void stop() {
+        if (segment != null) {
+            segment.stop();
+            segment = null;
+        }
+        if (waypoints != null && params.debug()) {
+            Util.sendBlockChanges(getWaypointBlocks(), null);
+        }
+        search = null;
+    }
+
+    @Override
+    public boolean update() {
+        if (waypoints == null) {
+            if (search == null) {
+                search = ChunkPortalGraph.search(npc.getEntity().getLocation(), destination);
+            }
+            search.tick();
+            if (!search.isDone())
+                return false;
+            if (search.getWaypoints() == null) {
+                setCancelReason(CancelReason.STUCK);
+                return true;
+            }
+            waypoints = Lists.newArrayList(search.getWaypoints());
+            waypoints.add(destination.toVector());
+            search = null;
+            if (params.debug()) {
+                Util.sendBlockChanges(getWaypointBlocks(), Util.getFallbackMaterial("DANDELION", "YELLOW_FLOWER"));
+            }
+        }
+        if (segment == null) {
+            index = nextWaypoint();
+            Location target = index == waypoints.size() - 1 ? destination
+                    : waypoints.get(index).toLocation(destination.getWorld());
+            segment = createSegment(target);
+        }
+        if (!segment.update())
+            return false;
+        if (segment.getCancelReason() != null) {
+            setCancelReason(segment.getCancelReason());
+            return true;
+        }
+        segment.stop();
+        segment = null;
+        return ++index >= waypoints.size();
+    }
+
+    /**
+     * @return whether the destination is too far for the block-level strategies, but close enough to be planned over
+     *         the {@link ChunkPortalGraph}
+     */
+    public static boolean shouldUse(NPC npc, Location dest, NavigatorParameters params) {
+        double maxDistance = Setting.PATHFINDER_HIERARCHICAL_MAX_DISTANCE.asDouble();
+        Location loc = npc.getStoredLocation();
+        if (maxDistance <= 0 || loc.getWorld() != dest.getWorld())
+            return false;
+        double distance = loc.distance(dest);
+        return distance > params.range() && distance <= maxDistance;
+    }
+}
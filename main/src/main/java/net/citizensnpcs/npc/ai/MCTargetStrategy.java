@@ -1,5 +1,7 @@
 package net.citizensnpcs.npc.ai;
 
+import java.util.List;
+
 import org.bukkit.Location;
 import org.bukkit.block.Block;
 import org.bukkit.block.BlockFace;
@@ -7,6 +9,7 @@ import org.bukkit.entity.Entity;
 import org.bukkit.entity.LivingEntity;
 import org.bukkit.util.Vector;
 
+import net.citizensnpcs.Settings.Setting;
 import net.citizensnpcs.api.ai.AttackStrategy;
 import net.citizensnpcs.api.ai.EntityTarget;
 import net.citizensnpcs.api.ai.NavigatorParameters;
@@ -193,7 +196,14 @@ public class MCTargetStrategy implements PathStrategy, EntityTarget {
                 }
                 location = block.getLocation();
             }
-            strategy = npc.isFlyable() ? new FlyingAStarNavigationStrategy(npc, location, parameters)
+            if (npc.isFlyable()) {
+                strategy = new FlyingAStarNavigationStrategy(npc, location, parameters);
+                return;
+            }
+            List<Vector> path = Setting.PATHFINDER_SHARED_FLOW_FIELDS.asBoolean() ? FlowField
+                    .findPath(npc.getEntity().getLocation(), location, parameters.updatePathRate(), parameters.range())
+                    : null;
+            strategy = path != null ? new AStarNavigationStrategy(npc, path, parameters)
                     : new AStarNavigationStrategy(npc, location, parameters);
         }
 
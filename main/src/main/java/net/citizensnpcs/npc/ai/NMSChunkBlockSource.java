@@ -3,17 +3,37 @@ package net.citizensnpcs.npc.ai;
 import org.bukkit.Chunk;
 import org.bukkit.Location;
 
+import gnu.trove.map.hash.TLongObjectHashMap;
 import net.citizensnpcs.api.astar.pathfinder.ChunkBlockSource;
 import net.citizensnpcs.api.util.BoundingBox;
-import net.citizensnpcs.util.NMS;
 
+/**
+ * Resolves collision boxes through the shared {@link BlockShapeCache}. A search examines most blocks several times
+ * while expanding neighbouring nodes, so the absolute boxes are also kept for the lifetime of the source, which avoids
+ * reading the block state and translating its shape again.
+ */
 public class NMSChunkBlockSource extends ChunkBlockSource {
+    private final TLongObjectHashMap<BoundingBox> boxes = new TLongObjectHashMap<>();
+
     public NMSChunkBlockSource(Location location, float radius) {
         super(location, radius);
     }
 
     @Override
     protected BoundingBox getCollisionBox(Chunk chunk, int x, int y, int z) {
-        return NMS.getCollisionBox(chunk.getBlock(x, y, z));
+        int blockX = (chunk.getX() << 4) + x, blockZ = (chunk.getZ() << 4) + z;
+        long key = blockKey(blockX, y, blockZ);
+        BoundingBox box = boxes.get(key);
+        if (box == null) {
+            box = BlockShapeCache.getCollisionBox(chunk.getWorld(), blockX, y, blockZ);
+            if (box != null) {
+                boxes.put(key, box);
+            }
+        }
+        return box;
+    }
+
+    private static long blockKey(int x, int y, int z) {
+        return ((long) (x & 0x3FFFFFF) << 38) | ((long) (z & 0x3FFFFFF) << 12) | (y & 0xFFF);
     }
 }
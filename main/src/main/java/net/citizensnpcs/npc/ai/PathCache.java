@@ -0,0 +1,307 @@
+package net.citizensnpcs.npc.ai;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+
+import javax.annotation.Nullable;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.entity.EntityType;
+import org.bukkit.util.Vector;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import net.citizensnpcs.Settings.Setting;
+import net.citizensnpcs.api.ai.NavigatorParameters;
+import net.citizensnpcs.api.astar.pathfinder.BlockExaminer;
+import net.citizensnpcs.api.astar.pathfinder.MinecraftBlockExaminer;
+import net.citizensnpcs.api.astar.pathfinder.SwimmingExaminer;
+import net.citizensnpcs.api.npc.NPC;
+import net.citizensnpcs.npc.NPCUpdateScheduler;
+
+/**
+ * Shares A* paths between NPCs and navigations. Paths are keyed by world, start block, end block and a
+ * {@link Profile} of the navigator parameters that affect which path is found. A cached path is dropped when a block
+ * next to it changes or once it is older than the path cache duration, and the least recently used paths are evicted
+ * once the cache holds too many path points. Must only be used from the main thread.
+ */
+public class PathCache {
+    private PathCache() {
+    }
+
+    private static long chunkKey(int x, int z) {
+        return (long) x << 32 | z & 0xFFFFFFFFL;
+    }
+
+    public static void clear() {
+        PATHS.clear();
+        CHUNKS.clear();
+        POINTS = 0;
+    }
+
+    public static void clear(World world) {
+        Map<Long, Set<CachedPath>> chunks = CHUNKS.get(world.getUID());
+        if (chunks == null)
+            return;
+        Set<CachedPath> paths = Sets.newIdentityHashSet();
+        for (Set<CachedPath> chunk : chunks.values()) {
+            paths.addAll(chunk);
+        }
+        for (CachedPath cached : paths) {
+            remove(cached);
+        }
+    }
+
+    /**
+     * @return a copy of the cached path, or null if there is none
+     */
+    @Nullable
+    public static List<Vector> get(Location from, Location to, @Nullable Profile profile) {
+        if (profile == null || Setting.PATH_CACHE_MAX_POINTS.asInt() <= 0 || from.getWorld() != to.getWorld())
+            return null;
+        CachedPath cached = PATHS.get(new PathKey(from, to, profile));
+        if (cached == null)
+            return null;
+        if (NPCUpdateScheduler.getCurrentTick() - cached.tick >= Setting.PATH_CACHE_DURATION.asTicks()) {
+            remove(cached);
+            return null;
+        }
+        List<Vector> path = Lists.newArrayListWithCapacity(cached.path.size());
+        for (Vector vector : cached.path) {
+            path.add(vector.clone());
+        }
+        return path;
+    }
+
+    private static void index(CachedPath cached) {
+        Map<Long, Set<CachedPath>> chunks = CHUNKS.computeIfAbsent(cached.key.world, uuid -> Maps.newHashMap());
+        for (long chunk : cached.chunks) {
+            chunks.computeIfAbsent(chunk, c -> Sets.newIdentityHashSet()).add(cached);
+        }
+        POINTS += cached.path.size();
+    }
+
+    /**
+     * Discards cached paths that pass next to the given block.
+     */
+    public static void invalidate(Block block) {
+        Map<Long, Set<CachedPath>> chunks = CHUNKS.get(block.getWorld().getUID());
+        if (chunks == null)
+            return;
+        Set<CachedPath> candidates = chunks.get(chunkKey(block.getX() >> 4, block.getZ() >> 4));
+        if (candidates == null)
+            return;
+        int x = block.getX(), y = block.getY(), z = block.getZ();
+        for (CachedPath cached : Lists.newArrayList(candidates)) {
+            if (cached.contains(x, y, z)) {
+                remove(cached);
+            }
+        }
+    }
+
+    public static void invalidate(Iterable<Block> blocks) {
+        for (Block block : blocks) {
+            invalidate(block);
+        }
+    }
+
+    /**
+     * Computes the navigator settings that affect the path found for the NPC. NPCs with equal profiles can share
+     * paths.
+     *
+     * @return the profile, or null if the NPC's paths should not be cached, for example because it uses a
+     *         {@link net.citizensnpcs.api.astar.pathfinder.DoorExaminer} or an examiner added by another plugin
+     */
+    @Nullable
+    public static Profile profile(NPC npc, NavigatorParameters params) {
+        int fallDistance = -1;
+        double height = 0;
+        boolean swimming = false;
+        for (BlockExaminer examiner : params.examiners()) {
+            if (examiner instanceof FallingExaminer) {
+                fallDistance = ((FallingExaminer) examiner).getMaxFallDistance();
+            } else if (examiner instanceof BoundingBoxExaminer) {
+                height = ((BoundingBoxExaminer) examiner).getHeight();
+            } else if (examiner instanceof SwimmingExaminer) {
+                swimming = true;
+            } else if (!CACHEABLE_EXAMINERS.contains(examiner.getClass())
+                    && examiner.getClass().getEnclosingClass() != AStarNavigationStrategy.AStarPlanner.class)
+                return null;
+        }
+        return new Profile(npc.getEntity().getType(), params.avoidWater(), params.pathDistanceMargin(),
+                params.range(), fallDistance, height, swimming);
+    }
+
+    public static void put(Location from, Location to, @Nullable Profile profile, Iterable<Vector> path) {
+        int max = Setting.PATH_CACHE_MAX_POINTS.asInt();
+        if (profile == null || max <= 0 || from.getWorld() != to.getWorld())
+            return;
+        CachedPath cached = new CachedPath(new PathKey(from, to, profile), path, NPCUpdateScheduler.getCurrentTick());
+        if (cached.path.isEmpty() || cached.path.size() > max)
+            return;
+        CachedPath old = PATHS.put(cached.key, cached);
+        if (old != null) {
+            unindex(old);
+        }
+        index(cached);
+        for (Iterator<CachedPath> itr = PATHS.values().iterator(); POINTS > max && itr.hasNext();) {
+            CachedPath eldest = itr.next();
+            itr.remove();
+            unindex(eldest);
+        }
+    }
+
+    private static void remove(CachedPath cached) {
+        if (PATHS.remove(cached.key) != null) {
+            unindex(cached);
+        }
+    }
+
+    private static void unindex(CachedPath cached) {
+        Map<Long, Set<CachedPath>> chunks = CHUNKS.get(cached.key.world);
+        if (chunks != null) {
+            for (long chunk : cached.chunks) {
+                Set<CachedPath> paths = chunks.get(chunk);
+                if (paths != null && paths.remove(cached) && paths.isEmpty()) {
+                    chunks.remove(chunk);
+                }
+            }
+            if (chunks.isEmpty()) {
+                CHUNKS.remove(cached.key.world);
+            }
+        }
+        POINTS -= cached.path.size();
+    }
+
+    private static class CachedPath {
+        private final Set<Long> chunks = Sets.newHashSet();
+        private final PathKey key;
+        private int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE, maxZ = Integer.MIN_VALUE;
+        private int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE, minZ = Integer.MAX_VALUE;
+        private final List<Vector> path = Lists.newArrayList();
+        private final int tick;
+
+        private CachedPath(PathKey key, Iterable<Vector> vectors, int tick) {
+            this.key = key;
+            this.tick = tick;
+            for (Vector vector : vectors) {
+                path.add(vector.clone());
+                int x = vector.getBlockX(), y = vector.getBlockY(), z = vector.getBlockZ();
+                minX = Math.min(minX, x);
+                minY = Math.min(minY, y);
+                minZ = Math.min(minZ, z);
+                maxX = Math.max(maxX, x);
+                maxY = Math.max(maxY, y);
+                maxZ = Math.max(maxZ, z);
+                for (int dx = -1; dx <= 1; dx += 2) {
+                    for (int dz = -1; dz <= 1; dz += 2) {
+                        chunks.add(chunkKey((x + dx) >> 4, (z + dz) >> 4));
+                    }
+                }
+            }
+        }
+
+        private boolean contains(int x, int y, int z) {
+            // padded to include the blocks walked on and the space for the NPC's height
+            if (x < minX - 1 || x > maxX + 1 || y < minY - 1 || y > maxY + 2 || z < minZ - 1 || z > maxZ + 1)
+                return false;
+            for (Vector vector : path) {
+                int dy = y - vector.getBlockY();
+                if (Math.abs(x - vector.getBlockX()) <= 1 && Math.abs(z - vector.getBlockZ()) <= 1 && dy >= -1
+                        && dy <= 2)
+                    return true;
+            }
+            return false;
+        }
+    }
+
+    private static class PathKey {
+        private final long from;
+        private final Profile profile;
+        private final long to;
+        private final UUID world;
+
+        private PathKey(Location from, Location to, Profile profile) {
+            this.world = from.getWorld().getUID();
+            this.from = blockKey(from);
+            this.to = blockKey(to);
+            this.profile = profile;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj)
+                return true;
+            if (obj == null || getClass() != obj.getClass())
+                return false;
+            PathKey other = (PathKey) obj;
+            return from == other.from && to == other.to && world.equals(other.world) && profile.equals(other.profile);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(world, from, to, profile);
+        }
+
+        private static long blockKey(Location location) {
+            return ((long) (location.getBlockX() & 0x3FFFFFF) << 38)
+                    | ((long) (location.getBlockZ() & 0x3FFFFFF) << 12) | (location.getBlockY() & 0xFFF);
+        }
+    }
+
+    /**
+     * The navigator settings that affect which path is found for an NPC.
+     */
+    public static class Profile {
+        private final boolean avoidWater;
+        private final EntityType entityType;
+        private final int fallDistance;
+        private final double height;
+        private final double pathDistanceMargin;
+        private final float range;
+        private final boolean swimming;
+
+        private Profile(EntityType entityType, boolean avoidWater, double pathDistanceMargin, float range,
+                int fallDistance, double height, boolean swimming) {
+            this.entityType = entityType;
+            this.avoidWater = avoidWater;
+            this.pathDistanceMargin = pathDistanceMargin;
+            this.range = range;
+            this.fallDistance = fallDistance;
+            this.height = height;
+            this.swimming = swimming;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj)
+                return true;
+            if (obj == null || getClass() != obj.getClass())
+                return false;
+            Profile other = (Profile) obj;
+            return entityType == other.entityType && avoidWater == other.avoidWater
+                    && pathDistanceMargin == other.pathDistanceMargin && range == other.range
+                    && fallDistance == other.fallDistance && height == other.height && swimming == other.swimming;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(entityType, avoidWater, pathDistanceMargin, range, fallDistance, height, swimming);
+        }
+    }
+
+    private static final Set<Class<?>> CACHEABLE_EXAMINERS = ImmutableSet.of(MinecraftBlockExaminer.class);
+    private static final Map<UUID, Map<Long, Set<CachedPath>>> CHUNKS = Maps.newHashMap();
+    private static final Map<PathKey, CachedPath> PATHS = new LinkedHashMap<>(16, 0.75F, true);
+    private static int POINTS;
+}
@@ -0,0 +1,226 @@
+package net.citizensnpcs.npc.ai;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.bukkit.Chunk;
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.block.data.BlockData;
+import org.bukkit.block.data.Waterlogged;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+
+import net.citizensnpcs.api.ai.NavigatorParameters;
+import net.citizensnpcs.api.astar.pathfinder.BlockExaminer;
+import net.citizensnpcs.api.astar.pathfinder.BlockSource;
+import net.citizensnpcs.api.astar.pathfinder.MinecraftBlockExaminer;
+import net.citizensnpcs.api.astar.pathfinder.SwimmingExaminer;
+import net.citizensnpcs.api.util.BoundingBox;
+import net.citizensnpcs.api.util.SpigotUtil;
+import net.citizensnpcs.npc.NPCUpdateScheduler;
+
+/**
+ * A {@link BlockSource} backed by {@link ChunkSnapshot}s taken on the main thread, which can be read safely from
+ * pathfinding worker threads. Chunks that were not loaded when the snapshot was taken read as air.
+ *
+ * Collision boxes are looked up in the shared {@link BlockShapeCache}, which is filled on the main thread by
+ * {@link #resolveShapes(int)}. Until a shape has been resolved, solid blocks are treated as full cubes.
+ *
+ * Bukkit can only snapshot whole chunks, so snapshots are shared between searches for up to a second and discarded
+ * early when a block in the chunk changes. Live blocks can't be read, so {@link #getBlockAt(int, int, int)} throws and
+ * only examiners accepted by {@link #canExamine(NavigatorParameters)} may be used.
+ */
+public class SnapshotBlockSource extends BlockSource {
+    private final int chunkRadius;
+    private final int chunkX;
+    private final int chunkZ;
+    private final ChunkSnapshot[] snapshots;
+    private final World world;
+
+    public SnapshotBlockSource(Location location, float radius) {
+        this.world = location.getWorld();
+        this.chunkRadius = (int) Math.ceil(radius / 16F);
+        this.chunkX = location.getBlockX() >> 4;
+        this.chunkZ = location.getBlockZ() >> 4;
+        int diameter = chunkRadius * 2 + 1;
+        this.snapshots = new ChunkSnapshot[diameter * diameter];
+        int tick = NPCUpdateScheduler.getCurrentTick();
+        sweep(tick);
+        Map<Long, CachedSnapshot> cache = SNAPSHOTS.computeIfAbsent(world.getUID(), uuid -> Maps.newHashMap());
+        for (int dx = -chunkRadius; dx <= chunkRadius; dx++) {
+            for (int dz = -chunkRadius; dz <= chunkRadius; dz++) {
+                int cx = chunkX + dx, cz = chunkZ + dz;
+                if (!world.isChunkLoaded(cx, cz))
+                    continue;
+                long key = chunkKey(cx, cz);
+                CachedSnapshot cached = cache.get(key);
+                if (cached == null || tick - cached.tick > MAX_SNAPSHOT_AGE) {
+                    Chunk chunk = world.getChunkAt(cx, cz);
+                    cache.put(key, cached = new CachedSnapshot(chunk.getChunkSnapshot(false, false, false), tick));
+                }
+                snapshots[index(dx, dz)] = cached.snapshot;
+            }
+        }
+    }
+
+    /**
+     * Always throws, since live blocks must not be read from pathfinding worker threads.
+     */
+    @Override
+    public Block getBlockAt(int x, int y, int z) {
+        throw new UnsupportedOperationException("live blocks can't be read from a snapshot");
+    }
+
+    @Override
+    public BoundingBox getCollisionBox(int x, int y, int z) {
+        ChunkSnapshot snapshot = getSnapshot(x, y, z);
+        if (snapshot == null)
+            return null;
+        BlockData data = snapshot.getBlockData(x & 15, y, z & 15);
+        BoundingBox shape = BlockShapeCache.get(data);
+        if (shape == null) {
+            if (!BlockShapeCache.isWorldDependent(data.getMaterial())) {
+                UNRESOLVED_SHAPES.putIfAbsent(data, new Location(world, x, y, z));
+            }
+            shape = data.getMaterial().isSolid() ? FULL_BLOCK : BoundingBox.EMPTY;
+        }
+        if (shape == BoundingBox.EMPTY)
+            return shape;
+        return new BoundingBox(shape.minX + x, shape.minY + y, shape.minZ + z, shape.maxX + x, shape.maxY + y,
+                shape.maxZ + z);
+    }
+
+    @Override
+    public Material getMaterialAt(int x, int y, int z) {
+        ChunkSnapshot snapshot = getSnapshot(x, y, z);
+        return snapshot == null ? Material.AIR : snapshot.getBlockType(x & 15, y, z & 15);
+    }
+
+    private ChunkSnapshot getSnapshot(int x, int y, int z) {
+        int dx = (x >> 4) - chunkX;
+        int dz = (z >> 4) - chunkZ;
+        if (Math.abs(dx) > chunkRadius || Math.abs(dz) > chunkRadius || !SpigotUtil.checkYSafe(y, world))
+            return null;
+        return snapshots[index(dx, dz)];
+    }
+
+    @Override
+    public World getWorld() {
+        return world;
+    }
+
+    private int index(int dx, int dz) {
+        return (dx + chunkRadius) * (chunkRadius * 2 + 1) + dz + chunkRadius;
+    }
+
+    /**
+     * Snapshot equivalent of {@link MinecraftBlockExaminer#isLiquidOrInLiquid(Block)}.
+     */
+    public boolean isLiquidOrInLiquid(int x, int y, int z) {
+        ChunkSnapshot snapshot = getSnapshot(x, y, z);
+        if (snapshot == null)
+            return false;
+        BlockData data = snapshot.getBlockData(x & 15, y, z & 15);
+        return MinecraftBlockExaminer.isLiquid(data.getMaterial())
+                || data instanceof Waterlogged && ((Waterlogged) data).isWaterlogged();
+    }
+
+    /**
+     * Returns whether searches using the given parameters can run over a snapshot. Requires block data (1.13+) and
+     * examiners which only read materials and collision boxes.
+     */
+    public static boolean canExamine(NavigatorParameters params) {
+        if (!BlockShapeCache.supportsBlockData())
+            return false;
+        for (BlockExaminer examiner : params.examiners()) {
+            if (!SNAPSHOT_EXAMINERS.contains(examiner.getClass())
+                    && examiner.getClass().getEnclosingClass() != AStarNavigationStrategy.AStarPlanner.class)
+                return false;
+        }
+        return true;
+    }
+
+    private static long chunkKey(int x, int z) {
+        return (long) x << 32 | z & 0xFFFFFFFFL;
+    }
+
+    public static void clear() {
+        SNAPSHOTS.clear();
+    }
+
+    public static void clear(World world) {
+        SNAPSHOTS.remove(world.getUID());
+    }
+
+    /**
+     * Discards the shared snapshot of the chunk containing the block.
+     */
+    public static void invalidate(Block block) {
+        Map<Long, CachedSnapshot> cache = SNAPSHOTS.get(block.getWorld().getUID());
+        if (cache != null) {
+            cache.remove(chunkKey(block.getX() >> 4, block.getZ() >> 4));
+        }
+    }
+
+    /**
+     * Computes the collision shapes of block states that worker threads have seen but not yet resolved. Must be called
+     * from the main thread.
+     *
+     * @param limit
+     *            the maximum number of shapes to compute
+     */
+    public static void resolveShapes(int limit) {
+        Iterator<Map.Entry<BlockData, Location>> itr = UNRESOLVED_SHAPES.entrySet().iterator();
+        while (itr.hasNext() && limit-- > 0) {
+            Map.Entry<BlockData, Location> entry = itr.next();
+            itr.remove();
+            Location loc = entry.getValue();
+            if (!loc.getWorld().isChunkLoaded(loc.getBlockX() >> 4, loc.getBlockZ() >> 4))
+                continue;
+            Block block = loc.getBlock();
+            if (!block.getBlockData().equals(entry.getKey()))
+                continue;
+            BlockShapeCache.getCollisionBox(block);
+        }
+    }
+
+    private static void sweep(int tick) {
+        if (tick - LAST_SWEEP < MAX_SNAPSHOT_AGE && tick >= LAST_SWEEP)
+            return;
+        LAST_SWEEP = tick;
+        for (Iterator<Map<Long, CachedSnapshot>> itr = SNAPSHOTS.values().iterator(); itr.hasNext();) {
+            Map<Long, CachedSnapshot> cache = itr.next();
+            cache.values().removeIf(cached -> tick - cached.tick > MAX_SNAPSHOT_AGE);
+            if (cache.isEmpty()) {
+                itr.remove();
+            }
+        }
+    }
+
+    private static class CachedSnapshot {
+        private final ChunkSnapshot snapshot;
+        private final int tick;
+
+        private CachedSnapshot(ChunkSnapshot snapshot, int tick) {
+            this.snapshot = snapshot;
+            this.tick = tick;
+        }
+    }
+
+    private static final BoundingBox FULL_BLOCK = new BoundingBox(0, 0, 0, 1, 1, 1);
+    private static int LAST_SWEEP;
+    private static final int MAX_SNAPSHOT_AGE = 20;
+    // main thread only
+    private static final Map<UUID, Map<Long, CachedSnapshot>> SNAPSHOTS = Maps.newHashMap();
+    private static final Set<Class<?>> SNAPSHOT_EXAMINERS = ImmutableSet.of(BoundingBoxExaminer.class,
+            FallingExaminer.class, MinecraftBlockExaminer.class, SwimmingExaminer.class);
+    private static final Map<BlockData, Location> UNRESOLVED_SHAPES = new ConcurrentHashMap<>();
+}
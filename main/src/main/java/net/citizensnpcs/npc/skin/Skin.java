@@ -18,6 +18,7 @@ import com.google.common.collect.Iterables;
 import com.mojang.authlib.GameProfile;
 import com.mojang.authlib.properties.Property;
 
+import net.citizensnpcs.Citizens;
 import net.citizensnpcs.Settings.Setting;
 import net.citizensnpcs.api.CitizensAPI;
 import net.citizensnpcs.api.event.DespawnReason;
@@ -27,6 +28,7 @@ import net.citizensnpcs.api.util.Messaging;
 import net.citizensnpcs.npc.profile.ProfileFetchHandler;
 import net.citizensnpcs.npc.profile.ProfileFetcher;
 import net.citizensnpcs.npc.profile.ProfileRequest;
+import net.citizensnpcs.npc.skin.SkinCache.CachedSkin;
 import net.citizensnpcs.trait.SkinTrait;
 
 /**
@@ -35,6 +37,7 @@ import net.citizensnpcs.trait.SkinTrait;
 public class Skin {
     private boolean fetching;
     private int fetchRetries = -1;
+    private boolean fromDiskCache;
     private boolean hasFetched;
     private volatile boolean isValid = true;
     private final Map<SkinnableEntity, Void> pending = new WeakHashMap<SkinnableEntity, Void>(15);
@@ -42,6 +45,7 @@ public class Skin {
     private volatile Property skinData;
     private volatile UUID skinId;
     private final String skinName;
+    private boolean stale;
 
     /**
      * Constructor.
@@ -99,6 +103,10 @@ public class Skin {
             }
         }
 
+        if (!hasSkinData() && !hasFetched) {
+            loadFromDiskCache();
+        }
+
         if (!hasSkinData()) {
             String defaultSkinName = ChatColor.stripColor(npc.getName()).toLowerCase();
 
@@ -119,6 +127,13 @@ public class Skin {
 
         setNPCSkinData(entity, skinName, skinId, skinData);
 
+        // the cached skin is used until Mojang responds, and is only replaced if the skin has changed
+        if (fromDiskCache && !hasFetched && (stale || skinTrait.shouldUpdateSkins())) {
+            pending.put(entity, null);
+            if (!fetching) {
+                fetch();
+            }
+        }
         return true;
     }
 
@@ -285,6 +300,18 @@ public class Skin {
         return isValid;
     }
 
+    private void loadFromDiskCache() {
+        SkinCache cache = getDiskCache();
+        CachedSkin cached = cache == null ? null : cache.get(skinName);
+        if (cached == null)
+            return;
+        skinId = cached.getSkinId();
+        skinData = cached.getTexture();
+        stale = cached.isStale();
+        fromDiskCache = true;
+        Messaging.idebug(() -> "Using cached skin for '" + skinName + "'" + (stale ? " (stale)" : ""));
+    }
+
     private void setData(@Nullable GameProfile profile) {
         if (profile == null) {
             isValid = false;
@@ -296,8 +323,19 @@ public class Skin {
                     + ") do not match. Has the user renamed recently?");
         }
 
+        Property data = Iterables.getFirst(profile.getProperties().get("textures"), null);
+        boolean changed = skinData == null || data == null || !data.getValue().equals(skinData.getValue());
         skinId = profile.getId();
-        skinData = Iterables.getFirst(profile.getProperties().get("textures"), null);
+        skinData = data;
+        fromDiskCache = false;
+        SkinCache cache = getDiskCache();
+        if (cache != null) {
+            cache.put(skinName, skinId, skinData);
+        }
+        if (!changed) {
+            pending.clear();
+            return;
+        }
 
         List<SkinnableEntity> entities = new ArrayList<SkinnableEntity>(pending.keySet());
         for (SkinnableEntity entity : entities) {
@@ -383,6 +421,11 @@ public class Skin {
         return skin;
     }
 
+    private static SkinCache getDiskCache() {
+        return CitizensAPI.getPlugin() instanceof Citizens ? ((Citizens) CitizensAPI.getPlugin()).getSkinCache()
+                : null;
+    }
+
     private static void setNPCSkinData(SkinnableEntity entity, String skinName, UUID skinId, Property skinProperty) {
         NPC npc = entity.getNPC();
         SkinTrait skinTrait = npc.getOrAddTrait(SkinTrait.class);
@@ -0,0 +1,132 @@
+package net.citizensnpcs.npc.skin;
+
+import java.io.File;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Maps;
+import com.mojang.authlib.GameProfile;
+import com.mojang.authlib.properties.Property;
+
+import net.citizensnpcs.Settings.Setting;
+import net.citizensnpcs.api.util.DataKey;
+import net.citizensnpcs.api.util.Messaging;
+import net.citizensnpcs.api.util.YamlStorage;
+
+/**
+ * Persists fetched skin textures by skin name so that skins are available immediately after a restart without any
+ * Mojang requests. Entries older than the revalidation age are still used, but are refreshed in the background.
+ */
+public class SkinCache {
+    private volatile boolean dirty;
+    private final File file;
+    private final Map<String, CachedSkin> skins = Maps.newConcurrentMap();
+
+    public SkinCache(File file) {
+        this.file = file;
+    }
+
+    @Nullable
+    public CachedSkin get(String skinName) {
+        return skins.get(skinName.toLowerCase());
+    }
+
+    /**
+     * @return Whether the skin is cached and does not need to be revalidated
+     */
+    public boolean isFresh(String skinName) {
+        CachedSkin skin = get(skinName);
+        return skin != null && !skin.isStale();
+    }
+
+    public void load() {
+        skins.clear();
+        if (!file.exists())
+            return;
+        YamlStorage storage = new YamlStorage(file);
+        if (!storage.load()) {
+            Messaging.severe("Unable to load skin cache from", file.getName());
+            return;
+        }
+        for (DataKey key : storage.getKey("skins").getSubKeys()) {
+            try {
+                skins.put(key.name(), new CachedSkin(UUID.fromString(key.getString("uuid")), key.getString("texture"),
+                        key.getString("signature"), key.getLong("fetched")));
+            } catch (IllegalArgumentException e) {
+                Messaging.debug("Skipping invalid cached skin", key.name());
+            }
+        }
+        dirty = false;
+    }
+
+    /**
+     * Caches the texture of a fetched profile.
+     */
+    public void put(String skinName, GameProfile profile) {
+        put(skinName, profile.getId(), Iterables.getFirst(profile.getProperties().get("textures"), null));
+    }
+
+    void put(String skinName, UUID skinId, Property property) {
+        if (skinId == null || property == null || property.getValue() == null)
+            return;
+        skins.put(skinName.toLowerCase(), new CachedSkin(skinId, property.getValue(), property.getSignature(),
+                System.currentTimeMillis()));
+        dirty = true;
+    }
+
+    /**
+     * Copies the cache on the main thread if it has changed since the last save.
+     *
+     * @return a task that writes the copy to disk, safe to run from any thread
+     */
+    public Runnable snapshot() {
+        if (!dirty)
+            return () -> {
+            };
+        dirty = false;
+        YamlStorage storage = new YamlStorage(file);
+        DataKey root = storage.getKey("skins");
+        for (Map.Entry<String, CachedSkin> entry : skins.entrySet()) {
+            CachedSkin skin = entry.getValue();
+            DataKey key = root.getRelative(entry.getKey());
+            key.setString("uuid", skin.skinId.toString());
+            key.setString("texture", skin.texture);
+            if (skin.signature != null) {
+                key.setString("signature", skin.signature);
+            }
+            key.setLong("fetched", skin.fetched);
+        }
+        return storage::save;
+    }
+
+    public static class CachedSkin {
+        private final long fetched;
+        private final String signature;
+        private final UUID skinId;
+        private final String texture;
+
+        private CachedSkin(UUID skinId, String texture, String signature, long fetched) {
+            this.skinId = skinId;
+            this.texture = texture;
+            this.signature = signature;
+            this.fetched = fetched;
+        }
+
+        public UUID getSkinId() {
+            return skinId;
+        }
+
+        public Property getTexture() {
+            return new Property("textures", texture, signature);
+        }
+
+        public boolean isStale() {
+            return System.currentTimeMillis() - fetched > TimeUnit.SECONDS
+                    .toMillis(Setting.NPC_SKIN_CACHE_REVALIDATE_AGE.asSeconds());
+        }
+    }
+}
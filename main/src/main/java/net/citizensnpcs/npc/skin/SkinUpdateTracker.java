@@ -21,8 +21,6 @@ import org.bukkit.entity.Player;
 import org.bukkit.scheduler.BukkitRunnable;
 
 import com.google.common.base.Preconditions;
-import com.google.common.base.Predicates;
-import com.google.common.collect.Iterables;
 import com.google.common.collect.Sets;
 
 import net.citizensnpcs.Settings.Setting;
@@ -38,10 +36,11 @@ import net.citizensnpcs.util.Util;
  * @see net.citizensnpcs.EventListen
  */
 public class SkinUpdateTracker {
+    private final SkinnableIndex index = new SkinnableIndex();
+    private final Set<SkinnableEntity> moved = Sets.newIdentityHashSet();
     private final Map<SkinnableEntity, Void> navigating = new WeakHashMap<SkinnableEntity, Void>(25);
     private final Map<UUID, PlayerTracker> playerTrackers = new HashMap<UUID, PlayerTracker>(
             Math.max(128, Math.min(1024, Bukkit.getMaxPlayers() / 2)));
-    private final Map<String, NPCRegistry> registries;
     private final NPCNavigationUpdater updater = new NPCNavigationUpdater();
 
     /**
@@ -53,8 +52,6 @@ public class SkinUpdateTracker {
     public SkinUpdateTracker(Map<String, NPCRegistry> registries) {
         Preconditions.checkNotNull(registries);
 
-        this.registries = registries;
-
         updater.runTaskTimer(CitizensAPI.getPlugin(), 1, 1);
         new NPCNavigationTracker().runTaskTimer(CitizensAPI.getPlugin(), 3, 7);
     }
@@ -102,19 +99,10 @@ public class SkinUpdateTracker {
         return true;
     }
 
-    private Iterable<NPC> getAllNPCs() {
-        return Iterables.filter(Iterables.concat(CitizensAPI.getNPCRegistry(), Iterables.concat(registries.values())),
-                Predicates.notNull());
-    }
-
     private List<SkinnableEntity> getNearbyNPCs(Player player, boolean reset, boolean checkFov) {
         List<SkinnableEntity> results = new ArrayList<SkinnableEntity>();
         PlayerTracker tracker = getTracker(player, reset);
-        for (NPC npc : getAllNPCs()) {
-            SkinnableEntity skinnable = getSkinnable(npc);
-            if (skinnable == null)
-                continue;
-
+        for (SkinnableEntity skinnable : getNearbySkinnables(player)) {
             // if checking field of view, don't add skins that have already been updated for FOV
             if (checkFov && tracker.fovVisibleSkins.contains(skinnable))
                 continue;
@@ -126,11 +114,21 @@ public class SkinUpdateTracker {
         return results;
     }
 
+    // get indexed skinnable NPCs which may be within view distance of the player
+    private List<SkinnableEntity> getNearbySkinnables(Player player) {
+        List<SkinnableEntity> nearby = new ArrayList<SkinnableEntity>();
+        index.getNearby(player.getLocation(), Setting.NPC_SKIN_VIEW_DISTANCE.asDouble() + INDEX_PADDING, nearby);
+        return nearby;
+    }
+
     // get all navigating skinnable NPC's within the players FOV that have not been "seen" yet
     private void getNewVisibleNavigating(Player player, Collection<SkinnableEntity> output) {
         PlayerTracker tracker = getTracker(player, false);
 
-        for (SkinnableEntity skinnable : navigating.keySet()) {
+        for (SkinnableEntity skinnable : getNearbySkinnables(player)) {
+            if (!navigating.containsKey(skinnable))
+                continue;
+
             // make sure player hasn't already been updated to prevent excessive tab list flashing
             // while NPC's are navigating and to reduce the number of times #canSee is invoked.
             if (tracker.fovVisibleSkins.contains(skinnable))
@@ -163,6 +161,22 @@ public class SkinUpdateTracker {
         return tracker;
     }
 
+    /**
+     * Invoke when an NPC moves into a different index cell, whether by navigating, riding, being pushed or being
+     * moved by another plugin.
+     *
+     * @param npc
+     *            The moved NPC.
+     */
+    public void onNPCCellChange(NPC npc) {
+        Preconditions.checkNotNull(npc);
+        SkinnableEntity skinnable = getSkinnable(npc);
+        if (skinnable == null || !index.contains(skinnable))
+            return;
+
+        index.update(skinnable);
+    }
+
     /**
      * Invoke when an NPC is despawned.
      *
@@ -177,6 +191,8 @@ public class SkinUpdateTracker {
             return;
 
         navigating.remove(skinnable);
+        moved.remove(skinnable);
+        index.remove(skinnable);
 
         for (PlayerTracker tracker : playerTrackers.values()) {
             tracker.fovVisibleSkins.remove(skinnable);
@@ -211,6 +227,23 @@ public class SkinUpdateTracker {
             return;
 
         navigating.remove(skinnable);
+        index.update(skinnable);
+    }
+
+    /**
+     * Invoke when an NPC is teleported.
+     *
+     * @param npc
+     *            The teleported NPC.
+     */
+    public void onNPCMove(NPC npc) {
+        Preconditions.checkNotNull(npc);
+        SkinnableEntity skinnable = getSkinnable(npc);
+        if (skinnable == null || !index.contains(skinnable))
+            return;
+
+        // the entity is only at its new location once the teleport event has finished
+        moved.add(skinnable);
     }
 
     /**
@@ -225,6 +258,7 @@ public class SkinUpdateTracker {
         if (skinnable == null)
             return;
 
+        index.update(skinnable);
         // reset nearby players in case they are not looking at the NPC when it spawns.
         resetNearbyPlayers(skinnable);
     }
@@ -270,10 +304,19 @@ public class SkinUpdateTracker {
      * </p>
      */
     public void reset() {
+        moved.clear();
         navigating.clear();
         playerTrackers.clear();
     }
 
+    // move teleported NPCs to their new location in the index, other movement is reported by onNPCCellChange
+    private void refreshIndex() {
+        for (SkinnableEntity skinnable : moved) {
+            index.update(skinnable);
+        }
+        moved.clear();
+    }
+
     // hard reset players near a skinnable NPC
     private void resetNearbyPlayers(SkinnableEntity skinnable) {
         Entity entity = skinnable.getBukkitEntity();
@@ -332,7 +375,10 @@ public class SkinUpdateTracker {
     private class NPCNavigationTracker extends BukkitRunnable {
         @Override
         public void run() {
-            if (navigating.isEmpty() || playerTrackers.isEmpty())
+            refreshIndex();
+            if (playerTrackers.isEmpty())
+                return;
+            if (navigating.isEmpty())
                 return;
 
             List<SkinnableEntity> nearby = new ArrayList<SkinnableEntity>(10);
@@ -365,6 +411,8 @@ public class SkinUpdateTracker {
         public void run() {
             while (!queue.isEmpty()) {
                 UpdateInfo info = queue.remove();
+                if (!index.contains(info.entity))
+                    continue;
                 info.entity.getSkinTracker().updateViewer(info.player);
             }
         }
@@ -462,5 +510,15 @@ public class SkinUpdateTracker {
     }
 
     private static final float FIELD_OF_VIEW = 70F;
+    // extra range to query the index with, covering NPCs which moved since the index was refreshed
+    private static final double INDEX_PADDING = 16;
     private static final int MOVEMENT_SKIN_UPDATE_DISTANCE = 25;
+
+    /**
+     * Returns the index cell containing the location. Callers can compare cells to find out when an NPC needs to be
+     * re-indexed with {@link #onNPCCellChange(NPC)}.
+     */
+    public static long getIndexCell(Location location) {
+        return SkinnableIndex.getCell(location);
+    }
 }
@@ -0,0 +1,122 @@
+package net.citizensnpcs.npc.skin;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import org.bukkit.Location;
+import org.bukkit.entity.Player;
+
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * A per-world grid of spawned skinnable entities, used to find entities near a player without scanning every NPC.
+ * Entity positions are only updated when {@link #update(SkinnableEntity)} is called, so queries should be padded to
+ * allow for entities which moved since.
+ */
+class SkinnableIndex {
+    private final Map<SkinnableEntity, Cell> cells = Maps.newIdentityHashMap();
+    private final Map<UUID, Map<Long, Set<SkinnableEntity>>> worlds = Maps.newHashMap();
+
+    void clear() {
+        cells.clear();
+        worlds.clear();
+    }
+
+    boolean contains(SkinnableEntity skinnable) {
+        return cells.containsKey(skinnable);
+    }
+
+    /**
+     * Adds every indexed entity in cells within range of the location to the output collection.
+     */
+    void getNearby(Location location, double range, Collection<SkinnableEntity> output) {
+        Map<Long, Set<SkinnableEntity>> grid = worlds.get(location.getWorld().getUID());
+        if (grid == null)
+            return;
+        int minX = cell(location.getX() - range), maxX = cell(location.getX() + range);
+        int minZ = cell(location.getZ() - range), maxZ = cell(location.getZ() + range);
+        for (int x = minX; x <= maxX; x++) {
+            for (int z = minZ; z <= maxZ; z++) {
+                Set<SkinnableEntity> entities = grid.get(pack(x, z));
+                if (entities != null) {
+                    output.addAll(entities);
+                }
+            }
+        }
+    }
+
+    void remove(SkinnableEntity skinnable) {
+        Cell cell = cells.remove(skinnable);
+        if (cell != null) {
+            removeFromCell(cell, skinnable);
+        }
+    }
+
+    private void removeFromCell(Cell cell, SkinnableEntity skinnable) {
+        Map<Long, Set<SkinnableEntity>> grid = worlds.get(cell.world);
+        if (grid == null)
+            return;
+        Set<SkinnableEntity> entities = grid.get(cell.key);
+        if (entities == null)
+            return;
+        entities.remove(skinnable);
+        if (entities.isEmpty()) {
+            grid.remove(cell.key);
+            if (grid.isEmpty()) {
+                worlds.remove(cell.world);
+            }
+        }
+    }
+
+    /**
+     * Indexes the entity at its current location, or removes it if it is no longer valid.
+     */
+    void update(SkinnableEntity skinnable) {
+        Player entity = skinnable.getBukkitEntity();
+        if (entity == null || !entity.isValid()) {
+            remove(skinnable);
+            return;
+        }
+        Location location = entity.getLocation(CACHE_LOCATION);
+        UUID world = location.getWorld().getUID();
+        long key = getCell(location);
+        Cell cell = cells.get(skinnable);
+        if (cell != null) {
+            if (cell.key == key && cell.world.equals(world))
+                return;
+            removeFromCell(cell, skinnable);
+        }
+        cells.put(skinnable, new Cell(world, key));
+        worlds.computeIfAbsent(world, w -> Maps.newHashMap()).computeIfAbsent(key, k -> Sets.newIdentityHashSet())
+                .add(skinnable);
+    }
+
+    private static class Cell {
+        final long key;
+        final UUID world;
+
+        Cell(UUID world, long key) {
+            this.world = world;
+            this.key = key;
+        }
+    }
+
+    private static int cell(double coord) {
+        return (int) Math.floor(coord) >> CELL_SHIFT;
+    }
+
+    static long getCell(Location location) {
+        return pack(cell(location.getX()), cell(location.getZ()));
+    }
+
+    private static long pack(int x, int z) {
+        return (long) x << 32 | z & 0xFFFFFFFFL;
+    }
+
+    private static final Location CACHE_LOCATION = new Location(null, 0, 0, 0);
+    // 64 block cells
+    private static final int CELL_SHIFT = 6;
+}
@@ -0,0 +1,229 @@
+package net.citizensnpcs.trait;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.UUID;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.google.common.collect.Maps;
+
+import net.citizensnpcs.api.CitizensAPI;
+import net.citizensnpcs.api.npc.NPC;
+import net.citizensnpcs.api.util.Messaging;
+import net.citizensnpcs.trait.CommandTrait.Hand;
+import net.citizensnpcs.trait.CommandTrait.PlayerNPCCommand;
+
+/**
+ * Holds {@link CommandTrait} cooldowns and usage counts outside of the NPC save data. Entries whose cooldowns have
+ * elapsed are pruned on every save. Cooldown lengths are defined by the NPC's commands, so entries of NPCs which are
+ * not loaded are kept as they are, and an NPC's entries are only dropped once it is removed. The remainder is written
+ * to a separate gzipped binary file with one table of command keys per NPC, which is also used to share key strings in
+ * memory after loading.
+ */
+public class CommandCooldownStore {
+    private final File file;
+    private final Map<UUID, NPCCooldowns> npcs = Maps.newHashMap();
+
+    public CommandCooldownStore(File file) {
+        this.file = file;
+    }
+
+    NPCCooldowns get(UUID npc) {
+        return npcs.computeIfAbsent(npc, uuid -> new NPCCooldowns());
+    }
+
+    public boolean load() {
+        npcs.clear();
+        if (!file.exists())
+            return true;
+        try (DataInputStream in = new DataInputStream(
+                new GZIPInputStream(new BufferedInputStream(new FileInputStream(file))))) {
+            int version = in.readInt();
+            if (version != VERSION)
+                throw new IOException("unknown version " + version);
+            for (int i = in.readInt(); i > 0; i--) {
+                UUID uuid = readUUID(in);
+                String[] keys = new String[in.readInt()];
+                for (int j = 0; j < keys.length; j++) {
+                    keys[j] = in.readUTF();
+                }
+                NPCCooldowns cooldowns = new NPCCooldowns();
+                readTimes(in, keys, cooldowns.global);
+                for (int j = in.readInt(); j > 0; j--) {
+                    UUID player = readUUID(in);
+                    PlayerNPCCommand command = new PlayerNPCCommand();
+                    byte hand = in.readByte();
+                    command.lastUsedHand = hand == -1 ? null : HANDS[hand];
+                    command.lastUsedId = in.readInt();
+                    readTimes(in, keys, command.lastUsed);
+                    for (int k = in.readInt(); k > 0; k--) {
+                        command.nUsed.put(keys[in.readInt()], in.readInt());
+                    }
+                    cooldowns.players.put(player, command);
+                }
+                npcs.put(uuid, cooldowns);
+            }
+            return true;
+        } catch (IOException | ArrayIndexOutOfBoundsException e) {
+            Messaging.severe("Unable to load command cooldowns from", file.getName() + ":", e.getMessage());
+            npcs.clear();
+            return false;
+        }
+    }
+
+    private void prune() {
+        for (Iterator<Map.Entry<UUID, NPCCooldowns>> itr = npcs.entrySet().iterator(); itr.hasNext();) {
+            Map.Entry<UUID, NPCCooldowns> entry = itr.next();
+            NPC npc = CitizensAPI.getNPCRegistry().getByUniqueIdGlobal(entry.getKey());
+            // NPCs may be missing because their world or registry is not loaded yet
+            if (npc == null)
+                continue;
+            CommandTrait trait = npc.getTraitNullable(CommandTrait.class);
+            if (trait != null) {
+                trait.pruneCooldowns(entry.getValue());
+            }
+            if (trait == null || entry.getValue().isEmpty()) {
+                itr.remove();
+            }
+        }
+    }
+
+    /**
+     * Drops the cooldowns of a removed NPC.
+     */
+    public void remove(UUID npc) {
+        npcs.remove(npc);
+    }
+
+    private byte[] serialise() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(new GZIPOutputStream(bytes))) {
+            out.writeInt(VERSION);
+            out.writeInt(npcs.size());
+            for (Map.Entry<UUID, NPCCooldowns> entry : npcs.entrySet()) {
+                writeUUID(out, entry.getKey());
+                NPCCooldowns cooldowns = entry.getValue();
+                // insertion ordered so that each key's index is its position in the written table
+                Map<String, Integer> keys = Maps.newLinkedHashMap();
+                for (String key : cooldowns.global.keySet()) {
+                    keys.putIfAbsent(key, keys.size());
+                }
+                for (PlayerNPCCommand command : cooldowns.players.values()) {
+                    for (String key : command.lastUsed.keySet()) {
+                        keys.putIfAbsent(key, keys.size());
+                    }
+                    for (String key : command.nUsed.keySet()) {
+                        keys.putIfAbsent(key, keys.size());
+                    }
+                }
+                out.writeInt(keys.size());
+                for (String key : keys.keySet()) {
+                    out.writeUTF(key);
+                }
+                writeTimes(out, keys, cooldowns.global);
+                out.writeInt(cooldowns.players.size());
+                for (Map.Entry<UUID, PlayerNPCCommand> player : cooldowns.players.entrySet()) {
+                    PlayerNPCCommand command = player.getValue();
+                    writeUUID(out, player.getKey());
+                    out.writeByte(command.lastUsedHand == null ? -1 : command.lastUsedHand.ordinal());
+                    out.writeInt(command.lastUsedId);
+                    writeTimes(out, keys, command.lastUsed);
+                    out.writeInt(command.nUsed.size());
+                    for (Map.Entry<String, Integer> used : command.nUsed.entrySet()) {
+                        out.writeInt(keys.get(used.getKey()));
+                        out.writeInt(used.getValue());
+                    }
+                }
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Prunes elapsed cooldowns and serialises the store on the main thread.
+     *
+     * @return a task that writes the serialised data to disk, safe to run from any thread
+     */
+    public Runnable snapshot() {
+        prune();
+        byte[] data;
+        try {
+            data = serialise();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return () -> {
+            };
+        }
+        return () -> {
+            try {
+                write(data);
+            } catch (IOException e) {
+                Messaging.severe("Unable to save command cooldowns to", file.getName() + ":", e.getMessage());
+            }
+        };
+    }
+
+    private void write(byte[] data) throws IOException {
+        Files.createDirectories(file.getAbsoluteFile().getParentFile().toPath());
+        File temp = new File(file.getAbsoluteFile().getParentFile(), file.getName() + ".tmp");
+        Files.write(temp.toPath(), data);
+        try {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    static class NPCCooldowns {
+        final Map<String, Long> global = Maps.newHashMap();
+        final Map<UUID, PlayerNPCCommand> players = Maps.newHashMap();
+
+        boolean isEmpty() {
+            return global.isEmpty() && players.isEmpty();
+        }
+
+        void merge(NPCCooldowns other) {
+            global.putAll(other.global);
+            players.putAll(other.players);
+        }
+    }
+
+    private static void readTimes(DataInputStream in, String[] keys, Map<String, Long> times) throws IOException {
+        for (int i = in.readInt(); i > 0; i--) {
+            times.put(keys[in.readInt()], in.readLong());
+        }
+    }
+
+    private static UUID readUUID(DataInputStream in) throws IOException {
+        return new UUID(in.readLong(), in.readLong());
+    }
+
+    private static void writeTimes(DataOutputStream out, Map<String, Integer> keys, Map<String, Long> times)
+            throws IOException {
+        out.writeInt(times.size());
+        for (Map.Entry<String, Long> entry : times.entrySet()) {
+            out.writeInt(keys.get(entry.getKey()));
+            out.writeLong(entry.getValue());
+        }
+    }
+
+    private static void writeUUID(DataOutputStream out, UUID uuid) throws IOException {
+        out.writeLong(uuid.getMostSignificantBits());
+        out.writeLong(uuid.getLeastSignificantBits());
+    }
+
+    private static final Hand[] HANDS = Hand.values();
+    private static final int VERSION = 1;
+}
@@ -10,6 +10,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 import java.util.function.Function;
 
 import org.apache.logging.log4j.core.lookup.StrSubstitutor;
@@ -47,6 +48,7 @@ import net.citizensnpcs.api.util.DataKey;
 import net.citizensnpcs.api.util.ItemStorage;
 import net.citizensnpcs.api.util.Messaging;
 import net.citizensnpcs.api.util.Translator;
+import net.citizensnpcs.trait.CommandCooldownStore.NPCCooldowns;
 import net.citizensnpcs.trait.shop.ExperienceAction;
 import net.citizensnpcs.trait.shop.ItemAction;
 import net.citizensnpcs.trait.shop.MoneyAction;
@@ -54,6 +56,7 @@ import net.citizensnpcs.trait.shop.NPCShopAction;
 import net.citizensnpcs.trait.shop.NPCShopAction.Transaction;
 import net.citizensnpcs.util.Messages;
 import net.citizensnpcs.util.StringHelper;
+import net.citizensnpcs.util.TimingWheel;
 import net.citizensnpcs.util.Util;
 
 @TraitName("commandtrait")
@@ -70,16 +73,17 @@ public class CommandTrait extends Trait {
     private ExecutionMode executionMode = ExecutionMode.LINEAR;
     @Persist
     private int experienceCost = -1;
-    @Persist(valueType = Long.class)
-    private final Map<String, Long> globalCooldowns = Maps.newHashMap();
     @Persist
     private boolean hideErrorMessages;
     @Persist
     private final List<ItemStack> itemRequirements = Lists.newArrayList();
+    private final Map<UUID, Long> lastClicks = Maps.newConcurrentMap();
+    private NPCCooldowns legacyCooldowns;
+    private NPCCooldowns localCooldowns;
+    private int pendingCommands;
     @Persist
     private boolean persistSequence = false;
-    @Persist(keyType = UUID.class, reify = true, value = "cooldowns")
-    private final Map<UUID, PlayerNPCCommand> playerTracking = Maps.newHashMap();
+    private CommandCooldownStore store;
     @Persist
     private final List<String> temporaryPermissions = Lists.newArrayList();
 
@@ -87,12 +91,27 @@ public class CommandTrait extends Trait {
         super("commandtrait");
     }
 
+    public CommandTrait(CommandCooldownStore store) {
+        this();
+        this.store = store;
+    }
+
     public int addCommand(NPCCommandBuilder builder) {
         int id = getNewId();
         commands.put(id, builder.build(id));
         return id;
     }
 
+    private PermissionAttachment addTemporaryPermissions(Player player) {
+        PermissionAttachment attachment = player.addAttachment(CitizensAPI.getPlugin());
+        if (attachment != null) {
+            for (String permission : temporaryPermissions) {
+                attachment.setPermission(permission, true);
+            }
+        }
+        return attachment;
+    }
+
     private Transaction chargeCommandCosts(Player player, Hand hand, NPCCommand command) {
         NPCShopAction action = null;
         if (player.hasPermission("citizens.npc.command.ignoreerrors.*"))
@@ -142,8 +161,9 @@ public class CommandTrait extends Trait {
     }
 
     public void clearHistory(CommandTraitError which, String raw) {
+        NPCCooldowns cooldowns = getCooldowns();
         if (which == CommandTraitError.ON_GLOBAL_COOLDOWN && raw != null) {
-            globalCooldowns.remove(BaseEncoding.base64().encode(raw.getBytes()));
+            cooldowns.global.remove(BaseEncoding.base64().encode(raw.getBytes()));
             return;
         }
         Player who = null;
@@ -155,9 +175,11 @@ public class CommandTrait extends Trait {
         }
         Collection<PlayerNPCCommand> toClear = Lists.newArrayList();
         if (who != null) {
-            toClear.add(playerTracking.get(who.getUniqueId()));
+            if (cooldowns.players.containsKey(who.getUniqueId())) {
+                toClear.add(cooldowns.players.get(who.getUniqueId()));
+            }
         } else {
-            toClear.addAll(playerTracking.values());
+            toClear.addAll(cooldowns.players.values());
         }
         switch (which) {
             case MAXIMUM_TIMES_USED:
@@ -173,7 +195,7 @@ public class CommandTrait extends Trait {
 
                 break;
             case ON_GLOBAL_COOLDOWN:
-                globalCooldowns.clear();
+                cooldowns.global.clear();
                 break;
             default:
                 return;
@@ -253,6 +275,8 @@ public class CommandTrait extends Trait {
     }
 
     public void dispatch(final Player player, Hand handIn) {
+        if (isRateLimited(player))
+            return;
         final Hand hand = player.isSneaking()
                 ? (handIn == CommandTrait.Hand.LEFT ? CommandTrait.Hand.SHIFT_LEFT : CommandTrait.Hand.SHIFT_RIGHT)
                 : handIn;
@@ -262,10 +286,77 @@ public class CommandTrait extends Trait {
             return;
         }
         Runnable task = new Runnable() {
+            PermissionAttachment attachment;
             Boolean charged = null;
 
             @Override
             public void run() {
+                try {
+                    runCommands();
+                } finally {
+                    if (attachment != null) {
+                        attachment.remove();
+                        attachment = null;
+                    }
+                }
+            }
+
+            private void runCommand(final Player player, NPCCommand command) {
+                Consumer<String> execute = interpolated -> {
+                    NPCCooldowns cooldowns = getCooldowns();
+                    PlayerNPCCommand info = cooldowns.players.get(player.getUniqueId());
+                    if (info == null && (executionMode == ExecutionMode.SEQUENTIAL
+                            || PlayerNPCCommand.requiresTracking(command))) {
+                        cooldowns.players.put(player.getUniqueId(), info = new PlayerNPCCommand());
+                    }
+                    Transaction charge = null;
+                    if (charged == null) {
+                        charge = chargeCommandCosts(player, hand, command);
+                        if (!charge.isPossible()) {
+                            charged = false;
+                            return;
+                        }
+                    }
+
+                    if (info != null && !info.canUse(CommandTrait.this, cooldowns.global, player, command))
+                        return;
+
+                    if (charged == null) {
+                        charge.run();
+                    }
+
+                    PermissionAttachment temporary = null;
+                    if (temporaryPermissions.size() > 0) {
+                        // immediate commands share a single attachment which is removed once the dispatch is done
+                        if (command.delay > 0) {
+                            temporary = addTemporaryPermissions(player);
+                        } else if (attachment == null) {
+                            attachment = addTemporaryPermissions(player);
+                        }
+                    }
+                    command.run(npc, player, interpolated != null ? interpolated : command.interpolate(npc, player));
+                    if (temporary != null) {
+                        temporary.remove();
+                    }
+                };
+                if (command.delay <= 0) {
+                    execute.accept(null);
+                    return;
+                }
+                if (pendingCommands >= Setting.NPC_COMMAND_MAXIMUM_PENDING_COMMANDS.asInt()) {
+                    Messaging.debug("Dropped delayed command for", npc, "as too many commands are pending");
+                    return;
+                }
+                // placeholders are resolved at dispatch time so the wheel only holds the final command
+                String interpolated = command.interpolate(npc, player);
+                pendingCommands++;
+                DELAYED_COMMANDS.schedule(() -> {
+                    pendingCommands--;
+                    execute.accept(interpolated);
+                }, command.delay);
+            }
+
+            private void runCommands() {
                 List<NPCCommand> commandList = Lists.newArrayList(Iterables.filter(commands.values(), command -> {
                     return command.hand == hand || command.hand == Hand.BOTH;
                 }));
@@ -285,7 +376,7 @@ public class CommandTrait extends Trait {
                 }
                 for (NPCCommand command : commandList) {
                     if (executionMode == ExecutionMode.SEQUENTIAL) {
-                        PlayerNPCCommand info = playerTracking.get(player.getUniqueId());
+                        PlayerNPCCommand info = getCooldowns().players.get(player.getUniqueId());
                         if (info != null && info.lastUsedHand != hand) {
                             info.lastUsedHand = hand;
                             info.lastUsedId = -1;
@@ -304,49 +395,6 @@ public class CommandTrait extends Trait {
                     }
                 }
             }
-
-            private void runCommand(final Player player, NPCCommand command) {
-                Runnable runnable = () -> {
-                    PlayerNPCCommand info = playerTracking.get(player.getUniqueId());
-                    if (info == null && (executionMode == ExecutionMode.SEQUENTIAL
-                            || PlayerNPCCommand.requiresTracking(command))) {
-                        playerTracking.put(player.getUniqueId(), info = new PlayerNPCCommand());
-                    }
-                    Transaction charge = null;
-                    if (charged == null) {
-                        charge = chargeCommandCosts(player, hand, command);
-                        if (!charge.isPossible()) {
-                            charged = false;
-                            return;
-                        }
-                    }
-
-                    if (info != null && !info.canUse(CommandTrait.this, player, command))
-                        return;
-
-                    if (charged == null) {
-                        charge.run();
-                    }
-
-                    if (temporaryPermissions.size() > 0) {
-                        PermissionAttachment attachment = player.addAttachment(CitizensAPI.getPlugin());
-                        if (attachment != null) {
-                            for (String permission : temporaryPermissions) {
-                                attachment.setPermission(permission, true);
-                            }
-                            command.run(npc, player);
-                            attachment.remove();
-                            return;
-                        }
-                    }
-                    command.run(npc, player);
-                };
-                if (command.delay <= 0) {
-                    runnable.run();
-                } else {
-                    Bukkit.getScheduler().scheduleSyncDelayedTask(CitizensAPI.getPlugin(), runnable, command.delay);
-                }
-            }
         };
         if (Bukkit.isPrimaryThread()) {
             task.run();
@@ -359,6 +407,23 @@ public class CommandTrait extends Trait {
         return null;
     }
 
+    private NPCCooldowns getCooldowns() {
+        NPCCooldowns cooldowns;
+        if (store != null) {
+            cooldowns = store.get(npc.getUniqueId());
+        } else {
+            if (localCooldowns == null) {
+                localCooldowns = new NPCCooldowns();
+            }
+            cooldowns = localCooldowns;
+        }
+        if (legacyCooldowns != null) {
+            cooldowns.merge(legacyCooldowns);
+            legacyCooldowns = null;
+        }
+        return cooldowns;
+    }
+
     public double getCost() {
         return cost;
     }
@@ -411,25 +476,89 @@ public class CommandTrait extends Trait {
         return hideErrorMessages;
     }
 
-    public boolean persistSequence() {
-        return persistSequence;
+    /**
+     * Rejects clicks from a player arriving faster than the configured click rate limit.
+     */
+    private boolean isRateLimited(Player player) {
+        long interval = Setting.NPC_COMMAND_CLICK_RATE_LIMIT.asTicks() * 50L;
+        if (interval <= 0)
+            return false;
+        long now = System.currentTimeMillis();
+        Long last = lastClicks.get(player.getUniqueId());
+        if (last != null && now - last < interval)
+            return true;
+        if (lastClicks.size() > 64) {
+            lastClicks.values().removeIf(time -> now - time >= interval);
+        }
+        lastClicks.put(player.getUniqueId(), now);
+        return false;
     }
 
-    public void removeCommandById(int id) {
-        commands.remove(id);
+    @Override
+    public void load(DataKey key) {
+        // cooldowns used to be persisted in the NPC save, move them to the cooldown store
+        if (!key.keyExists("cooldowns") && !key.keyExists("globalCooldowns"))
+            return;
+        legacyCooldowns = new NPCCooldowns();
+        for (DataKey sub : key.getRelative("globalCooldowns").getSubKeys()) {
+            legacyCooldowns.global.put(sub.name(), sub.getLong(""));
+        }
+        for (DataKey player : key.getRelative("cooldowns").getSubKeys()) {
+            PlayerNPCCommand command = new PlayerNPCCommand();
+            for (DataKey sub : player.getRelative("lastUsed").getSubKeys()) {
+                command.lastUsed.put(sub.name(), sub.getLong(""));
+            }
+            for (DataKey sub : player.getRelative("nUsed").getSubKeys()) {
+                command.nUsed.put(sub.name(), sub.getInt(""));
+            }
+            if (player.keyExists("lastUsedHand")) {
+                command.lastUsedHand = Hand.valueOf(player.getString("lastUsedHand"));
+            }
+            command.lastUsedId = player.getInt("lastUsedId", -1);
+            try {
+                legacyCooldowns.players.put(UUID.fromString(player.name()), command);
+            } catch (IllegalArgumentException e) {
+            }
+        }
+        key.removeKey("cooldowns");
+        key.removeKey("globalCooldowns");
+        if (npc != null) {
+            getCooldowns();
+        }
     }
 
     @Override
-    public void save(DataKey key) {
+    public void onAttach() {
+        if (legacyCooldowns != null) {
+            getCooldowns();
+        }
+    }
+
+    public boolean persistSequence() {
+        return persistSequence;
+    }
+
+    /**
+     * Removes elapsed cooldowns, usage of removed commands and players with nothing left to track.
+     */
+    void pruneCooldowns(NPCCooldowns cooldowns) {
         Collection<NPCCommand> commands = this.commands.values();
-        for (Iterator<PlayerNPCCommand> itr = playerTracking.values().iterator(); itr.hasNext();) {
+        for (Iterator<PlayerNPCCommand> itr = cooldowns.players.values().iterator(); itr.hasNext();) {
             PlayerNPCCommand playerCommand = itr.next();
-            playerCommand.prune(globalCooldowns, commands);
+            playerCommand.prune(cooldowns.global, commands);
             if (playerCommand.lastUsed.isEmpty() && playerCommand.nUsed.isEmpty()
                     && (!persistSequence || playerCommand.lastUsedId == -1)) {
                 itr.remove();
             }
         }
+        if (cooldowns.players.isEmpty()) {
+            // prune global cooldowns even when no player is tracked
+            new PlayerNPCCommand().prune(cooldowns.global, commands);
+        }
+    }
+
+    public void removeCommandById(int id) {
+        commands.remove(id);
     }
 
     private void sendErrorMessage(Player player, CommandTraitError msg, Function<String, String> transform,
@@ -624,8 +753,12 @@ public class CommandTrait extends Trait {
             return key = BaseEncoding.base64().encode(command.getBytes());
         }
 
-        public void run(NPC npc, Player clicker) {
-            Util.runCommand(npc, clicker, command, op, player);
+        public String interpolate(NPC npc, Player clicker) {
+            return Util.interpolateCommand(npc, clicker, command);
+        }
+
+        public void run(NPC npc, Player clicker, String interpolated) {
+            Util.runCommand(npc, clicker, command, interpolated, op, player);
         }
     }
 
@@ -765,20 +898,17 @@ public class CommandTrait extends Trait {
         }
     }
 
-    private static class PlayerNPCCommand {
-        @Persist(valueType = Long.class)
+    static class PlayerNPCCommand {
         Map<String, Long> lastUsed = Maps.newHashMap();
-        @Persist
         Hand lastUsedHand;
-        @Persist
         int lastUsedId = -1;
-        @Persist
         Map<String, Integer> nUsed = Maps.newHashMap();
 
         public PlayerNPCCommand() {
         }
 
-        public boolean canUse(CommandTrait trait, Player player, NPCCommand command) {
+        public boolean canUse(CommandTrait trait, Map<String, Long> globalCooldowns, Player player,
+                NPCCommand command) {
             for (String perm : command.perms) {
                 if (!player.hasPermission(perm)) {
                     trait.sendErrorMessage(player, CommandTraitError.NO_PERMISSION, null);
@@ -801,15 +931,15 @@ public class CommandTrait extends Trait {
                 lastUsed.remove(commandKey);
             }
             if (!player.hasPermission("citizens.npc.command.ignoreerrors.globalcooldown") && command.globalCooldown > 0
-                    && trait.globalCooldowns.containsKey(commandKey)) {
-                long deadline = ((Number) trait.globalCooldowns.get(commandKey)).longValue() + command.globalCooldown;
+                    && globalCooldowns.containsKey(commandKey)) {
+                long deadline = ((Number) globalCooldowns.get(commandKey)).longValue() + command.globalCooldown;
                 if (currentTimeSec < deadline) {
                     long seconds = deadline - currentTimeSec;
                     trait.sendErrorMessage(player, CommandTraitError.ON_GLOBAL_COOLDOWN,
                             new TimeVariableFormatter(seconds, TimeUnit.SECONDS), seconds);
                     return false;
                 }
-                trait.globalCooldowns.remove(commandKey);
+                globalCooldowns.remove(commandKey);
             }
             int timesUsed = nUsed.getOrDefault(commandKey, 0);
             if (!player.hasPermission("citizens.npc.command.ignoreerrors.nused") && command.n > 0
@@ -821,7 +951,7 @@ public class CommandTrait extends Trait {
                 lastUsed.put(commandKey, currentTimeSec);
             }
             if (command.globalCooldown > 0) {
-                trait.globalCooldowns.put(commandKey, currentTimeSec);
+                globalCooldowns.put(commandKey, currentTimeSec);
             }
             if (command.n > 0) {
                 nUsed.put(commandKey, timesUsed + 1);
@@ -894,4 +1024,6 @@ public class CommandTrait extends Trait {
             return StrSubstitutor.replace(t, map, "{", "}");
         }
     }
+
+    private static final TimingWheel DELAYED_COMMANDS = new TimingWheel(256);
 }
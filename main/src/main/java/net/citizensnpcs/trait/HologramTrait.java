@@ -2,6 +2,8 @@ package net.citizensnpcs.trait;
 
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.UUID;
 import java.util.function.BiFunction;
 import java.util.function.Function;
 import java.util.regex.Matcher;
@@ -21,6 +23,7 @@ import org.bukkit.event.player.PlayerTeleportEvent.TeleportCause;
 import org.bukkit.inventory.ItemStack;
 
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 
 import net.citizensnpcs.Settings.Setting;
 import net.citizensnpcs.api.CitizensAPI;
@@ -33,6 +36,7 @@ import net.citizensnpcs.api.trait.TraitName;
 import net.citizensnpcs.api.util.DataKey;
 import net.citizensnpcs.api.util.Placeholders;
 import net.citizensnpcs.api.util.SpigotUtil;
+import net.citizensnpcs.trait.PacketHologramRenderer.PacketLine;
 import net.citizensnpcs.util.NMS;
 import net.citizensnpcs.util.Util;
 
@@ -54,6 +58,7 @@ public class HologramTrait extends Trait {
     private final List<HologramLine> lines = Lists.newArrayList();
     private HologramLine nameLine;
     private final NPCRegistry registry = CitizensAPI.createCitizensBackedNPCRegistry(new MemoryNPCDataStore());
+    private PacketHologramRenderer renderer;
     private int t;
     private boolean useTextDisplay;
 
@@ -111,10 +116,7 @@ public class HologramTrait extends Trait {
             hologramNPC.addTrait(PacketNPC.class);
         }
 
-        hologramNPC.spawn(currentLoc.clone().add(0,
-                getEntityHeight()
-                        + (direction == HologramDirection.BOTTOM_UP ? heightOffset : getMaxHeight() - heightOffset),
-                0));
+        hologramNPC.spawn(getLineLocation(heightOffset));
 
         if (useTextDisplay) {
             ((TextDisplay) hologramNPC.getEntity()).setBillboard(Billboard.CENTER);
@@ -175,7 +177,7 @@ public class HologramTrait extends Trait {
     }
 
     /**
-     * Note: this is implementation-specific and may be removed at a later date.
+     * Note: this is implementation-specific and may be removed at a later date. Packet-only lines are not included.
      */
     public Collection<Entity> getHologramEntities() {
         return lines.stream().filter(l -> l.hologram != null && l.hologram.getEntity() != null)
@@ -196,6 +198,13 @@ public class HologramTrait extends Trait {
         return Lists.transform(lines, l -> l.text);
     }
 
+    private Location getLineLocation(double heightOffset) {
+        return currentLoc.clone().add(0,
+                getEntityHeight()
+                        + (direction == HologramDirection.BOTTOM_UP ? heightOffset : getMaxHeight() - heightOffset),
+                0);
+    }
+
     private double getMaxHeight() {
         return (lastNameplateVisible ? getLineHeight() : 0) + getHeight(lines.size() - 1);
     }
@@ -204,7 +213,16 @@ public class HologramTrait extends Trait {
      * Note: this is implementation-specific and may be removed at a later date.
      */
     public Entity getNameEntity() {
-        return nameLine != null && nameLine.hologram.isSpawned() ? nameLine.hologram.getEntity() : null;
+        return nameLine != null && nameLine.hologram != null && nameLine.hologram.isSpawned()
+                ? nameLine.hologram.getEntity()
+                : null;
+    }
+
+    private PacketHologramRenderer getRenderer() {
+        if (renderer == null) {
+            renderer = new PacketHologramRenderer(npc);
+        }
+        return renderer;
     }
 
     @Override
@@ -229,6 +247,10 @@ public class HologramTrait extends Trait {
         for (HologramLine line : lines) {
             line.removeNPC();
         }
+
+        if (renderer != null) {
+            renderer.clear();
+        }
     }
 
     @Override
@@ -319,9 +341,9 @@ public class HologramTrait extends Trait {
             lastEntityHeight = getEntityHeight();
         }
 
-        if (nameLine != null && nameLine.hologram.isSpawned()) {
+        if (nameLine != null && nameLine.isSpawned()) {
             if (updatePosition) {
-                nameLine.hologram.teleport(currentLoc.clone().add(0, getEntityHeight(), 0), TeleportCause.PLUGIN);
+                nameLine.teleport(currentLoc.clone().add(0, getEntityHeight(), 0));
             }
             if (updateName) {
                 nameLine.setText(npc.getRawName());
@@ -330,14 +352,13 @@ public class HologramTrait extends Trait {
 
         for (int i = 0; i < lines.size(); i++) {
             HologramLine line = lines.get(i);
-            NPC hologramNPC = line.hologram;
-            if (hologramNPC == null || !hologramNPC.isSpawned())
+            if (!line.isSpawned())
                 continue;
 
             if (updatePosition) {
                 Location tp = currentLoc.clone().add(0, lastEntityHeight
                         + (direction == HologramDirection.BOTTOM_UP ? getHeight(i) : getMaxHeight() - getHeight(i)), 0);
-                hologramNPC.teleport(tp, TeleportCause.PLUGIN);
+                line.teleport(tp);
             }
 
             if (line.ticks > 0 && --line.ticks == 0) {
@@ -347,8 +368,8 @@ public class HologramTrait extends Trait {
             }
 
             String text = line.text;
-            if (ITEM_MATCHER.matcher(text).matches()) {
-                hologramNPC.data().set(NPC.Metadata.NAMEPLATE_VISIBLE, false);
+            if (line.hologram != null && ITEM_MATCHER.matcher(text).matches()) {
+                line.hologram.data().set(NPC.Metadata.NAMEPLATE_VISIBLE, false);
                 continue;
             }
 
@@ -356,6 +377,11 @@ public class HologramTrait extends Trait {
                 continue;
 
             line.setText(text);
+            line.evictRenderedText();
+        }
+
+        if (renderer != null) {
+            renderer.run();
         }
     }
 
@@ -400,7 +426,7 @@ public class HologramTrait extends Trait {
 
         HologramLine line = lines.get(idx);
         line.setText(text);
-        if (line.hologram == null) {
+        if (!line.isSpawned()) {
             reloadLineHolograms();
         }
     }
@@ -466,8 +492,11 @@ public class HologramTrait extends Trait {
 
     private class HologramLine implements Function<Player, String> {
         NPC hologram;
+        String lastName;
         double mb, mt;
+        PacketLine packetLine;
         boolean persist;
+        private final Map<UUID, RenderedText> rendered = Maps.newConcurrentMap();
         String text;
         int ticks;
 
@@ -485,12 +514,46 @@ public class HologramTrait extends Trait {
             }
         }
 
+        /**
+         * Renders the line for a specific viewer. Called for every metadata packet, so the result is cached per player
+         * until the next hologram update.
+         */
         @Override
         public String apply(Player viewer) {
-            return Placeholders.replace(text, viewer, npc);
+            long now = System.currentTimeMillis();
+            RenderedText cached = rendered.get(viewer.getUniqueId());
+            if (cached != null && cached.expiresAt > now)
+                return cached.text;
+            String result = Placeholders.replace(text, viewer, npc);
+            rendered.put(viewer.getUniqueId(),
+                    new RenderedText(result, now + Setting.HOLOGRAM_UPDATE_RATE.asTicks() * 50L));
+            return result;
+        }
+
+        public void evictRenderedText() {
+            long now = System.currentTimeMillis();
+            rendered.values().removeIf(cached -> cached.expiresAt <= now);
+        }
+
+        public void teleport(Location to) {
+            if (packetLine != null) {
+                packetLine.teleport(to);
+            } else {
+                hologram.teleport(to, TeleportCause.PLUGIN);
+            }
+        }
+
+        public boolean isSpawned() {
+            return packetLine != null || (hologram != null && hologram.isSpawned());
         }
 
         public void removeNPC() {
+            rendered.clear();
+            lastName = null;
+            if (packetLine != null) {
+                renderer.removeLine(packetLine);
+                packetLine = null;
+            }
             if (hologram == null)
                 return;
 
@@ -499,12 +562,24 @@ public class HologramTrait extends Trait {
         }
 
         public void setText(String text) {
-            this.text = text == null ? "" : text;
+            text = text == null ? "" : text;
+            if (!text.equals(this.text)) {
+                rendered.clear();
+            }
+            this.text = text;
 
-            if (hologram != null) {
+            if (packetLine != null) {
+                String name = Placeholders.replace(text, null, npc);
+                packetLine.setName(name);
+                packetLine.setLineSupplier(getLineSupplier());
+            } else if (hologram != null) {
                 String name = Placeholders.replace(text, null, npc);
-                hologram.setName(name);
-                hologram.data().set(NPC.Metadata.NAMEPLATE_VISIBLE, ChatColor.stripColor(name).length() > 0);
+                // avoid resending metadata when the rendered text hasn't changed
+                if (!name.equals(lastName)) {
+                    lastName = name;
+                    hologram.setName(name);
+                    hologram.data().set(NPC.Metadata.NAMEPLATE_VISIBLE, ChatColor.stripColor(name).length() > 0);
+                }
                 if (Placeholders.containsPlayerPlaceholder(text)) {
                     hologram.data().set(NPC.Metadata.HOLOGRAM_LINE_SUPPLIER, this);
                 } else {
@@ -513,8 +588,21 @@ public class HologramTrait extends Trait {
             }
         }
 
+        private Function<Player, String> getLineSupplier() {
+            if (customHologramSupplier != null)
+                return p -> customHologramSupplier.apply(text, p);
+            return Placeholders.containsPlayerPlaceholder(text) ? this : null;
+        }
+
         public void spawnNPC(double height) {
             String name = Placeholders.replace(text, null, npc);
+            this.lastName = name;
+            if (Setting.PACKET_ONLY_HOLOGRAMS.asBoolean() && !ITEM_MATCHER.matcher(text).matches()) {
+                packetLine = getRenderer().createLine(name, getLineLocation(height), useTextDisplay);
+                packetLine.setLineSupplier(getLineSupplier());
+                lastEntityHeight = getEntityHeight();
+                return;
+            }
             this.hologram = createHologram(name, height);
             if (customHologramSupplier != null) {
                 hologram.data().set(NPC.Metadata.HOLOGRAM_LINE_SUPPLIER,
@@ -525,6 +613,27 @@ public class HologramTrait extends Trait {
         }
     }
 
+    private static class RenderedText {
+        private final long expiresAt;
+        private final String text;
+
+        private RenderedText(String text, long expiresAt) {
+            this.text = text;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /**
+     * Implementation-specific method: returns the per-player text supplier for a packet-only hologram line.
+     */
+    public static Function<Player, String> getPacketLineSupplier(int entityId) {
+        return PacketHologramRenderer.getLineSupplier(entityId);
+    }
+
+    public static boolean hasPacketLineSuppliers() {
+        return PacketHologramRenderer.hasLineSuppliers();
+    }
+
     private static final Pattern ITEM_MATCHER = Pattern.compile("<item:(.*?)([:].*?)?>");
     private static boolean SUPPORTS_TEXT_DISPLAY = false;
     static {
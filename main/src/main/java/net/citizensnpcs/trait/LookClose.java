@@ -29,6 +29,7 @@ import net.citizensnpcs.api.trait.Trait;
 import net.citizensnpcs.api.trait.TraitName;
 import net.citizensnpcs.api.util.DataKey;
 import net.citizensnpcs.trait.RotationTrait.PacketRotationSession;
+import net.citizensnpcs.util.LineOfSightCache;
 import net.citizensnpcs.util.NMS;
 import net.citizensnpcs.util.Util;
 
@@ -75,7 +76,7 @@ public class LookClose extends Trait implements Toggleable {
         if (player == null || !player.isValid())
             return false;
         return realisticLooking && npc.getEntity() instanceof LivingEntity
-                ? ((LivingEntity) npc.getEntity()).hasLineOfSight(player)
+                ? LineOfSightCache.hasLineOfSight((LivingEntity) npc.getEntity(), player)
                 : true;
     }
 
@@ -149,7 +150,7 @@ public class LookClose extends Trait implements Toggleable {
             double min = Double.MAX_VALUE;
             Location npcLoc = npc.getStoredLocation();
             for (Player player : getNearbyPlayers()) {
-                double dist = player.getLocation().distance(npcLoc);
+                double dist = player.getLocation().distanceSquared(npcLoc);
                 if (dist > min)
                     continue;
                 min = dist;
@@ -174,7 +175,7 @@ public class LookClose extends Trait implements Toggleable {
                 ? npc.getEntity().getNearbyEntities(range, range, range).stream()
                         .filter(e -> e.getType() == EntityType.PLAYER && e.getWorld() == npcLoc.getWorld())
                         .map(e -> (Player) e).collect(Collectors.toList())
-                : CitizensAPI.getLocationLookup().getNearbyPlayers(npcLoc, range);
+                : LookCloseService.getNearbyPlayers(npcLoc, range);
         for (Player player : nearby) {
             if (player == lookingAt || (!targetNPCs && CitizensAPI.getNPCRegistry().getNPC(player) != null))
                 continue;
@@ -234,7 +235,8 @@ public class LookClose extends Trait implements Toggleable {
 
     private boolean isValid(Player entity) {
         return entity.isOnline() && entity.isValid() && entity.getWorld() == npc.getEntity().getWorld()
-                && entity.getLocation().distance(npc.getStoredLocation()) <= range && !isInvisible(entity);
+                && entity.getLocation().distanceSquared(npc.getStoredLocation()) <= range * range
+                && !isInvisible(entity);
     }
 
     @Override
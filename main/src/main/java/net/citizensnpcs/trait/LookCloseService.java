@@ -0,0 +1,103 @@
+package net.citizensnpcs.trait;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import net.citizensnpcs.api.CitizensAPI;
+import net.citizensnpcs.api.LocationLookup;
+import net.citizensnpcs.npc.NPCUpdateScheduler;
+
+/**
+ * Shares the per-tick work of {@link LookClose} between NPCs. Nearby players are looked up once per tick for each
+ * region and range, and each NPC then filters the region's players by its own distance.
+ */
+class LookCloseService {
+    private static void advanceTick() {
+        int tick = NPCUpdateScheduler.getCurrentTick();
+        if (tick == LAST_TICK)
+            return;
+        LAST_TICK = tick;
+        REGIONS.clear();
+    }
+
+    /**
+     * Returns the players within range of the location, using the shared lookup for its region.
+     */
+    static List<Player> getNearbyPlayers(Location location, double range) {
+        advanceTick();
+        RegionKey key = new RegionKey(location.getWorld().getUID(), location.getBlockX() >> REGION_SHIFT,
+                location.getBlockY() >> REGION_SHIFT, location.getBlockZ() >> REGION_SHIFT, (int) Math.ceil(range));
+        List<Player> candidates = REGIONS.get(key);
+        if (candidates == null) {
+            REGIONS.put(key, candidates = queryRegion(location.getWorld(), key));
+        }
+        if (candidates.isEmpty())
+            return Collections.emptyList();
+        double rangeSquared = range * range;
+        List<Player> nearby = Lists.newArrayListWithCapacity(candidates.size());
+        for (Player player : candidates) {
+            // players may have changed world since the region was queried
+            if (player.getWorld() != location.getWorld())
+                continue;
+            if (player.getLocation(SCRATCH).distanceSquared(location) <= rangeSquared) {
+                nearby.add(player);
+            }
+        }
+        return nearby;
+    }
+
+    private static List<Player> queryRegion(World world, RegionKey key) {
+        LocationLookup lookup = CitizensAPI.getLocationLookup();
+        if (lookup == null)
+            return Collections.emptyList();
+        int half = 1 << (REGION_SHIFT - 1);
+        Location center = new Location(world, (key.x << REGION_SHIFT) + half, (key.y << REGION_SHIFT) + half,
+                (key.z << REGION_SHIFT) + half);
+        // the farthest point of the region from its center is half of the region's diagonal
+        return Lists.newArrayList(lookup.getNearbyPlayers(center, key.range + half * Math.sqrt(3)));
+    }
+
+    private static class RegionKey {
+        private final int range;
+        private final UUID world;
+        private final int x, y, z;
+
+        public RegionKey(UUID world, int x, int y, int z, int range) {
+            this.world = world;
+            this.x = x;
+            this.y = y;
+            this.z = z;
+            this.range = range;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj)
+                return true;
+            if (obj == null || getClass() != obj.getClass())
+                return false;
+            RegionKey other = (RegionKey) obj;
+            return x == other.x && y == other.y && z == other.z && range == other.range && world.equals(other.world);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(world, x, y, z, range);
+        }
+    }
+
+    private static int LAST_TICK = Integer.MIN_VALUE;
+    private static final int REGION_SHIFT = 5;
+    private static final Map<RegionKey, List<Player>> REGIONS = Maps.newHashMap();
+    private static final Location SCRATCH = new Location(null, 0, 0, 0);
+}
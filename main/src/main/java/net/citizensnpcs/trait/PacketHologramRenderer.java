@@ -0,0 +1,166 @@
+package net.citizensnpcs.trait;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Function;
+
+import org.bukkit.ChatColor;
+import org.bukkit.Location;
+import org.bukkit.entity.ArmorStand;
+import org.bukkit.entity.Display.Billboard;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.EntityType;
+import org.bukkit.entity.Player;
+import org.bukkit.entity.TextDisplay;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import net.citizensnpcs.api.CitizensAPI;
+import net.citizensnpcs.api.npc.NPC;
+import net.citizensnpcs.api.util.Messaging;
+import net.citizensnpcs.util.EntityPacketTracker;
+import net.citizensnpcs.util.EntityPacketTracker.PacketAggregator;
+import net.citizensnpcs.util.NMS;
+
+/**
+ * Renders hologram lines as client-side entities that are never added to the world or registered as NPCs. Nearby
+ * players are linked to every line, and each tick's spawn, move and metadata packets for all lines are bundled per
+ * player through a shared {@link PacketAggregator}.
+ */
+class PacketHologramRenderer {
+    private final PacketAggregator aggregator = new PacketAggregator();
+    private final List<PacketLine> lines = Lists.newArrayList();
+    private final NPC npc;
+    private final Map<UUID, Player> viewers = Maps.newHashMap();
+
+    PacketHologramRenderer(NPC npc) {
+        this.npc = npc;
+    }
+
+    public void clear() {
+        for (PacketLine line : Lists.newArrayList(lines)) {
+            removeLine(line);
+        }
+        viewers.clear();
+    }
+
+    public PacketLine createLine(String name, Location at, boolean textDisplay) {
+        Entity entity = NMS.createPacketEntity(textDisplay ? EntityType.TEXT_DISPLAY : EntityType.ARMOR_STAND, at);
+        if (textDisplay) {
+            ((TextDisplay) entity).setBillboard(Billboard.CENTER);
+            ((TextDisplay) entity).setInterpolationDelay(0);
+        } else {
+            ArmorStand stand = (ArmorStand) entity;
+            stand.setGravity(false);
+            stand.setArms(false);
+            stand.setBasePlate(false);
+            stand.setSmall(true);
+            stand.setMarker(true);
+            stand.setVisible(false);
+        }
+        PacketLine line = new PacketLine(entity, NMS.createPacketTracker(entity, aggregator), textDisplay);
+        line.setName(name);
+        for (Player viewer : viewers.values()) {
+            line.tracker.link(viewer);
+        }
+        lines.add(line);
+        return line;
+    }
+
+    public boolean isEmpty() {
+        return lines.isEmpty();
+    }
+
+    public void removeLine(PacketLine line) {
+        if (!lines.remove(line))
+            return;
+        LINE_SUPPLIERS.remove(line.getEntityId());
+        line.tracker.unlinkAll(null);
+    }
+
+    public void run() {
+        if (lines.isEmpty())
+            return;
+        Set<UUID> nearby = Sets.newHashSet();
+        for (Player player : CitizensAPI.getLocationLookup().getNearbyPlayers(npc)) {
+            nearby.add(player.getUniqueId());
+            if (viewers.put(player.getUniqueId(), player) == null) {
+                for (PacketLine line : lines) {
+                    line.tracker.link(player);
+                }
+            }
+        }
+        for (Iterator<Map.Entry<UUID, Player>> itr = viewers.entrySet().iterator(); itr.hasNext();) {
+            Map.Entry<UUID, Player> entry = itr.next();
+            if (nearby.contains(entry.getKey()))
+                continue;
+            itr.remove();
+            for (PacketLine line : lines) {
+                line.tracker.unlink(entry.getValue());
+            }
+        }
+        aggregator.startBundling();
+        for (PacketLine line : lines) {
+            line.tracker.run();
+        }
+        aggregator.stopBundlingAndSend();
+    }
+
+    public static class PacketLine {
+        private final Entity entity;
+        private String name;
+        private final boolean textDisplay;
+        private final EntityPacketTracker tracker;
+
+        private PacketLine(Entity entity, EntityPacketTracker tracker, boolean textDisplay) {
+            this.entity = entity;
+            this.tracker = tracker;
+            this.textDisplay = textDisplay;
+        }
+
+        public int getEntityId() {
+            return entity.getEntityId();
+        }
+
+        public void setLineSupplier(Function<Player, String> supplier) {
+            if (supplier == null) {
+                LINE_SUPPLIERS.remove(getEntityId());
+            } else {
+                LINE_SUPPLIERS.put(getEntityId(), supplier);
+            }
+        }
+
+        public void setName(String name) {
+            if (name.equals(this.name))
+                return;
+            this.name = name;
+            NMS.setCustomName(entity, Messaging.minecraftComponentFromRawMessage(name),
+                    Messaging.parseComponents(name));
+            if (!textDisplay) {
+                entity.setCustomNameVisible(ChatColor.stripColor(name).length() > 0);
+            }
+        }
+
+        public void teleport(Location to) {
+            NMS.setLocationDirectly(entity, to);
+        }
+    }
+
+    /**
+     * @see NPC.Metadata#HOLOGRAM_LINE_SUPPLIER
+     */
+    public static Function<Player, String> getLineSupplier(int entityId) {
+        return LINE_SUPPLIERS.get(entityId);
+    }
+
+    public static boolean hasLineSuppliers() {
+        return !LINE_SUPPLIERS.isEmpty();
+    }
+
+    private static final Map<Integer, Function<Player, String>> LINE_SUPPLIERS = Maps.newConcurrentMap();
+}
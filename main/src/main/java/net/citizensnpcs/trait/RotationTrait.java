@@ -4,7 +4,6 @@ import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.UUID;
 import java.util.function.Function;
 import java.util.function.Supplier;
@@ -14,10 +13,8 @@ import org.bukkit.entity.Entity;
 import org.bukkit.entity.LivingEntity;
 import org.bukkit.entity.Player;
 
-import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
-import com.google.common.collect.Sets;
 
 import net.citizensnpcs.api.npc.NPC;
 import net.citizensnpcs.api.persistence.Persist;
@@ -30,6 +27,8 @@ import net.citizensnpcs.util.Util;
 
 @TraitName("rotationtrait")
 public class RotationTrait extends Trait {
+    // every packet session exactly once, so that each is run once per tick without deduplicating the lookup maps
+    private final List<PacketRotationSession> activePacketSessions = Lists.newArrayList();
     @Persist(reify = true)
     private final RotationParams globalParameters = new RotationParams();
     private final RotationSession globalSession = new RotationSession(globalParameters);
@@ -41,6 +40,7 @@ public class RotationTrait extends Trait {
     }
 
     public void clearPacketSessions() {
+        activePacketSessions.clear();
         packetSessions.clear();
         packetSessionsByUUID.clear();
     }
@@ -55,11 +55,16 @@ public class RotationTrait extends Trait {
         PacketRotationSession lrs = new PacketRotationSession(session);
         if (params.uuidFilter != null) {
             for (UUID uuid : params.uuidFilter) {
-                packetSessionsByUUID.put(uuid, lrs);
+                PacketRotationSession replaced = packetSessionsByUUID.put(uuid, lrs);
+                // stop running a replaced session once no player is left using it
+                if (replaced != null && !packetSessionsByUUID.containsValue(replaced)) {
+                    activePacketSessions.remove(replaced);
+                }
             }
         } else {
             packetSessions.add(lrs);
         }
+        activePacketSessions.add(lrs);
         return lrs;
     }
 
@@ -99,16 +104,13 @@ public class RotationTrait extends Trait {
             NMS.setPitch(npc.getEntity(), 0);
         }
 
-        Set<PacketRotationSession> ran = Sets.newHashSet();
-        for (Iterator<PacketRotationSession> itr = Iterables.concat(packetSessions, packetSessionsByUUID.values())
-                .iterator(); itr.hasNext();) {
+        for (Iterator<PacketRotationSession> itr = activePacketSessions.iterator(); itr.hasNext();) {
             PacketRotationSession session = itr.next();
-            if (ran.contains(session))
-                continue;
-            ran.add(session);
             session.run(npc.getEntity());
             if (!session.isActive()) {
                 itr.remove();
+                packetSessions.remove(session);
+                packetSessionsByUUID.values().removeIf(s -> s == session);
             }
         }
 
@@ -459,9 +461,11 @@ public class RotationTrait extends Trait {
         private void run(RotationTriple rot) {
             if (!isActive())
                 return;
+            // the targets are computed once per tick as they are relative to the entity's current eye location
+            float targetYaw = getTargetYaw();
+            float targetPitch = getTargetPitch();
 
-            rot.headYaw = params.immediate ? getTargetYaw()
-                    : Util.clamp(params.rotateHeadYawTowards(t, rot.headYaw, getTargetYaw()));
+            rot.headYaw = params.immediate ? targetYaw : Util.clamp(params.rotateHeadYawTowards(t, rot.headYaw, targetYaw));
 
             if (!params.headOnly) {
                 float lo = Util.clamp(rot.headYaw - 20);
@@ -483,14 +487,14 @@ public class RotationTrait extends Trait {
                 }
             }
 
-            rot.pitch = params.immediate ? getTargetPitch() : params.rotatePitchTowards(t, rot.pitch, getTargetPitch());
+            rot.pitch = params.immediate ? targetPitch : params.rotatePitchTowards(t, rot.pitch, targetPitch);
             t++;
 
             if (params.linkedBody) {
                 rot.bodyYaw = rot.headYaw;
             }
 
-            if (Math.abs(rot.pitch - getTargetPitch()) + Math.abs(rot.headYaw - getTargetYaw()) < 0.1) {
+            if (Math.abs(rot.pitch - targetPitch) + Math.abs(rot.headYaw - targetYaw) < 0.1) {
                 t = -1;
                 if (!params.headOnly) {
                     rot.bodyYaw = rot.headYaw;
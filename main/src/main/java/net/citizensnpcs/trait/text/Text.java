@@ -10,6 +10,7 @@ import org.bukkit.GameMode;
 import org.bukkit.command.CommandSender;
 import org.bukkit.conversations.Conversation;
 import org.bukkit.conversations.ConversationFactory;
+import org.bukkit.entity.LivingEntity;
 import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.Listener;
@@ -30,6 +31,7 @@ import net.citizensnpcs.api.util.Paginator;
 import net.citizensnpcs.api.util.Placeholders;
 import net.citizensnpcs.editor.Editor;
 import net.citizensnpcs.trait.HologramTrait;
+import net.citizensnpcs.util.LineOfSightCache;
 import net.citizensnpcs.util.Messages;
 import net.citizensnpcs.util.Util;
 
@@ -179,6 +181,10 @@ public class Text extends Trait implements Runnable, Listener {
         for (Player player : CitizensAPI.getLocationLookup().getNearbyPlayers(npc.getEntity().getLocation(), range)) {
             if (player.getGameMode() == GameMode.SPECTATOR)
                 continue;
+            if (realisticLooker && Setting.TALK_CLOSE_REQUIRE_LINE_OF_SIGHT.asBoolean()
+                    && npc.getEntity() instanceof LivingEntity
+                    && !LineOfSightCache.hasLineOfSight((LivingEntity) npc.getEntity(), player))
+                continue;
             talk(player);
         }
     }
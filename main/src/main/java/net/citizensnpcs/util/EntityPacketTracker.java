@@ -1,14 +1,14 @@
 package net.citizensnpcs.util;
 
 import java.util.List;
-import java.util.Set;
+import java.util.Map;
 import java.util.UUID;
 import java.util.function.Consumer;
 
 import org.bukkit.entity.Player;
 
 import com.google.common.collect.Lists;
-import com.google.common.collect.Sets;
+import com.google.common.collect.Maps;
 
 public interface EntityPacketTracker extends Runnable {
     public void link(Player player);
@@ -17,16 +17,28 @@ public interface EntityPacketTracker extends Runnable {
 
     public void unlinkAll(Consumer<Player> callback);
 
+    /**
+     * Sends packets to the players linked to one or more trackers. Connections are reference counted so that several
+     * trackers can share an aggregator and have their packets bundled together.
+     */
     public static class PacketAggregator {
-        private final Set<PlayerConnection> connections = Sets.newHashSet();
+        private final Map<UUID, PlayerConnection> connections = Maps.newHashMap();
         private List<Object> packets;
 
         public void add(UUID uuid, Consumer<Object> conn) {
-            connections.add(new PlayerConnection(uuid, conn));
+            PlayerConnection existing = connections.get(uuid);
+            if (existing != null) {
+                existing.links++;
+                return;
+            }
+            connections.put(uuid, new PlayerConnection(conn));
         }
 
         public void removeConnection(UUID uuid) {
-            connections.remove(new PlayerConnection(uuid, null));
+            PlayerConnection existing = connections.get(uuid);
+            if (existing != null && --existing.links <= 0) {
+                connections.remove(uuid);
+            }
         }
 
         public void send(Object packet) {
@@ -34,7 +46,7 @@ public interface EntityPacketTracker extends Runnable {
                 packets.add(packet);
                 return;
             }
-            for (PlayerConnection conn : connections) {
+            for (PlayerConnection conn : connections.values()) {
                 conn.conn.accept(packet);
             }
         }
@@ -47,7 +59,7 @@ public interface EntityPacketTracker extends Runnable {
             Iterable<Object> packets = NMS.createBundlePacket(this.packets);
             this.packets = null;
             for (Object packet : packets) {
-                for (PlayerConnection conn : connections) {
+                for (PlayerConnection conn : connections.values()) {
                     conn.conn.accept(packet);
                 }
             }
@@ -55,36 +67,11 @@ public interface EntityPacketTracker extends Runnable {
 
         private static class PlayerConnection {
             Consumer<Object> conn;
-            UUID uuid;
+            int links = 1;
 
-            public PlayerConnection(UUID uuid, Consumer<Object> conn) {
-                this.uuid = uuid;
+            public PlayerConnection(Consumer<Object> conn) {
                 this.conn = conn;
             }
-
-            @Override
-            public boolean equals(Object obj) {
-                if (this == obj) {
-                    return true;
-                }
-                if (obj == null || getClass() != obj.getClass()) {
-                    return false;
-                }
-                PlayerConnection other = (PlayerConnection) obj;
-                if (uuid == null) {
-                    if (other.uuid != null) {
-                        return false;
-                    }
-                } else if (!uuid.equals(other.uuid)) {
-                    return false;
-                }
-                return true;
-            }
-
-            @Override
-            public int hashCode() {
-                return 31 + ((uuid == null) ? 0 : uuid.hashCode());
-            }
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,124 @@
+package net.citizensnpcs.util;
+
+import java.util.Map;
+import java.util.UUID;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.entity.LivingEntity;
+import org.bukkit.entity.Player;
+
+import com.google.common.collect.Maps;
+
+import net.citizensnpcs.Settings.Setting;
+import net.citizensnpcs.npc.NPCUpdateScheduler;
+
+/**
+ * Caches {@link LivingEntity#hasLineOfSight(org.bukkit.entity.Entity)} results between entities and players. A result
+ * is reused while both ends stay in the same block, until it expires or until a block changes inside the box spanned by
+ * the two ends.
+ */
+public class LineOfSightCache {
+    private static void advanceTick() {
+        int tick = NPCUpdateScheduler.getCurrentTick();
+        if (tick == LAST_TICK)
+            return;
+        LAST_TICK = tick;
+        int duration = Setting.LINE_OF_SIGHT_CACHE_DURATION.asTicks();
+        if (duration > 0 && (tick - LAST_SWEEP >= duration || tick < LAST_SWEEP)) {
+            LAST_SWEEP = tick;
+            for (Map<Long, SightCheck> checks : WORLDS.values()) {
+                checks.values().removeIf(check -> tick - check.tick >= duration);
+            }
+            WORLDS.values().removeIf(Map::isEmpty);
+        }
+    }
+
+    public static void clear() {
+        WORLDS.clear();
+    }
+
+    public static void clear(World world) {
+        WORLDS.remove(world.getUID());
+    }
+
+    /**
+     * Equivalent to {@link LivingEntity#hasLineOfSight(org.bukkit.entity.Entity)}, but reuses the last result if
+     * possible. Must be called from the main thread.
+     */
+    public static boolean hasLineOfSight(LivingEntity entity, Player player) {
+        int duration = Setting.LINE_OF_SIGHT_CACHE_DURATION.asTicks();
+        if (duration <= 0)
+            return entity.hasLineOfSight(player);
+        advanceTick();
+        Location from = entity.getLocation(FROM);
+        Location to = player.getLocation(TO);
+        if (from.getWorld() != to.getWorld())
+            return false;
+        Map<Long, SightCheck> checks = WORLDS.computeIfAbsent(from.getWorld().getUID(), uuid -> Maps.newHashMap());
+        long key = (long) entity.getEntityId() << 32 | (player.getEntityId() & 0xFFFFFFFFL);
+        SightCheck check = checks.get(key);
+        if (check != null && check.matches(from, to) && LAST_TICK - check.tick < duration)
+            return check.visible;
+        if (check == null) {
+            checks.put(key, check = new SightCheck());
+        }
+        check.visible = entity.hasLineOfSight(player);
+        check.tick = LAST_TICK;
+        check.set(from, to);
+        return check.visible;
+    }
+
+    /**
+     * Discards cached results whose ray could pass through the given block.
+     */
+    public static void invalidate(Block block) {
+        Map<Long, SightCheck> checks = WORLDS.get(block.getWorld().getUID());
+        if (checks == null || checks.isEmpty())
+            return;
+        int x = block.getX(), y = block.getY(), z = block.getZ();
+        checks.values().removeIf(check -> check.contains(x, y, z));
+    }
+
+    public static void invalidate(Iterable<Block> blocks) {
+        for (Block block : blocks) {
+            invalidate(block);
+        }
+    }
+
+    private static class SightCheck {
+        private int fromX, fromY, fromZ;
+        private int tick;
+        private int toX, toY, toZ;
+        private boolean visible;
+
+        private boolean contains(int x, int y, int z) {
+            // positions are feet blocks, so the box is padded to cover eye heights and rays grazing block edges
+            return x >= Math.min(fromX, toX) - 1 && x <= Math.max(fromX, toX) + 1 && z >= Math.min(fromZ, toZ) - 1
+                    && z <= Math.max(fromZ, toZ) + 1 && y >= Math.min(fromY, toY) - 1
+                    && y <= Math.max(fromY, toY) + EYE_PADDING;
+        }
+
+        private boolean matches(Location from, Location to) {
+            return fromX == from.getBlockX() && fromY == from.getBlockY() && fromZ == from.getBlockZ()
+                    && toX == to.getBlockX() && toY == to.getBlockY() && toZ == to.getBlockZ();
+        }
+
+        private void set(Location from, Location to) {
+            fromX = from.getBlockX();
+            fromY = from.getBlockY();
+            fromZ = from.getBlockZ();
+            toX = to.getBlockX();
+            toY = to.getBlockY();
+            toZ = to.getBlockZ();
+        }
+    }
+
+    private static final int EYE_PADDING = 3;
+    private static final Location FROM = new Location(null, 0, 0, 0);
+    private static int LAST_SWEEP;
+    private static int LAST_TICK = Integer.MIN_VALUE;
+    private static final Location TO = new Location(null, 0, 0, 0);
+    private static final Map<UUID, Map<Long, SightCheck>> WORLDS = Maps.newHashMap();
+}
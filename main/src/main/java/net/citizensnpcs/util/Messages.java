@@ -49,10 +49,16 @@ public class Messages {
     public static final String CITIZENS_IMPLEMENTATION_DISABLED = "citizens.changed-implementation";
     public static final String CITIZENS_INCOMPATIBLE = "citizens.notifications.incompatible-version";
     public static final String CITIZENS_INVALID_COMMAND_CLASS = "citizens.commands.invalid.class";
+    public static final String CITIZENS_PROFILE_DUMPED = "citizens.notifications.profile-dumped";
+    public static final String CITIZENS_PROFILE_NO_SAMPLES = "citizens.notifications.profile-no-samples";
+    public static final String CITIZENS_PROFILE_NOT_RUNNING = "citizens.notifications.profile-not-running";
+    public static final String CITIZENS_PROFILE_STARTED = "citizens.notifications.profile-started";
+    public static final String CITIZENS_PROFILE_STOPPED = "citizens.notifications.profile-stopped";
     public static final String CITIZENS_RELOAD_ERROR = "citizens.notifications.error-reloading";
     public static final String CITIZENS_RELOAD_WARNING = "citizens.notifications.reload-warning";
     public static final String CITIZENS_RELOADED = "citizens.notifications.reloaded";
     public static final String CITIZENS_RELOADING = "citizens.notifications.reloading";
+    public static final String CITIZENS_SAVE_STATISTICS = "citizens.notifications.save-statistics";
     public static final String CITIZENS_SAVED = "citizens.notifications.saved";
     public static final String CITIZENS_SAVING = "citizens.notifications.saving";
     public static final String COLLAR_COLOUR_NOT_RECOGNISED = "citizens.commands.npc.wolf.unknown-collar-color";
@@ -23,6 +23,7 @@ import org.bukkit.block.Block;
 import org.bukkit.command.BlockCommandSender;
 import org.bukkit.entity.Enderman;
 import org.bukkit.entity.Entity;
+import org.bukkit.entity.EntityType;
 import org.bukkit.entity.FishHook;
 import org.bukkit.entity.LivingEntity;
 import org.bukkit.entity.Ocelot;
@@ -153,6 +154,13 @@ public class NMS {
         return BRIDGE.createBundlePacket(packets);
     }
 
+    /**
+     * Creates an entity that is never added to the world, for use with {@link #createPacketTracker(Entity)}.
+     */
+    public static Entity createPacketEntity(EntityType type, Location at) {
+        return BRIDGE.createPacketEntity(type, at);
+    }
+
     public static EntityPacketTracker createPacketTracker(Entity entity) {
         return createPacketTracker(entity, new PacketAggregator());
     }
@@ -165,6 +173,13 @@ public class NMS {
         return BRIDGE.fillProfileProperties(profile, requireSecure);
     }
 
+    /**
+     * Sends the packets queued for players near NPCs since the last flush.
+     */
+    public static void flushPackets() {
+        BRIDGE.flushPackets();
+    }
+
     public static BlockBreaker getBlockBreaker(Entity entity, Block targetBlock, BlockBreakerConfiguration config) {
         return BRIDGE.getBlockBreaker(entity, targetBlock, config);
     }
@@ -12,6 +12,7 @@ import org.bukkit.block.Block;
 import org.bukkit.command.BlockCommandSender;
 import org.bukkit.entity.Enderman;
 import org.bukkit.entity.Entity;
+import org.bukkit.entity.EntityType;
 import org.bukkit.entity.FishHook;
 import org.bukkit.entity.LivingEntity;
 import org.bukkit.entity.Ocelot;
@@ -63,10 +64,15 @@ public interface NMSBridge {
         return packets;
     }
 
+    public Entity createPacketEntity(EntityType type, Location at);
+
     public EntityPacketTracker createPacketTracker(Entity entity, PacketAggregator agg);;
 
     public GameProfile fillProfileProperties(GameProfile profile, boolean requireSecure) throws Throwable;
 
+    public default void flushPackets() {
+    }
+
     public BlockBreaker getBlockBreaker(Entity entity, Block targetBlock, BlockBreakerConfiguration config);
 
     public default Object getBossBar(Entity entity) {
@@ -25,6 +25,16 @@ public class PlayerUpdateTask extends BukkitRunnable {
 
     @Override
     public void run() {
+        if (TickProfiler.isRunning()) {
+            long start = System.nanoTime();
+            tick();
+            TickProfiler.recordTask("PlayerUpdateTask", System.nanoTime() - start);
+        } else {
+            tick();
+        }
+    }
+
+    private void tick() {
         for (Entity entity : PLAYERS_PENDING_REMOVE) {
             PLAYERS.remove(entity.getUniqueId());
         }
@@ -0,0 +1,186 @@
+package net.citizensnpcs.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import net.citizensnpcs.api.npc.NPC;
+
+/**
+ * Samples how long traits, NPC updates, navigators and the player update task take each tick. Sampling is off until
+ * {@link #start()} is called so the hooks cost a single branch otherwise.
+ */
+public class TickProfiler {
+    public static class Histogram {
+        private final long[] buckets = new long[BUCKETS];
+        private long count;
+        private final String label;
+        private long max;
+        private long total;
+
+        private Histogram(String label) {
+            this.label = label;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+
+        public long getMaxNanos() {
+            return max;
+        }
+
+        public long getMeanNanos() {
+            return count == 0 ? 0 : total / count;
+        }
+
+        /**
+         * Returns an upper bound for the given percentile (0-1), accurate to the enclosing power of two.
+         */
+        public long getPercentileNanos(double percentile) {
+            long target = (long) Math.ceil(count * percentile);
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if (seen >= target && seen > 0)
+                    return Math.min(max, 1L << (i + 1));
+            }
+            return max;
+        }
+
+        public long getTotalNanos() {
+            return total;
+        }
+
+        private void record(long nanos) {
+            int bucket = nanos <= 1 ? 0 : 63 - Long.numberOfLeadingZeros(nanos);
+            buckets[Math.min(bucket, BUCKETS - 1)]++;
+            count++;
+            total += nanos;
+            if (nanos > max) {
+                max = nanos;
+            }
+        }
+    }
+
+    /**
+     * Writes the full report to a timestamped file in the given folder.
+     *
+     * @return the written file
+     */
+    public static File dump(File folder) throws IOException {
+        File file = new File(folder, "profile-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date()) + ".txt");
+        try (PrintWriter writer = new PrintWriter(file, StandardCharsets.UTF_8.name())) {
+            writer.println("Citizens tick profile");
+            writer.println("Ticks sampled: " + getTicks() + ", duration: " + getDurationMillis() + "ms");
+            writer.println();
+            writeSection(writer, "Tasks", TASKS);
+            writeSection(writer, "Traits", TRAITS);
+            writeSection(writer, "NPCs", NPCS);
+        }
+        return file;
+    }
+
+    private static String format(Histogram histogram, long ticks) {
+        return String.format("%s: %.3fms/tick, %d samples, mean %.1fus, p99 %.1fus, max %.1fus", histogram.getLabel(),
+                histogram.getTotalNanos() / 1000000D / Math.max(1, ticks), histogram.getCount(),
+                histogram.getMeanNanos() / 1000D, histogram.getPercentileNanos(0.99) / 1000D,
+                histogram.getMaxNanos() / 1000D);
+    }
+
+    public static long getDurationMillis() {
+        return (RUNNING ? System.currentTimeMillis() : STOPPED) - STARTED;
+    }
+
+    /**
+     * Counts ticks using the player update task, which runs every tick.
+     */
+    public static long getTicks() {
+        Histogram histogram = TASKS.get("PlayerUpdateTask");
+        return histogram == null ? 0 : histogram.getCount();
+    }
+
+    public static boolean hasSamples() {
+        return !TASKS.isEmpty() || !TRAITS.isEmpty() || !NPCS.isEmpty();
+    }
+
+    public static boolean isRunning() {
+        return RUNNING;
+    }
+
+    public static void recordNPC(NPC npc, long nanos) {
+        NPCS.computeIfAbsent(npc.getId(), id -> new Histogram(id + " " + npc.getRawName())).record(nanos);
+    }
+
+    public static void recordTask(String name, long nanos) {
+        TASKS.computeIfAbsent(name, Histogram::new).record(nanos);
+    }
+
+    public static void recordTrait(Class<?> clazz, long nanos) {
+        TRAITS.computeIfAbsent(clazz, c -> new Histogram(c.getSimpleName())).record(nanos);
+    }
+
+    public static void start() {
+        TASKS.clear();
+        TRAITS.clear();
+        NPCS.clear();
+        STARTED = System.currentTimeMillis();
+        RUNNING = true;
+    }
+
+    public static void stop() {
+        STOPPED = System.currentTimeMillis();
+        RUNNING = false;
+    }
+
+    /**
+     * Returns the most expensive traits and NPCs by total time, formatted for chat.
+     */
+    public static List<String> summarise(int limit) {
+        List<String> lines = Lists.newArrayList();
+        long ticks = getTicks();
+        for (Histogram histogram : top(TRAITS, limit)) {
+            lines.add("Trait " + format(histogram, ticks));
+        }
+        for (Histogram histogram : top(NPCS, limit)) {
+            lines.add("NPC " + format(histogram, ticks));
+        }
+        return lines;
+    }
+
+    private static List<Histogram> top(Map<?, Histogram> histograms, int limit) {
+        return histograms.values().stream().sorted(Comparator.comparingLong(Histogram::getTotalNanos).reversed())
+                .limit(limit).collect(Collectors.toList());
+    }
+
+    private static void writeSection(PrintWriter writer, String title, Map<?, Histogram> histograms) {
+        long ticks = getTicks();
+        writer.println(title + ":");
+        for (Histogram histogram : top(histograms, Integer.MAX_VALUE)) {
+            writer.println("  " + format(histogram, ticks));
+        }
+        writer.println();
+    }
+
+    private static final int BUCKETS = 40;
+    private static final Map<Integer, Histogram> NPCS = Maps.newHashMap();
+    private static boolean RUNNING;
+    private static long STARTED;
+    private static long STOPPED;
+    private static final Map<String, Histogram> TASKS = Maps.newHashMap();
+    private static final Map<Class<?>, Histogram> TRAITS = Maps.newHashMap();
+}
@@ -0,0 +1,80 @@
+package net.citizensnpcs.util;
+
+import java.util.ArrayDeque;
+
+import org.bukkit.Bukkit;
+import org.bukkit.scheduler.BukkitTask;
+
+import net.citizensnpcs.api.CitizensAPI;
+
+/**
+ * Runs delayed tasks on the main thread from a single repeating scheduler task rather than one scheduler task each.
+ * Tasks are placed into per-tick slots, and tasks delayed for longer than a full revolution wait out their remaining
+ * rounds. The scheduler task is only running while tasks are pending.
+ */
+public class TimingWheel {
+    private int cursor;
+    private final int mask;
+    private int pending;
+    private final ArrayDeque<Entry>[] slots;
+    private BukkitTask task;
+
+    /**
+     * @param size
+     *            the number of slots, rounded up to a power of two
+     */
+    @SuppressWarnings("unchecked")
+    public TimingWheel(int size) {
+        int slotCount = Integer.highestOneBit(Math.max(2, size) - 1) << 1;
+        this.slots = new ArrayDeque[slotCount];
+        for (int i = 0; i < slotCount; i++) {
+            slots[i] = new ArrayDeque<>();
+        }
+        this.mask = slotCount - 1;
+    }
+
+    /**
+     * Schedules the task to run after the given number of ticks (at least one). Must be called from the main thread.
+     */
+    public void schedule(Runnable runnable, int delay) {
+        delay = Math.max(1, delay);
+        slots[(cursor + delay) & mask].add(new Entry(runnable, (delay - 1) / slots.length));
+        pending++;
+        if (task == null) {
+            task = Bukkit.getScheduler().runTaskTimer(CitizensAPI.getPlugin(), this::tick, 1, 1);
+        }
+    }
+
+    private void tick() {
+        cursor = (cursor + 1) & mask;
+        ArrayDeque<Entry> slot = slots[cursor];
+        // tasks added to this slot while running belong to a later revolution
+        for (int i = slot.size(); i > 0; i--) {
+            Entry entry = slot.poll();
+            if (entry.rounds-- > 0) {
+                slot.add(entry);
+                continue;
+            }
+            pending--;
+            try {
+                entry.runnable.run();
+            } catch (Throwable t) {
+                t.printStackTrace();
+            }
+        }
+        if (pending == 0 && task != null) {
+            task.cancel();
+            task = null;
+        }
+    }
+
+    private static class Entry {
+        private int rounds;
+        private final Runnable runnable;
+
+        private Entry(Runnable runnable, int rounds) {
+            this.runnable = runnable;
+            this.rounds = rounds;
+        }
+    }
+}
@@ -258,6 +258,21 @@ public class Util {
         return in.getType().isSolid() && above.getType().isSolid() && NMS.isSolid(in) && NMS.isSolid(above);
     }
 
+    /**
+     * Expands command shorthands and replaces placeholders in a command for {@link #runCommand}.
+     */
+    public static String interpolateCommand(NPC npc, Player clicker, String command) {
+        String cmd = command;
+        if (command.startsWith("say")) {
+            cmd = "npc speak " + command.replaceFirst("say", "").trim() + " --target <p>";
+        }
+        if ((cmd.startsWith("npc ") || cmd.startsWith("waypoints ") || cmd.startsWith("wp "))
+                && !cmd.contains("--id ")) {
+            cmd += " --id <id>";
+        }
+        return Placeholders.replace(cmd, clicker, npc);
+    }
+
     public static boolean isAlwaysFlyable(EntityType type) {
         if (type.name().toLowerCase().equals("vex") || type.name().toLowerCase().equals("parrot")
                 || type.name().toLowerCase().equals("allay") || type.name().toLowerCase().equals("bee")
@@ -417,17 +432,16 @@ public class Util {
     }
 
     public static void runCommand(NPC npc, Player clicker, String command, boolean op, boolean player) {
+        runCommand(npc, clicker, command, interpolateCommand(npc, clicker, command), op, player);
+    }
+
+    /**
+     * Runs a command which was already interpolated using {@link #interpolateCommand(NPC, Player, String)}.
+     */
+    public static void runCommand(NPC npc, Player clicker, String command, String interpolatedCommand, boolean op,
+            boolean player) {
         List<String> split = Splitter.on(' ').omitEmptyStrings().trimResults().limit(2).splitToList(command);
         String bungeeServer = split.size() == 2 && split.get(0).equalsIgnoreCase("server") ? split.get(1) : null;
-        String cmd = command;
-        if (command.startsWith("say")) {
-            cmd = "npc speak " + command.replaceFirst("say", "").trim() + " --target <p>";
-        }
-        if ((cmd.startsWith("npc ") || cmd.startsWith("waypoints ") || cmd.startsWith("wp "))
-                && !cmd.contains("--id ")) {
-            cmd += " --id <id>";
-        }
-        String interpolatedCommand = Placeholders.replace(cmd, clicker, npc);
         Messaging.idebug(() -> "Running command " + interpolatedCommand + " on NPC " + (npc == null ? -1 : npc.getId())
                 + " clicker " + clicker);
 
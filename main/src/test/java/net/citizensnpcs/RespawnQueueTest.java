@@ -0,0 +1,92 @@
+package net.citizensnpcs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.UUID;
+
+import org.junit.Test;
+
+import net.citizensnpcs.api.npc.NPC;
+import net.citizensnpcs.util.ChunkCoord;
+
+public class RespawnQueueTest {
+    private final RespawnQueue queue = new RespawnQueue();
+    private final UUID world = UUID.randomUUID();
+
+    @Test
+    public void indexesByChunk() {
+        NPC first = mock(NPC.class), second = mock(NPC.class), third = mock(NPC.class);
+        ChunkCoord chunk = new ChunkCoord(world, 0, 0), other = new ChunkCoord(world, 1, -1);
+        queue.put(chunk, first);
+        queue.put(chunk, second);
+        queue.put(other, third);
+        assertEquals(Arrays.asList(first, second), queue.get(chunk));
+        assertEquals(Collections.singletonList(third), queue.get(other));
+        assertTrue(queue.containsChunk(chunk));
+        assertTrue(queue.contains(chunk, first));
+        assertFalse(queue.contains(other, first));
+        assertSame(other, queue.getCoord(third));
+        assertEquals(2, queue.getChunks(world).size());
+        assertTrue(queue.getChunks(UUID.randomUUID()).isEmpty());
+        assertTrue(queue.get(new ChunkCoord(UUID.randomUUID(), 0, 0)).isEmpty());
+    }
+
+    @Test
+    public void movesNPCBetweenChunks() {
+        NPC npc = mock(NPC.class);
+        ChunkCoord chunk = new ChunkCoord(world, 0, 0), other = new ChunkCoord(world, 5, 5);
+        queue.put(chunk, npc);
+        queue.put(other, npc);
+        assertFalse(queue.containsChunk(chunk));
+        assertFalse(queue.contains(chunk, npc));
+        assertTrue(queue.contains(other, npc));
+        assertEquals(Collections.singletonList(other), queue.getChunks(world));
+    }
+
+    @Test
+    public void removesEmptyChunks() {
+        NPC npc = mock(NPC.class), other = mock(NPC.class);
+        ChunkCoord chunk = new ChunkCoord(world, 0, 0);
+        queue.put(chunk, npc);
+        queue.put(chunk, other);
+        assertTrue(queue.remove(npc));
+        assertFalse(queue.remove(npc));
+        assertNull(queue.getCoord(npc));
+        assertTrue(queue.containsChunk(chunk));
+        assertTrue(queue.remove(other));
+        assertFalse(queue.containsChunk(chunk));
+        assertTrue(queue.getChunks(world).isEmpty());
+    }
+
+    @Test
+    public void schedulesChunkInOrder() {
+        NPC first = mock(NPC.class), second = mock(NPC.class), elsewhere = mock(NPC.class);
+        ChunkCoord chunk = new ChunkCoord(world, 0, 0);
+        queue.put(chunk, first);
+        queue.put(new ChunkCoord(world, 1, 0), elsewhere);
+        queue.put(chunk, second);
+        assertFalse(queue.hasPending());
+        queue.schedule(chunk);
+        assertSame(first, queue.pollPending());
+        assertSame(second, queue.pollPending());
+        assertFalse(queue.hasPending());
+        assertTrue(queue.contains(chunk, first));
+    }
+
+    @Test
+    public void unchangedPutKeepsOrder() {
+        NPC first = mock(NPC.class), second = mock(NPC.class);
+        ChunkCoord chunk = new ChunkCoord(world, 0, 0);
+        queue.put(chunk, first);
+        queue.put(chunk, second);
+        queue.put(new ChunkCoord(world, 0, 0), first);
+        assertEquals(Arrays.asList(first, second), queue.get(chunk));
+    }
+}
@@ -0,0 +1,94 @@
+package net.citizensnpcs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Collections;
+
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import net.citizensnpcs.api.util.DataKey;
+
+public class ShardedYamlStorageTest {
+    private File shards;
+    private ShardedYamlStorage storage;
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    @Test
+    public void keepsShardOfUnloadedWorld() {
+        DataKey location = storage.getKey("npc.0.traits.location");
+        location.setString("world", "world");
+        location.setDouble("x", 0);
+        storage.loadWorld("world");
+        storage.save();
+        File shard = new File(shards, "world/r.0.0.yml");
+        assertTrue(shard.exists());
+
+        ShardedYamlStorage reloaded = new ShardedYamlStorage(new File(temp.getRoot(), "saves.yml"), "test");
+        assertTrue(reloaded.load());
+        assertFalse(reloaded.getKey("npc").keyExists("0"));
+        reloaded.save();
+        assertTrue(YamlConfiguration.loadConfiguration(shard).isConfigurationSection("npc.0"));
+        assertEquals(1, reloaded.loadWorld("world").size());
+    }
+
+    @Test
+    public void movesNPCBetweenShards() {
+        storage.loadWorld("world");
+        DataKey location = storage.getKey("npc.0.traits.location");
+        location.setString("world", "world");
+        location.setDouble("x", 600);
+        location.setDouble("z", 0);
+        storage.save();
+        File before = new File(shards, "world/r.1.0.yml");
+        assertTrue(before.exists());
+
+        location.setDouble("x", 10);
+        storage.prepareSave(Collections.singleton("0")).run();
+        assertFalse(before.exists());
+        assertTrue(YamlConfiguration.loadConfiguration(new File(shards, "world/r.0.0.yml"))
+                .isConfigurationSection("npc.0"));
+    }
+
+    private ConfigurationSection npc(String world, double x, double z) {
+        YamlConfiguration config = new YamlConfiguration();
+        if (world != null) {
+            config.set("traits.location.world", world);
+        }
+        config.set("traits.location.x", x);
+        config.set("traits.location.z", z);
+        return config;
+    }
+
+    @Test
+    public void selectsRegionShard() {
+        assertEquals(new File(shards, "world/r.0.0.yml"), storage.getShard(npc("world", 0, 511.9)));
+        assertEquals(new File(shards, "world/r.1.0.yml"), storage.getShard(npc("world", 512, 0)));
+        assertEquals(new File(shards, "world/r.-1.-1.yml"), storage.getShard(npc("world", -0.5, -512)));
+        assertEquals(new File(shards, "world/r.0.-2.yml"), storage.getShard(npc("world", 3, -513)));
+        assertEquals(new File(shards, "nether/r.0.0.yml"), storage.getShard(npc("nether", 0, 0)));
+    }
+
+    @Test
+    public void selectsUnplacedShard() {
+        assertEquals(new File(shards, "unplaced.yml"), storage.getShard(npc(null, 600, 600)));
+        assertEquals(new File(shards, "unplaced.yml"), storage.getShard(npc("", 600, 600)));
+    }
+
+    @Before
+    public void setUp() {
+        TestServer.setup();
+        File file = new File(temp.getRoot(), "saves.yml");
+        shards = new File(temp.getRoot(), "saves-shards");
+        storage = new ShardedYamlStorage(file, "test");
+        assertTrue(storage.load());
+    }
+}
@@ -0,0 +1,54 @@
+package net.citizensnpcs;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.logging.Logger;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Server;
+import org.bukkit.plugin.PluginManager;
+import org.bukkit.scheduler.BukkitScheduler;
+import org.bukkit.scoreboard.ScoreboardManager;
+
+import net.citizensnpcs.api.CitizensAPI;
+import net.citizensnpcs.api.CitizensPlugin;
+import net.citizensnpcs.api.npc.NPCRegistry;
+
+/**
+ * Mocked Bukkit server and Citizens plugin for tests which do not need a running server. The server and plugin can
+ * only be installed once per JVM, so they are shared by every test.
+ */
+public class TestServer {
+    /**
+     * Returns the mocked scheduler of the shared server. Tests should reset it before stubbing.
+     */
+    public static BukkitScheduler getScheduler() {
+        setup();
+        return SCHEDULER;
+    }
+
+    /**
+     * Installs the mocked server and plugin if they are not set. Safe to call more than once.
+     */
+    public static synchronized void setup() {
+        if (Bukkit.getServer() == null) {
+            Server server = mock(Server.class);
+            when(server.getLogger()).thenReturn(Logger.getLogger("Citizens tests"));
+            when(server.getName()).thenReturn("Test");
+            when(server.getVersion()).thenReturn("test (MC: 1.20.1)");
+            when(server.getBukkitVersion()).thenReturn("1.20.1-R0.1-SNAPSHOT");
+            when(server.getPluginManager()).thenReturn(mock(PluginManager.class));
+            when(server.getScheduler()).thenReturn(SCHEDULER);
+            when(server.getScoreboardManager()).thenReturn(mock(ScoreboardManager.class));
+            Bukkit.setServer(server);
+        }
+        if (!CitizensAPI.hasImplementation()) {
+            CitizensPlugin plugin = mock(CitizensPlugin.class);
+            when(plugin.getNPCRegistry()).thenReturn(mock(NPCRegistry.class));
+            CitizensAPI.setImplementation(plugin);
+        }
+    }
+
+    private static final BukkitScheduler SCHEDULER = mock(BukkitScheduler.class);
+}
@@ -0,0 +1,52 @@
+package net.citizensnpcs.npc;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import net.citizensnpcs.npc.EntityMetadataTracker.Key;
+
+public class EntityMetadataTrackerTest {
+    @Test
+    public void appliesChangedValue() {
+        EntityMetadataTracker tracker = new EntityMetadataTracker();
+        assertTrue(tracker.changed(Key.GLOWING, false));
+        assertTrue(tracker.changed(Key.GLOWING, true));
+        assertFalse(tracker.changed(Key.GLOWING, true));
+    }
+
+    @Test
+    public void appliesFirstValue() {
+        EntityMetadataTracker tracker = new EntityMetadataTracker();
+        assertTrue(tracker.changed(Key.SILENT, false));
+        assertFalse(tracker.changed(Key.SILENT, false));
+    }
+
+    @Test
+    public void appliesFirstNullValue() {
+        EntityMetadataTracker tracker = new EntityMetadataTracker();
+        assertTrue(tracker.changed(Key.KNOCKBACK_RESISTANCE, null));
+        assertFalse(tracker.changed(Key.KNOCKBACK_RESISTANCE, null));
+    }
+
+    @Test
+    public void reappliesAfterReset() {
+        EntityMetadataTracker tracker = new EntityMetadataTracker();
+        tracker.changed(Key.GLOWING, true);
+        tracker.changed(Key.PICKUP_ITEMS, false);
+        tracker.reset();
+        assertTrue(tracker.changed(Key.GLOWING, true));
+        assertTrue(tracker.changed(Key.PICKUP_ITEMS, false));
+    }
+
+    @Test
+    public void tracksKeysSeparately() {
+        EntityMetadataTracker tracker = new EntityMetadataTracker();
+        assertTrue(tracker.changed(Key.GLOWING, true));
+        assertTrue(tracker.changed(Key.SILENT, true));
+        assertFalse(tracker.changed(Key.GLOWING, true));
+        assertTrue(tracker.changed(Key.PICKUP_ITEMS, true));
+        assertFalse(tracker.changed(Key.SILENT, true));
+    }
+}
@@ -0,0 +1,123 @@
+package net.citizensnpcs.npc.ai;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+import java.util.UUID;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.EntityType;
+import org.bukkit.util.Vector;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+import net.citizensnpcs.TestServer;
+import net.citizensnpcs.api.ai.NavigatorParameters;
+import net.citizensnpcs.api.npc.NPC;
+import net.citizensnpcs.npc.ai.PathCache.Profile;
+
+public class PathCacheTest {
+    private Location from;
+    private Profile profile;
+    private Location to;
+    private World world;
+
+    private Block block(World world, int x, int y, int z) {
+        Block block = mock(Block.class);
+        when(block.getWorld()).thenReturn(world);
+        when(block.getX()).thenReturn(x);
+        when(block.getY()).thenReturn(y);
+        when(block.getZ()).thenReturn(z);
+        return block;
+    }
+
+    @Test
+    public void clearsOnlyGivenWorld() {
+        World other = world();
+        Location otherFrom = new Location(other, 0, 64, 0), otherTo = new Location(other, 20, 64, 0);
+        PathCache.put(from, to, profile, path(64));
+        PathCache.put(otherFrom, otherTo, profile, path(64));
+        PathCache.clear(world);
+        assertNull(PathCache.get(from, to, profile));
+        assertNotNull(PathCache.get(otherFrom, otherTo, profile));
+    }
+
+    @Test
+    public void invalidatesBlockNextToPath() {
+        PathCache.put(from, to, profile, path(64));
+        PathCache.invalidate(block(world, 5, 63, 1));
+        assertNull(PathCache.get(from, to, profile));
+    }
+
+    @Test
+    public void invalidatesBlockNextToPathInNeighbouringChunk() {
+        // the path ends at x = 20 in chunk 1, the block is one block past its start in chunk -1
+        PathCache.put(from, to, profile, path(64));
+        PathCache.invalidate(block(world, -1, 64, 0));
+        assertNull(PathCache.get(from, to, profile));
+    }
+
+    @Test
+    public void keepsPathForDistantBlock() {
+        PathCache.put(from, to, profile, path(64));
+        PathCache.invalidate(block(world, 5, 64, 8));
+        PathCache.invalidate(block(world, 5, 70, 0));
+        PathCache.invalidate(block(world(), 5, 64, 0));
+        assertNotNull(PathCache.get(from, to, profile));
+    }
+
+    private List<Vector> path(int y) {
+        List<Vector> path = Lists.newArrayList();
+        for (int x = 0; x <= 20; x++) {
+            path.add(new Vector(x, y, 0));
+        }
+        return path;
+    }
+
+    @Test
+    public void returnsCopy() {
+        List<Vector> path = path(64);
+        PathCache.put(from, to, profile, path);
+        List<Vector> cached = PathCache.get(from, to, profile);
+        assertEquals(path, cached);
+        cached.get(0).setY(100);
+        path.get(1).setY(100);
+        assertEquals(path(64), PathCache.get(from, to, profile));
+    }
+
+    @Before
+    public void setUp() {
+        TestServer.setup();
+        PathCache.clear();
+        world = world();
+        from = new Location(world, 0, 64, 0);
+        to = new Location(world, 20, 64, 0);
+        NPC npc = mock(NPC.class);
+        Entity entity = mock(Entity.class);
+        when(entity.getType()).thenReturn(EntityType.VILLAGER);
+        when(npc.getEntity()).thenReturn(entity);
+        profile = PathCache.profile(npc, new NavigatorParameters());
+    }
+
+    @Test
+    public void skipsUncacheableProfile() {
+        PathCache.put(from, to, null, path(64));
+        assertNull(PathCache.get(from, to, null));
+        assertNull(PathCache.get(from, to, profile));
+    }
+
+    private World world() {
+        World world = mock(World.class);
+        when(world.getUID()).thenReturn(UUID.randomUUID());
+        return world;
+    }
+}
@@ -0,0 +1,126 @@
+package net.citizensnpcs.trait;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.UUID;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.collect.ImmutableMap;
+
+import net.citizensnpcs.TestServer;
+import net.citizensnpcs.trait.CommandCooldownStore.NPCCooldowns;
+import net.citizensnpcs.trait.CommandTrait.Hand;
+import net.citizensnpcs.trait.CommandTrait.PlayerNPCCommand;
+
+public class CommandCooldownStoreTest {
+    private File file;
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void dropsRemovedNPCs() {
+        CommandCooldownStore store = new CommandCooldownStore(file);
+        UUID npc = UUID.randomUUID();
+        store.get(npc).global.put("say hello", 100L);
+        store.remove(npc);
+        store.snapshot().run();
+
+        CommandCooldownStore loaded = new CommandCooldownStore(file);
+        assertTrue(loaded.load());
+        assertTrue(loaded.get(npc).isEmpty());
+    }
+
+    @Test
+    public void keepsCooldownsOfUnloadedNPCs() {
+        // the mocked registry finds no NPCs, as if their world was not loaded yet
+        CommandCooldownStore store = new CommandCooldownStore(file);
+        UUID npc = UUID.randomUUID();
+        store.get(npc).global.put("say hello", 100L);
+        store.snapshot().run();
+        store.snapshot().run();
+
+        CommandCooldownStore loaded = new CommandCooldownStore(file);
+        assertTrue(loaded.load());
+        assertEquals(ImmutableMap.of("say hello", 100L), loaded.get(npc).global);
+    }
+
+    @Test
+    public void loadsMissingFileAsEmpty() {
+        CommandCooldownStore store = new CommandCooldownStore(file);
+        assertTrue(store.load());
+        assertTrue(store.get(UUID.randomUUID()).isEmpty());
+    }
+
+    @Test
+    public void rejectsCorruptFile() throws IOException {
+        Files.write(file.toPath(), new byte[] { 1, 2, 3 });
+        CommandCooldownStore store = new CommandCooldownStore(file);
+        assertFalse(store.load());
+    }
+
+    @Test
+    public void roundTrip() {
+        CommandCooldownStore store = new CommandCooldownStore(file);
+        UUID npc = UUID.randomUUID(), player = UUID.randomUUID(), other = UUID.randomUUID();
+        NPCCooldowns cooldowns = store.get(npc);
+        cooldowns.global.put("say hello", 100L);
+        PlayerNPCCommand command = new PlayerNPCCommand();
+        command.lastUsedHand = Hand.RIGHT;
+        command.lastUsedId = 3;
+        command.lastUsed.put("say hello", 50L);
+        command.lastUsed.put("give diamond", 60L);
+        command.nUsed.put("give diamond", 2);
+        cooldowns.players.put(player, command);
+        cooldowns.players.put(other, new PlayerNPCCommand());
+        store.snapshot().run();
+
+        CommandCooldownStore loaded = new CommandCooldownStore(file);
+        assertTrue(loaded.load());
+        NPCCooldowns read = loaded.get(npc);
+        assertEquals(cooldowns.global, read.global);
+        assertEquals(2, read.players.size());
+        PlayerNPCCommand readCommand = read.players.get(player);
+        assertEquals(Hand.RIGHT, readCommand.lastUsedHand);
+        assertEquals(3, readCommand.lastUsedId);
+        assertEquals(command.lastUsed, readCommand.lastUsed);
+        assertEquals(command.nUsed, readCommand.nUsed);
+        PlayerNPCCommand readOther = read.players.get(other);
+        assertNull(readOther.lastUsedHand);
+        assertEquals(-1, readOther.lastUsedId);
+        assertTrue(readOther.lastUsed.isEmpty());
+        assertTrue(readOther.nUsed.isEmpty());
+    }
+
+    @Before
+    public void setUp() {
+        TestServer.setup();
+        file = new File(folder.getRoot(), "cooldowns.dat");
+    }
+
+    @Test
+    public void sharesKeyStringsAfterLoading() {
+        CommandCooldownStore store = new CommandCooldownStore(file);
+        UUID npc = UUID.randomUUID(), player = UUID.randomUUID();
+        store.get(npc).global.put("say hello", 100L);
+        PlayerNPCCommand command = new PlayerNPCCommand();
+        command.lastUsed.put("say hello", 50L);
+        store.get(npc).players.put(player, command);
+        store.snapshot().run();
+
+        CommandCooldownStore loaded = new CommandCooldownStore(file);
+        assertTrue(loaded.load());
+        String global = loaded.get(npc).global.keySet().iterator().next();
+        String perPlayer = loaded.get(npc).players.get(player).lastUsed.keySet().iterator().next();
+        assertTrue(global == perPlayer);
+    }
+}
@@ -0,0 +1,96 @@
+package net.citizensnpcs.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitScheduler;
+import org.bukkit.scheduler.BukkitTask;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import net.citizensnpcs.TestServer;
+
+public class TimingWheelTest {
+    private BukkitScheduler scheduler;
+    private BukkitTask task;
+    private TimingWheel wheel;
+
+    private void advance(int ticks) {
+        ArgumentCaptor<Runnable> captor = ArgumentCaptor.forClass(Runnable.class);
+        verify(scheduler, times(1)).runTaskTimer(any(Plugin.class), captor.capture(), anyLong(), anyLong());
+        for (int i = 0; i < ticks; i++) {
+            captor.getValue().run();
+        }
+    }
+
+    @Test
+    public void cancelsTaskOnceIdle() {
+        wheel.schedule(() -> {
+        }, 2);
+        advance(1);
+        verify(task, never()).cancel();
+        advance(1);
+        verify(task).cancel();
+        wheel.schedule(() -> {
+        }, 1);
+        verify(scheduler, times(2)).runTaskTimer(any(Plugin.class), any(Runnable.class), anyLong(), anyLong());
+    }
+
+    @Test
+    public void clampsDelayToOneTick() {
+        AtomicInteger runs = new AtomicInteger();
+        wheel.schedule(runs::incrementAndGet, 0);
+        advance(1);
+        assertEquals(1, runs.get());
+    }
+
+    @Test
+    public void runsAfterDelay() {
+        AtomicInteger runs = new AtomicInteger();
+        wheel.schedule(runs::incrementAndGet, 3);
+        advance(2);
+        assertEquals(0, runs.get());
+        advance(1);
+        assertEquals(1, runs.get());
+    }
+
+    @Test
+    public void runsTaskScheduledByTaskOnNextRevolution() {
+        AtomicInteger runs = new AtomicInteger();
+        wheel.schedule(() -> wheel.schedule(runs::incrementAndGet, 4), 1);
+        advance(4);
+        assertEquals(0, runs.get());
+        advance(1);
+        assertEquals(1, runs.get());
+    }
+
+    @Before
+    public void setUp() {
+        scheduler = TestServer.getScheduler();
+        reset(scheduler);
+        task = mock(BukkitTask.class);
+        when(scheduler.runTaskTimer(any(Plugin.class), any(Runnable.class), anyLong(), anyLong())).thenReturn(task);
+        wheel = new TimingWheel(4);
+    }
+
+    @Test
+    public void waitsOutRemainingRounds() {
+        AtomicInteger runs = new AtomicInteger();
+        wheel.schedule(runs::incrementAndGet, 10);
+        advance(9);
+        assertEquals(0, runs.get());
+        advance(1);
+        assertEquals(1, runs.get());
+    }
+}
@@ -323,6 +323,11 @@ public class NMSImpl implements NMSBridge {
         }
     }
 
+    @Override
+    public org.bukkit.entity.Entity createPacketEntity(EntityType type, Location at) {
+        return ((CraftWorld) at.getWorld()).createEntity(at, type.getEntityClass()).getBukkitEntity();
+    }
+
     @Override
     public EntityPacketTracker createPacketTracker(org.bukkit.entity.Entity entity, PacketAggregator agg) {
         Entity handle = getHandle(entity);
@@ -1881,11 +1886,11 @@ public class NMSImpl implements NMSBridge {
     }
 
     public static void sendPacketsNearby(Player from, Location location, Collection<Packet<?>> packets, double radius) {
-        radius *= radius;
+        double radiusSquared = radius * radius;
         final org.bukkit.World world = location.getWorld();
         for (Player player : CitizensAPI.getLocationLookup().getNearbyPlayers(location, radius)) {
             if (world != player.getWorld() || (from != null && !player.canSee(from))
-                    || (location.distanceSquared(player.getLocation(PACKET_CACHE_LOCATION)) > radius)) {
+                    || (location.distanceSquared(player.getLocation(PACKET_CACHE_LOCATION)) > radiusSquared)) {
                 continue;
             }
             for (Packet<?> packet : packets) {
@@ -487,6 +487,11 @@ public class NMSImpl implements NMSBridge {
         return source.isEmpty() ? ImmutableList.of() : ImmutableList.of(new ClientboundBundlePacket(source));
     }
 
+    @Override
+    public org.bukkit.entity.Entity createPacketEntity(EntityType type, Location at) {
+        return ((CraftWorld) at.getWorld()).createEntity(at, type.getEntityClass()).getBukkitEntity();
+    }
+
     @Override
     public EntityPacketTracker createPacketTracker(org.bukkit.entity.Entity entity, PacketAggregator agg) {
         Entity handle = getHandle(entity);
@@ -578,6 +583,19 @@ public class NMSImpl implements NMSBridge {
         return Setting.AUTH_SERVER_URL.asString();
     }
 
+    @Override
+    public void flushPackets() {
+        if (PENDING_PACKETS.isEmpty())
+            return;
+        for (Map.Entry<UUID, List<Packet<?>>> entry : PENDING_PACKETS.entrySet()) {
+            Player player = Bukkit.getPlayer(entry.getKey());
+            if (player == null)
+                continue;
+            sendPendingPackets((ServerPlayer) getHandle(player), entry.getValue());
+        }
+        PENDING_PACKETS.clear();
+    }
+
     @Override
     public BlockBreaker getBlockBreaker(org.bukkit.entity.Entity entity, org.bukkit.block.Block targetBlock,
             BlockBreakerConfiguration config) {
@@ -2310,7 +2328,15 @@ public class NMSImpl implements NMSBridge {
     public static void sendPacket(Player player, Packet<?> packet) {
         if (packet == null)
             return;
-        ((ServerPlayer) getHandle(player)).connection.send(packet);
+        ServerPlayer handle = (ServerPlayer) getHandle(player);
+        if (!PENDING_PACKETS.isEmpty() && Bukkit.isPrimaryThread()) {
+            // keep packets in order by sending the bundle queued for this player first
+            List<Packet<?>> pending = PENDING_PACKETS.remove(player.getUniqueId());
+            if (pending != null) {
+                sendPendingPackets(handle, pending);
+            }
+        }
+        handle.connection.send(packet);
     }
 
     public static void sendPacketNearby(Player from, Location location, Packet<?> packet) {
@@ -2324,11 +2350,22 @@ public class NMSImpl implements NMSBridge {
     }
 
     public static void sendPacketsNearby(Player from, Location location, Collection<Packet<?>> packets, double radius) {
-        radius *= radius;
+        double radiusSquared = radius * radius;
         final org.bukkit.World world = location.getWorld();
+        boolean bundle = Setting.PACKET_BUNDLE_NEARBY.asBoolean();
         for (Player player : CitizensAPI.getLocationLookup().getNearbyPlayers(location, radius)) {
             if (world != player.getWorld() || (from != null && !player.canSee(from))
-                    || (location.distanceSquared(player.getLocation(PACKET_CACHE_LOCATION)) > radius)) {
+                    || (location.distanceSquared(player.getLocation(PACKET_CACHE_LOCATION)) > radiusSquared)) {
+                continue;
+            }
+            if (bundle) {
+                List<Packet<?>> pending = PENDING_PACKETS.computeIfAbsent(player.getUniqueId(),
+                        uuid -> Lists.newArrayList());
+                for (Packet<?> packet : packets) {
+                    if (packet != null) {
+                        pending.add(packet);
+                    }
+                }
                 continue;
             }
             for (Packet<?> packet : packets) {
@@ -2341,6 +2378,17 @@ public class NMSImpl implements NMSBridge {
         sendPacketsNearby(from, location, Arrays.asList(packets), 64);
     }
 
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    private static void sendPendingPackets(ServerPlayer handle, List<Packet<?>> packets) {
+        if (packets.size() == 1) {
+            handle.connection.send(packets.get(0));
+            return;
+        }
+        for (List<Packet<?>> bundle : Lists.partition(packets, MAX_BUNDLE_SIZE)) {
+            handle.connection.send(new ClientboundBundlePacket((List) bundle));
+        }
+    }
+
     public static void setAdvancement(Player entity, PlayerAdvancements instance) {
         try {
             ADVANCEMENTS_PLAYER_SETTER.invoke(getHandle(entity), instance);
@@ -2552,6 +2600,7 @@ public class NMSImpl implements NMSBridge {
     private static final MethodHandle LOOK_CONTROL_SETTER = NMS.getFirstSetter(Mob.class, LookControl.class);
     private static final MethodHandle MAKE_REQUEST = NMS.getMethodHandle(YggdrasilAuthenticationService.class,
             "makeRequest", true, URL.class, Object.class, Class.class);
+    private static final int MAX_BUNDLE_SIZE = 4096;
     private static MethodHandle MOVE_CONTROLLER_OPERATION = NMS.getSetter(MoveControl.class, "k");
     private static final MethodHandle NAVIGATION_CREATE_PATHFINDER = NMS
             .getFirstMethodHandleWithReturnType(PathNavigation.class, true, PathFinder.class, int.class);
@@ -2560,6 +2609,7 @@ public class NMSImpl implements NMSBridge {
             PathFinder.class);
     private static final MethodHandle NAVIGATION_WORLD_FIELD = NMS.getFirstSetter(PathNavigation.class, Level.class);
     private static final Location PACKET_CACHE_LOCATION = new Location(null, 0, 0, 0);
+    private static final Map<UUID, List<Packet<?>>> PENDING_PACKETS = Maps.newHashMap();
     private static final MethodHandle PLAYER_CHUNK_MAP_VIEW_DISTANCE_GETTER = NMS.getFirstGetter(ChunkMap.class,
             int.class);
     private static final MethodHandle PLAYER_CHUNK_MAP_VIEW_DISTANCE_SETTER = NMS.getFirstSetter(ChunkMap.class,